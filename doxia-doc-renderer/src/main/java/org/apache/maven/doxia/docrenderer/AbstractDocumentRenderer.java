@@ -460,11 +460,12 @@ public abstract class AbstractDocumentRenderer
             getLogger().debug( "Parsing file " + fullDocPath );
         }
 
+        File f = new File( fullDocPath );
+        Object event = DocumentRendererEvents.DOCUMENT_PARSING.begin();
+
         Reader reader = null;
         try
         {
-            File f = new File( fullDocPath );
-
             Parser parser = doxia.getParser( parserId );
             switch ( parser.getType() )
             {
@@ -521,6 +522,8 @@ public abstract class AbstractDocumentRenderer
             IOUtil.close( reader );
 
             sink.flush();
+
+            DocumentRendererEvents.DOCUMENT_PARSING.commit( event, fullDocPath, parserId, Long.valueOf( f.length() ) );
         }
     }
 
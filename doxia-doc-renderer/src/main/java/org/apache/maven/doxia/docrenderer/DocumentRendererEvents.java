@@ -0,0 +1,70 @@
+package org.apache.maven.doxia.docrenderer;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.File;
+
+/**
+ * The JDK Flight Recorder events of the document renderers, emitted when the Java runtime has a Flight Recorder
+ * and a recording enables them.
+ *
+ * @version $Id$
+ * @since 1.4
+ * @see JfrEventType
+ */
+public final class DocumentRendererEvents
+{
+    /** The parsing of a source document into a sink. */
+    public static final JfrEventType DOCUMENT_PARSING =
+        JfrEventType.create( "org.apache.maven.doxia.DocumentParsing", "Document Parsing",
+                             "The parsing of a source document by a document renderer",
+                             new String[] { "document", "parserId", "sourceBytes" },
+                             new Class<?>[] { String.class, String.class, long.class } );
+
+    /** The generation of a PDF file from an intermediate file. */
+    public static final JfrEventType PDF_GENERATION =
+        JfrEventType.create( "org.apache.maven.doxia.PdfGeneration", "PDF Generation",
+                             "The generation of a PDF file from a FO or iText file, -1 bytes if it failed",
+                             new String[] { "input", "output", "outputBytes" },
+                             new Class<?>[] { String.class, String.class, long.class } );
+
+    private DocumentRendererEvents()
+    {
+        // constants only
+    }
+
+    /**
+     * End a PDF generation event.
+     *
+     * @param event the event returned by {@link JfrEventType#begin()} on {@link #PDF_GENERATION}, may be
+     *      <code>null</code>.
+     * @param input the FO or iText file.
+     * @param output the PDF file.
+     * @param generated <code>true</code> if the PDF file was generated.
+     */
+    public static void pdfGenerated( Object event, File input, File output, boolean generated )
+    {
+        if ( event != null )
+        {
+            PDF_GENERATION.commit( event, input.getPath(), output.getPath(),
+                                   Long.valueOf( generated ? output.length() : -1 ) );
+        }
+    }
+}
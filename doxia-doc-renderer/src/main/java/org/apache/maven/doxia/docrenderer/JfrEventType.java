@@ -0,0 +1,286 @@
+package org.apache.maven.doxia.docrenderer;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A JDK Flight Recorder event type of the document renderers, defined through the <code>jdk.jfr</code> API found
+ * by reflection: the renderers are built for older Java versions, and emit events when they run on Java 11 or
+ * later. The site renderer defines its own events the same way, this module not depending on it. Elsewhere, or while no recording enables the type, {@link #begin()} returns <code>null</code> and
+ * {@link #commit(Object, Object...)} does nothing, so that events cost a check when no recording is running.
+ * <p>
+ * Fields are <code>String</code>, <code>int</code> or <code>long</code> values; a <code>long</code> field whose
+ * name ends with <code>Bytes</code> is an amount of bytes. Events do not record stack traces.
+ * </p>
+ *
+ * @version $Id$
+ * @since 1.4
+ */
+public final class JfrEventType
+{
+    private static final String[] CATEGORY = { "Maven", "Doxia" };
+
+    /** The <code>jdk.jfr</code> API, <code>null</code> if the Java runtime has no Flight Recorder. */
+    private static final Api API = Api.load();
+
+    /** The <code>jdk.jfr.EventFactory</code> of the type, <code>null</code> if events are not available. */
+    private final Object factory;
+
+    /** The <code>jdk.jfr.EventType</code>, <code>null</code> if events are not available. */
+    private final Object eventType;
+
+    private JfrEventType( Object factory, Object eventType )
+    {
+        this.factory = factory;
+        this.eventType = eventType;
+    }
+
+    /**
+     * Define an event type, in the <code>Maven/Doxia</code> category.
+     *
+     * @param name the event type name, like <code>org.apache.maven.doxia.SiteRendering</code>.
+     * @param label the label shown by Mission Control.
+     * @param description the description of the event.
+     * @param fieldNames the names of the fields, in the order of the values given to
+     *      {@link #commit(Object, Object...)}.
+     * @param fieldTypes the types of the fields.
+     * @return the event type, never null: without Flight Recorder, its events are simply not emitted.
+     */
+    public static JfrEventType create( String name, String label, String description, String[] fieldNames,
+                                       Class<?>[] fieldTypes )
+    {
+        if ( API == null )
+        {
+            return new JfrEventType( null, null );
+        }
+
+        try
+        {
+            List<Object> annotations = new ArrayList<Object>();
+            annotations.add( API.annotation( "Name", name ) );
+            annotations.add( API.annotation( "Label", label ) );
+            annotations.add( API.annotation( "Description", description ) );
+            annotations.add( API.annotation( "Category", CATEGORY ) );
+            annotations.add( API.annotation( "StackTrace", Boolean.FALSE ) );
+
+            List<Object> fields = new ArrayList<Object>();
+            for ( int i = 0; i < fieldNames.length; i++ )
+            {
+                List<Object> fieldAnnotations = new ArrayList<Object>();
+                fieldAnnotations.add( API.annotation( "Label", toLabel( fieldNames[i] ) ) );
+                if ( fieldTypes[i] == long.class && fieldNames[i].endsWith( "Bytes" ) )
+                {
+                    fieldAnnotations.add( API.annotation( "DataAmount", "BYTES" ) );
+                }
+
+                fields.add( API.valueDescriptor.newInstance( fieldTypes[i], fieldNames[i], fieldAnnotations ) );
+            }
+
+            Object factory = API.create.invoke( null, annotations, fields );
+
+            return new JfrEventType( factory, API.getEventType.invoke( factory ) );
+        }
+        catch ( Exception e )
+        {
+            return new JfrEventType( null, null );
+        }
+        catch ( LinkageError e )
+        {
+            return new JfrEventType( null, null );
+        }
+    }
+
+    /**
+     * @return <code>true</code> if a running recording enables this event type.
+     */
+    public boolean isEnabled()
+    {
+        if ( eventType == null )
+        {
+            return false;
+        }
+
+        try
+        {
+            return ( (Boolean) API.isEnabled.invoke( eventType ) ).booleanValue();
+        }
+        catch ( Exception e )
+        {
+            return false;
+        }
+    }
+
+    /**
+     * Start timing an event.
+     *
+     * @return the event, to be given to {@link #commit(Object, Object...)}, or <code>null</code> if the event type
+     *      is not enabled.
+     */
+    public Object begin()
+    {
+        if ( !isEnabled() )
+        {
+            return null;
+        }
+
+        try
+        {
+            Object event = API.newEvent.invoke( factory );
+            API.begin.invoke( event );
+
+            return event;
+        }
+        catch ( Exception e )
+        {
+            return null;
+        }
+    }
+
+    /**
+     * End an event and write it to the recordings.
+     *
+     * @param event the event returned by {@link #begin()}, may be <code>null</code>.
+     * @param values the field values, in the order of the field names.
+     */
+    public void commit( Object event, Object... values )
+    {
+        if ( event == null )
+        {
+            return;
+        }
+
+        try
+        {
+            for ( int i = 0; i < values.length; i++ )
+            {
+                API.set.invoke( event, Integer.valueOf( i ), values[i] );
+            }
+
+            API.commit.invoke( event );
+        }
+        catch ( Exception e )
+        {
+            // the event is lost, not the document
+        }
+    }
+
+    /**
+     * @return a label from a field name, like <code>Output Bytes</code> for <code>outputBytes</code>.
+     */
+    private static String toLabel( String fieldName )
+    {
+        StringBuilder label = new StringBuilder( fieldName.length() + 4 );
+
+        for ( int i = 0; i < fieldName.length(); i++ )
+        {
+            char c = fieldName.charAt( i );
+
+            if ( i == 0 )
+            {
+                label.append( Character.toUpperCase( c ) );
+            }
+            else
+            {
+                if ( Character.isUpperCase( c ) )
+                {
+                    label.append( ' ' );
+                }
+                label.append( c );
+            }
+        }
+
+        return label.toString();
+    }
+
+    /**
+     * The members of the <code>jdk.jfr</code> API used to define and emit events.
+     */
+    private static final class Api
+    {
+        private final Constructor<?> annotationElement;
+
+        final Constructor<?> valueDescriptor;
+
+        final Method create;
+
+        final Method getEventType;
+
+        final Method isEnabled;
+
+        final Method newEvent;
+
+        final Method begin;
+
+        final Method set;
+
+        final Method commit;
+
+        private Api()
+            throws Exception
+        {
+            Class<?> annotationElementClass = Class.forName( "jdk.jfr.AnnotationElement" );
+            Class<?> eventFactoryClass = Class.forName( "jdk.jfr.EventFactory" );
+            Class<?> eventClass = Class.forName( "jdk.jfr.Event" );
+
+            annotationElement = annotationElementClass.getConstructor( Class.class, Object.class );
+            valueDescriptor =
+                Class.forName( "jdk.jfr.ValueDescriptor" ).getConstructor( Class.class, String.class, List.class );
+            create = eventFactoryClass.getMethod( "create", List.class, List.class );
+            getEventType = eventFactoryClass.getMethod( "getEventType" );
+            isEnabled = Class.forName( "jdk.jfr.EventType" ).getMethod( "isEnabled" );
+            newEvent = eventFactoryClass.getMethod( "newEvent" );
+            begin = eventClass.getMethod( "begin" );
+            set = eventClass.getMethod( "set", int.class, Object.class );
+            commit = eventClass.getMethod( "commit" );
+        }
+
+        static Api load()
+        {
+            try
+            {
+                return new Api();
+            }
+            catch ( Exception e )
+            {
+                // Java runtime older than 11, or without the jdk.jfr module
+                return null;
+            }
+            catch ( LinkageError e )
+            {
+                return null;
+            }
+        }
+
+        /**
+         * @param type the simple name of a <code>jdk.jfr</code> annotation.
+         * @param value the annotation value.
+         * @return a new <code>jdk.jfr.AnnotationElement</code>.
+         */
+        Object annotation( String type, Object value )
+            throws Exception
+        {
+            return annotationElement.newInstance( Class.forName( "jdk.jfr." + type ), value );
+        }
+    }
+}
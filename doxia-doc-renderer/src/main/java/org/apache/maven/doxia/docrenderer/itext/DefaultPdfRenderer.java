@@ -25,6 +25,7 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 
 import org.apache.maven.doxia.docrenderer.DocumentRendererException;
+import org.apache.maven.doxia.docrenderer.DocumentRendererEvents;
 import org.apache.maven.doxia.module.itext.ITextUtil;
 import org.codehaus.plexus.component.annotations.Component;
 
@@ -54,13 +55,20 @@ public class DefaultPdfRenderer
         {
             getLogger().debug( "Writing : " + iTextOutput );
         }
+        Object event = DocumentRendererEvents.PDF_GENERATION.begin();
+        boolean generated = false;
         try
         {
             ITextUtil.writePdf( new FileInputStream( iTextFile ), new FileOutputStream( iTextOutput ) );
+            generated = true;
         }
         catch ( RuntimeException e )
         {
             throw new DocumentRendererException( "Error writing PDF from " + iTextOutput + ": " + e.getMessage() );
         }
+        finally
+        {
+            DocumentRendererEvents.pdfGenerated( event, iTextFile, iTextOutput, generated );
+        }
     }
 }
@@ -35,6 +35,7 @@ import javax.xml.transform.TransformerException;
 import org.apache.fop.apps.FopFactory;
 import org.apache.maven.doxia.docrenderer.DocumentRendererContext;
 import org.apache.maven.doxia.docrenderer.DocumentRendererException;
+import org.apache.maven.doxia.docrenderer.DocumentRendererEvents;
 import org.apache.maven.doxia.docrenderer.pdf.AbstractPdfRenderer;
 import org.apache.maven.doxia.docrenderer.pdf.PdfRenderer;
 import org.apache.maven.doxia.document.DocumentModel;
@@ -475,10 +476,13 @@ public class FoPdfRenderer
             getLogger().debug( "Generating: " + pdfFile );
         }
 
+        Object event = DocumentRendererEvents.PDF_GENERATION.begin();
+        boolean generated = false;
         try
         {
             configureFop();
             FoUtils.convertFO2PDF( inputFile, pdfFile, null, documentModel );
+            generated = true;
         }
         catch ( TransformerException e )
         {
@@ -495,6 +499,10 @@ public class FoPdfRenderer
 
             throw new DocumentRendererException( "Error creating PDF from " + inputFile + ": " + e.getMessage() );
         }
+        finally
+        {
+            DocumentRendererEvents.pdfGenerated( event, inputFile, pdfFile, generated );
+        }
     }
 
     /**
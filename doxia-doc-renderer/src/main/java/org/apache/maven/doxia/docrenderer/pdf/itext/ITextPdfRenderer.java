@@ -50,6 +50,7 @@ import javax.xml.transform.stream.StreamSource;
 
 import org.apache.maven.doxia.docrenderer.DocumentRendererContext;
 import org.apache.maven.doxia.docrenderer.DocumentRendererException;
+import org.apache.maven.doxia.docrenderer.DocumentRendererEvents;
 import org.apache.maven.doxia.docrenderer.pdf.AbstractPdfRenderer;
 import org.apache.maven.doxia.docrenderer.pdf.PdfRenderer;
 import org.apache.maven.doxia.document.DocumentCover;
@@ -119,9 +120,12 @@ public class ITextPdfRenderer
             getLogger().debug( "Generating : " + pdfFile );
         }
 
+        Object event = DocumentRendererEvents.PDF_GENERATION.begin();
+        boolean generated = false;
         try
         {
             ITextUtil.writePdf( new FileInputStream( inputFile ), new FileOutputStream( pdfFile ) );
+            generated = true;
         }
         catch ( IOException e )
         {
@@ -131,6 +135,10 @@ public class ITextPdfRenderer
         {
             throw new DocumentRendererException( "Error creating PDF from " + inputFile + ": " + e.getMessage(), e );
         }
+        finally
+        {
+            DocumentRendererEvents.pdfGenerated( event, inputFile, pdfFile, generated );
+        }
     }
 
     /** {@inheritDoc} */
@@ -24,6 +24,7 @@ import java.util.List;
 
 import org.apache.maven.doxia.docrenderer.pdf.PdfRenderer;
 import org.apache.maven.doxia.document.DocumentModel;
+import org.apache.maven.doxia.siterenderer.SiteGenerator;
 import org.codehaus.plexus.PlexusTestCase;
 import org.codehaus.plexus.util.FileUtils;
 import org.codehaus.plexus.util.StringUtils;
@@ -73,6 +74,38 @@ public class DocumentRendererTest
         renderAggregatedImpl( "fo" );
     }
 
+    /**
+     * Render a generated site, of <code>doxia.scale.documents</code> documents: 20 by default.
+     *
+     * @throws java.lang.Exception
+     */
+    public void testFoGeneratedSite()
+        throws Exception
+    {
+        File siteDirectory = getTestFile( "target/generated-site" );
+        FileUtils.deleteDirectory( siteDirectory );
+
+        SiteGenerator generator = new SiteGenerator();
+        generator.setDocuments( Integer.getInteger( "doxia.scale.documents", 20 ).intValue() );
+        List<String> sources = generator.generate( siteDirectory );
+
+        File outputDirectory = getTestFile( "target/output/fo-generated" );
+        FileUtils.deleteDirectory( outputDirectory );
+        outputDirectory.mkdirs();
+
+        docRenderer = (PdfRenderer) lookup( PdfRenderer.ROLE, "fo" );
+        docRenderer.render( siteDirectory, outputDirectory, null );
+
+        for ( String source : sources )
+        {
+            // apt/a/b.apt.vm -> a/b.pdf
+            String name = source.substring( source.indexOf( '/' ) + 1 );
+            name = name.substring( 0, name.indexOf( '.' ) ) + ".pdf";
+
+            assertTrue( name, new File( outputDirectory, name ).length() > 0 );
+        }
+    }
+
     /** @throws java.lang.Exception */
     public void testIText()
         throws Exception
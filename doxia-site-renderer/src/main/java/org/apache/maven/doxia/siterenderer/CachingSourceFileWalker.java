@@ -0,0 +1,247 @@
+package org.apache.maven.doxia.siterenderer;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.codehaus.plexus.util.IOUtil;
+
+/**
+ * A {@link SourceFileWalker} remembering the content of every directory it listed, in a cache file.
+ * A directory is listed again only if its last modification date changed: adding, removing or renaming a
+ * file changes it, editing a file does not, and the content of files does not matter to locate documents.
+ * A listing taken less than {@link #RACY_INTERVAL} after the directory last changed is not trusted, as a
+ * file system with coarse timestamps could miss a later change in the same interval.
+ *
+ * @version $Id$
+ * @since 1.4
+ */
+class CachingSourceFileWalker
+    extends SourceFileWalker
+{
+    /** The cache file name, in the cache directory. */
+    static final String FILE_NAME = "source-directories.cache";
+
+    /** The minimum delay between a directory change and its listing, for the listing to be reused. */
+    static final long RACY_INTERVAL = 2000;
+
+    private static final int MAGIC = 0x44534443;
+
+    private static final int VERSION = 1;
+
+    private final File file;
+
+    private final Map<String, CachedListing> previous = new ConcurrentHashMap<String, CachedListing>();
+
+    private final Map<String, CachedListing> current = new ConcurrentHashMap<String, CachedListing>();
+
+    private final AtomicInteger reused = new AtomicInteger();
+
+    private final AtomicInteger listed = new AtomicInteger();
+
+    /**
+     * Create a walker using the cache of a cache directory. A missing or unreadable cache is ignored.
+     *
+     * @param cacheDirectory the cache directory, not null.
+     */
+    CachingSourceFileWalker( File cacheDirectory )
+    {
+        this.file = new File( cacheDirectory, FILE_NAME );
+
+        if ( file.isFile() )
+        {
+            try
+            {
+                read();
+            }
+            catch ( IOException e )
+            {
+                // corrupted or from another version: list everything again
+                previous.clear();
+            }
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    Listing list( File dir )
+    {
+        String path = dir.getAbsolutePath();
+        long lastModified = dir.lastModified();
+
+        CachedListing cached = previous.get( path );
+
+        if ( cached != null && lastModified != 0 && cached.lastModified == lastModified
+            && cached.listedAt - lastModified >= RACY_INTERVAL )
+        {
+            reused.incrementAndGet();
+        }
+        else
+        {
+            long listedAt = System.currentTimeMillis();
+
+            cached = new CachedListing( lastModified, listedAt, super.list( dir ) );
+
+            listed.incrementAndGet();
+        }
+
+        current.put( path, cached );
+
+        return cached.listing;
+    }
+
+    /**
+     * @return the number of directories whose cached content was used.
+     */
+    int getReusedCount()
+    {
+        return reused.get();
+    }
+
+    /**
+     * @return the number of directories that had to be listed.
+     */
+    int getListedCount()
+    {
+        return listed.get();
+    }
+
+    /**
+     * Write the content of the directories walked since this walker was created to the cache file: the
+     * directories that were not walked are forgotten.
+     *
+     * @throws IOException if the cache file cannot be written.
+     */
+    void save()
+        throws IOException
+    {
+        file.getParentFile().mkdirs();
+
+        File tmp = new File( file.getPath() + ".tmp" );
+
+        DataOutputStream out = null;
+        try
+        {
+            out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( tmp ) ) );
+
+            out.writeInt( MAGIC );
+            out.writeInt( VERSION );
+
+            Map<String, CachedListing> snapshot = new TreeMap<String, CachedListing>( current );
+            out.writeInt( snapshot.size() );
+            for ( Map.Entry<String, CachedListing> entry : snapshot.entrySet() )
+            {
+                CachedListing cached = entry.getValue();
+
+                out.writeUTF( entry.getKey() );
+                out.writeLong( cached.lastModified );
+                out.writeLong( cached.listedAt );
+                out.writeInt( cached.listing.names.length );
+                for ( int i = 0; i < cached.listing.names.length; i++ )
+                {
+                    out.writeUTF( cached.listing.names[i] );
+                    out.writeByte( cached.listing.types[i] );
+                }
+            }
+        }
+        finally
+        {
+            IOUtil.close( out );
+        }
+
+        if ( !tmp.renameTo( file ) )
+        {
+            // File.renameTo() does not overwrite on every platform
+            file.delete();
+
+            if ( !tmp.renameTo( file ) )
+            {
+                throw new IOException( "Unable to write " + file );
+            }
+        }
+    }
+
+    private void read()
+        throws IOException
+    {
+        DataInputStream in = null;
+        try
+        {
+            in = new DataInputStream( new BufferedInputStream( new FileInputStream( file ) ) );
+
+            if ( in.readInt() != MAGIC || in.readInt() != VERSION )
+            {
+                throw new IOException( "Unsupported cache " + file );
+            }
+
+            for ( int count = in.readInt(); count > 0; count-- )
+            {
+                String path = in.readUTF();
+                long lastModified = in.readLong();
+                long listedAt = in.readLong();
+
+                int length = in.readInt();
+                String[] names = new String[length];
+                byte[] types = new byte[length];
+                for ( int i = 0; i < length; i++ )
+                {
+                    names[i] = in.readUTF();
+                    types[i] = in.readByte();
+                }
+
+                previous.put( path, new CachedListing( lastModified, listedAt, new Listing( names, types ) ) );
+            }
+        }
+        finally
+        {
+            IOUtil.close( in );
+        }
+    }
+
+    /**
+     * The content of a directory, with the last modification date of the directory when it was listed.
+     */
+    private static final class CachedListing
+    {
+        final long lastModified;
+
+        final long listedAt;
+
+        final Listing listing;
+
+        CachedListing( long lastModified, long listedAt, Listing listing )
+        {
+            this.lastModified = lastModified;
+            this.listedAt = listedAt;
+            this.listing = listing;
+        }
+    }
+}
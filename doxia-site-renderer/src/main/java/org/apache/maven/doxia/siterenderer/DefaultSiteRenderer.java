@@ -19,8 +19,8 @@ package org.apache.maven.doxia.siterenderer;
  * under the License.
  */
 
-import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
@@ -28,7 +28,6 @@ import java.io.InputStream;
 import java.io.LineNumberReader;
 import java.io.OutputStream;
 import java.io.Reader;
-import java.io.StringReader;
 import java.io.StringWriter;
 import java.io.UnsupportedEncodingException;
 import java.io.Writer;
@@ -37,37 +36,50 @@ import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLClassLoader;
 
+import java.security.MessageDigest;
+
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
-import java.util.Enumeration;
-import java.util.Iterator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
-import java.util.LinkedList;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
 import java.util.zip.ZipEntry;
-import java.util.zip.ZipException;
 import java.util.zip.ZipFile;
 
-import org.apache.maven.doxia.Doxia;
 import org.apache.maven.doxia.logging.PlexusLoggerWrapper;
 import org.apache.maven.doxia.sink.render.RenderingContext;
 import org.apache.maven.doxia.parser.ParseException;
 import org.apache.maven.doxia.parser.Parser;
-import org.apache.maven.doxia.parser.manager.ParserNotFoundException;
 import org.apache.maven.doxia.site.decoration.DecorationModel;
+import org.apache.maven.doxia.site.decoration.io.xpp3.DecorationXpp3Writer;
 import org.apache.maven.doxia.module.site.SiteModule;
 import org.apache.maven.doxia.module.site.manager.SiteModuleManager;
 import org.apache.maven.doxia.module.site.manager.SiteModuleNotFoundException;
+import org.apache.maven.doxia.siterenderer.XmlSourceValidator.ValidationResult;
+import org.apache.maven.doxia.siterenderer.jfr.JfrEventType;
+import org.apache.maven.doxia.siterenderer.jfr.JfrRenderListener;
+import org.apache.maven.doxia.siterenderer.sink.ContentBuffer;
 import org.apache.maven.doxia.siterenderer.sink.SiteRendererSink;
-import org.apache.maven.doxia.util.XmlValidator;
 
 import org.apache.velocity.Template;
 import org.apache.velocity.context.Context;
@@ -75,8 +87,17 @@ import org.apache.velocity.tools.ToolManager;
 
 import org.codehaus.plexus.component.annotations.Component;
 import org.codehaus.plexus.component.annotations.Requirement;
+import org.codehaus.plexus.component.repository.exception.ComponentLookupException;
+import org.codehaus.plexus.context.ContextException;
 import org.codehaus.plexus.i18n.I18N;
+import org.codehaus.plexus.PlexusConstants;
+import org.codehaus.plexus.PlexusContainer;
 import org.codehaus.plexus.logging.AbstractLogEnabled;
+import org.codehaus.plexus.logging.Logger;
+import org.codehaus.plexus.personality.plexus.lifecycle.phase.Contextualizable;
+import org.codehaus.plexus.personality.plexus.lifecycle.phase.Disposable;
+import org.codehaus.plexus.personality.plexus.lifecycle.phase.Initializable;
+import org.codehaus.plexus.personality.plexus.lifecycle.phase.InitializationException;
 import org.codehaus.plexus.util.DirectoryScanner;
 import org.codehaus.plexus.util.FileUtils;
 import org.codehaus.plexus.util.IOUtil;
@@ -85,7 +106,6 @@ import org.codehaus.plexus.util.PathTool;
 import org.codehaus.plexus.util.ReaderFactory;
 import org.codehaus.plexus.util.StringUtils;
 import org.codehaus.plexus.util.WriterFactory;
-import org.codehaus.plexus.velocity.SiteResourceLoader;
 import org.codehaus.plexus.velocity.VelocityComponent;
 
 /**
@@ -99,7 +119,7 @@ import org.codehaus.plexus.velocity.VelocityComponent;
 @Component( role = Renderer.class )
 public class DefaultSiteRenderer
     extends AbstractLogEnabled
-    implements Renderer
+    implements Renderer, Contextualizable, Initializable, Disposable
 {
     // ----------------------------------------------------------------------
     // Requirements
@@ -111,17 +131,111 @@ public class DefaultSiteRenderer
     @Requirement
     private SiteModuleManager siteModuleManager;
 
-    @Requirement
-    private Doxia doxia;
-
     @Requirement
     private I18N i18n;
 
-    private static final String RESOURCE_DIR = "org/apache/maven/doxia/siterenderer/resources";
+    static final String RESOURCE_DIR = "org/apache/maven/doxia/siterenderer/resources";
 
     private static final String DEFAULT_TEMPLATE = RESOURCE_DIR + "/default-site.vm";
 
-    private static final String SKIN_TEMPLATE_LOCATION = "META-INF/maven/site.vm";
+    static final String SKIN_TEMPLATE_LOCATION = "META-INF/maven/site.vm";
+
+    private static final String POM_PROPERTIES =
+        "META-INF/maven/org.apache.maven.doxia/doxia-site-renderer/pom.properties";
+
+    /** The Velocity context keys having a value specific to each document. */
+    private static final Collection<String> DOCUMENT_CONTEXT_KEYS =
+        Arrays.asList( new String[] { "relativePath", "authors", "shortTitle", "title", "headContent", "bodyContent",
+            "dateCreation", "dateFormat", "currentFileName", "alignedFileName" } );
+
+    /** The version of this renderer, read once from its pom.properties, or <code>null</code> if not available. */
+    private String doxiaSiteRendererVersion;
+
+    /** Validates XML sources with the grammars compiled by previous validations. */
+    private XmlSourceValidator xmlValidator;
+
+    /** Emits Flight Recorder events during every rendering, or <code>null</code> if not available. */
+    private RenderListener jfrListener;
+
+    /** The parsers of the documents being rendered, one instance per document parsed concurrently. */
+    private ParserPool parserPool;
+
+    /** The skins whose class loader was given to a context, released when this renderer is disposed. */
+    private final Set<SkinArchive> skinArchives = new HashSet<SkinArchive>();
+
+    // ----------------------------------------------------------------------
+    // Lifecycle
+    // ----------------------------------------------------------------------
+
+    /** {@inheritDoc} */
+    public void contextualize( org.codehaus.plexus.context.Context context )
+        throws ContextException
+    {
+        parserPool = new ParserPool( (PlexusContainer) context.get( PlexusConstants.PLEXUS_KEY ) );
+    }
+
+    /** {@inheritDoc} */
+    public void initialize()
+        throws InitializationException
+    {
+        long start = System.currentTimeMillis();
+
+        InputStream inputStream = null;
+        try
+        {
+            inputStream = this.getClass().getClassLoader().getResourceAsStream( POM_PROPERTIES );
+            if ( inputStream == null )
+            {
+                getLogger().debug( "pom.properties for doxia-site-renderer could not be found." );
+            }
+            else
+            {
+                Properties properties = new Properties();
+                properties.load( inputStream );
+                doxiaSiteRendererVersion = properties.getProperty( "version" );
+            }
+        }
+        catch ( IOException e )
+        {
+            getLogger().debug( "Failed to load pom.properties, so doxiaVersion is not available in the velocityContext." );
+        }
+        finally
+        {
+            IOUtil.close( inputStream );
+        }
+
+        xmlValidator = new XmlSourceValidator( new PlexusLoggerWrapper( getLogger() ) );
+
+        // the events cost nothing while no recording is running
+        jfrListener = JfrEventType.isAvailable() ? new JfrRenderListener() : null;
+
+        if ( getLogger().isDebugEnabled() )
+        {
+            getLogger().debug( "Site renderer " + doxiaSiteRendererVersion + " initialized in "
+                + ( System.currentTimeMillis() - start ) + " ms" );
+        }
+    }
+
+    /**
+     * @return the logger of this renderer, for the watcher rendering with it.
+     */
+    Logger getRendererLogger()
+    {
+        return getLogger();
+    }
+
+    /** {@inheritDoc} */
+    public void dispose()
+    {
+        synchronized ( skinArchives )
+        {
+            for ( SkinArchive skin : skinArchives )
+            {
+                skin.release();
+            }
+            skinArchives.clear();
+        }
+    }
 
     // ----------------------------------------------------------------------
     // Renderer implementation
@@ -132,11 +246,178 @@ public class DefaultSiteRenderer
                         File outputDirectory )
         throws RendererException, IOException
     {
-        renderModule( documents, siteRenderingContext, outputDirectory );
+        if ( jfrListener != null )
+        {
+            siteRenderingContext.addRenderListener( jfrListener );
+        }
 
-        for ( File siteDirectory : siteRenderingContext.getSiteDirectories() )
+        RenderListener timingReport = null;
+        if ( siteRenderingContext.isTimingReport() )
+        {
+            timingReport = new RenderingTimeReport( getLogger(), RenderingTimeReport.DEFAULT_SLOWEST_COUNT );
+            siteRenderingContext.addRenderListener( timingReport );
+        }
+
+        List<RenderListener> listeners = new ArrayList<RenderListener>( siteRenderingContext.getRenderListeners() );
+
+        for ( RenderListener listener : listeners )
+        {
+            listener.renderingStarted( documents.size() );
+        }
+
+        try
+        {
+            renderDocuments( documents, siteRenderingContext, outputDirectory, true );
+
+            long start = System.nanoTime();
+            Object copyEvent = JfrRenderListener.RESOURCE_COPY.begin();
+
+            for ( File siteDirectory : siteRenderingContext.getSiteDirectories() )
+            {
+                copyResources( siteRenderingContext, new File( siteDirectory, "resources" ), outputDirectory );
+            }
+
+            int siteDirectoryCount = siteRenderingContext.getSiteDirectories().size();
+            JfrRenderListener.RESOURCE_COPY.commit( copyEvent, Integer.valueOf( siteDirectoryCount ) );
+
+            long nanos = System.nanoTime() - start;
+            for ( RenderListener listener : listeners )
+            {
+                listener.resourcesCopied( nanos );
+            }
+        }
+        finally
+        {
+            for ( RenderListener listener : listeners )
+            {
+                listener.renderingEnded();
+            }
+
+            if ( jfrListener != null )
+            {
+                siteRenderingContext.removeRenderListener( jfrListener );
+            }
+
+            if ( timingReport != null )
+            {
+                siteRenderingContext.removeRenderListener( timingReport );
+            }
+        }
+    }
+
+    /**
+     * Render documents, without copying resources.
+     *
+     * @param documents the documents to render.
+     * @param siteRenderingContext the site rendering context.
+     * @param outputDirectory the output directory.
+     * @throws RendererException if a document cannot be rendered.
+     * @throws IOException if an output cannot be written.
+     */
+    void renderDocuments( Collection<DocumentRenderer> documents, SiteRenderingContext siteRenderingContext,
+                          File outputDirectory )
+        throws RendererException, IOException
+    {
+        renderDocuments( documents, siteRenderingContext, outputDirectory, false );
+    }
+
+    /**
+     * Render documents, without copying resources.
+     *
+     * @param documents the documents to render.
+     * @param siteRenderingContext the site rendering context.
+     * @param outputDirectory the output directory.
+     * @param wholeSite <code>true</code> if the documents are all the documents of the site: the rendering manifest
+     *      then forgets the outputs of the other documents, deleted or renamed since.
+     * @throws RendererException if a document cannot be rendered.
+     * @throws IOException if an output cannot be written.
+     */
+    private void renderDocuments( Collection<DocumentRenderer> documents, SiteRenderingContext siteRenderingContext,
+                                  File outputDirectory, boolean wholeSite )
+        throws RendererException, IOException
+    {
+        // every rendering run gets fresh dates in the Velocity context
+        siteRenderingContext.setVelocityBaseContext( null );
+
+        RenderingManifest manifest = null;
+        if ( siteRenderingContext.isRenderingManifest() )
+        {
+            manifest = RenderingManifest.load( outputDirectory, getGlobalInputs( siteRenderingContext ) );
+
+            List<String> changes = manifest.getChangedGlobalInputs();
+            if ( !changes.isEmpty() )
+            {
+                getLogger().info( "Rendering inputs changed since last rendering (" + StringUtils.join(
+                    changes.iterator(), ", " ) + "): regenerating all documents." );
+            }
+        }
+
+        OutputStatistics statistics = new OutputStatistics();
+
+        SidecarCompressor compressor = null;
+        if ( siteRenderingContext.isGzipSidecars() )
+        {
+            compressor = new SidecarCompressor( siteRenderingContext.getThreadCount() );
+        }
+
+        ValidationCache validationCache = null;
+        if ( siteRenderingContext.isValidate() && siteRenderingContext.getCacheDirectory() != null )
+        {
+            validationCache = ValidationCache.load( siteRenderingContext.getCacheDirectory(), xmlValidator );
+            siteRenderingContext.setValidationCache( validationCache );
+        }
+
+        try
+        {
+            renderModule( documents, siteRenderingContext, outputDirectory, manifest, statistics, compressor );
+
+            if ( manifest != null && wholeSite )
+            {
+                manifest.prune();
+            }
+
+            if ( compressor != null )
+            {
+                int compressed = compressor.finish();
+
+                if ( getLogger().isDebugEnabled() )
+                {
+                    getLogger().debug( "Compressed " + compressed + " documents" );
+                }
+            }
+        }
+        finally
+        {
+            if ( compressor != null )
+            {
+                compressor.close();
+            }
+
+            if ( manifest != null )
+            {
+                saveManifest( manifest );
+            }
+
+            if ( validationCache != null )
+            {
+                siteRenderingContext.setValidationCache( null );
+                saveValidationCache( validationCache );
+            }
+        }
+
+        if ( siteRenderingContext.isWriteIfChanged() )
+        {
+            getLogger().info( "Rendered " + documents.size() + " documents: " + statistics );
+        }
+        else if ( getLogger().isDebugEnabled() )
         {
-            copyResources( siteRenderingContext, new File( siteDirectory, "resources" ), outputDirectory );
+            getLogger().debug( "Rendered " + documents.size() + " documents: " + statistics );
+        }
+
+        if ( getLogger().isDebugEnabled() )
+        {
+            getLogger().debug( "Template cache: " + siteRenderingContext.getTemplateCacheHits() + " hits, "
+                + siteRenderingContext.getTemplateCacheMisses() + " misses" );
         }
     }
 
@@ -144,9 +425,16 @@ public class DefaultSiteRenderer
     public Map<String, DocumentRenderer> locateDocumentFiles( SiteRenderingContext siteRenderingContext )
             throws IOException, RendererException
     {
+        Object discoveryEvent = JfrRenderListener.DOCUMENT_DISCOVERY.begin();
+
         Map<String, DocumentRenderer> files = new LinkedHashMap<String, DocumentRenderer>();
+        Map<String, List<String>> caseInsensitiveKeys = new HashMap<String, List<String>>();
         Map<String, String> moduleExcludes = siteRenderingContext.getModuleExcludes();
 
+        // every module directory is walked once, in parallel, then documents are added in the usual order
+        List<File> moduleDirectories = new ArrayList<File>();
+        List<SiteModule> siteModules = new ArrayList<SiteModule>();
+
         for ( File siteDirectory : siteRenderingContext.getSiteDirectories() )
         {
             if ( siteDirectory.exists() )
@@ -154,75 +442,191 @@ public class DefaultSiteRenderer
                 Collection<SiteModule> modules = siteModuleManager.getSiteModules();
                 for ( SiteModule module : modules )
                 {
-                    File moduleBasedir = new File( siteDirectory, module.getSourceDirectory() );
-
-                    if ( moduleExcludes != null && moduleExcludes.containsKey( module.getParserId() ) )
-                    {
-                        addModuleFiles( moduleBasedir, module, moduleExcludes.get( module.getParserId() ),
-                                files );
-                    }
-                    else
-                    {
-                        addModuleFiles( moduleBasedir, module, null, files );
-                    }
+                    moduleDirectories.add( new File( siteDirectory, module.getSourceDirectory() ) );
+                    siteModules.add( module );
                 }
             }
         }
 
+        List<ModuleReference> moduleReferences = new ArrayList<ModuleReference>();
+        List<SiteModule> referencedModules = new ArrayList<SiteModule>();
         for ( ModuleReference module : siteRenderingContext.getModules() )
         {
             try
             {
-                if ( moduleExcludes != null && moduleExcludes.containsKey( module.getParserId() ) )
-                {
-                    addModuleFiles( module.getBasedir(), siteModuleManager.getSiteModule( module.getParserId() ),
-                        moduleExcludes.get( module.getParserId() ), files );
-                }
-                else
-                {
-                    addModuleFiles( module.getBasedir(), siteModuleManager.getSiteModule( module.getParserId() ), null,
-                            files );
-                }
+                referencedModules.add( siteModuleManager.getSiteModule( module.getParserId() ) );
+                moduleReferences.add( module );
             }
             catch ( SiteModuleNotFoundException e )
             {
                 throw new RendererException( "Unable to find module: " + e.getMessage(), e );
             }
         }
+
+        Set<File> directories = new LinkedHashSet<File>( moduleDirectories );
+        for ( ModuleReference module : moduleReferences )
+        {
+            directories.add( module.getBasedir() );
+        }
+
+        Map<File, List<String>> walked;
+
+        if ( siteRenderingContext.getCacheDirectory() == null )
+        {
+            walked = walkModuleDirectories( new SourceFileWalker(), directories,
+                                            siteRenderingContext.getThreadCount() );
+        }
+        else
+        {
+            CachingSourceFileWalker walker = new CachingSourceFileWalker( siteRenderingContext.getCacheDirectory() );
+
+            walked = walkModuleDirectories( walker, directories, siteRenderingContext.getThreadCount() );
+
+            if ( getLogger().isDebugEnabled() )
+            {
+                getLogger().debug( "Source directories: " + walker.getListedCount() + " listed, "
+                    + walker.getReusedCount() + " unchanged" );
+            }
+
+            try
+            {
+                walker.save();
+            }
+            catch ( IOException e )
+            {
+                getLogger().warn( "Unable to save the source directories cache: " + e.getMessage() );
+            }
+        }
+
+        for ( int i = 0; i < moduleDirectories.size(); i++ )
+        {
+            File moduleBasedir = moduleDirectories.get( i );
+            SiteModule module = siteModules.get( i );
+            String excludes = ( moduleExcludes == null ) ? null : moduleExcludes.get( module.getParserId() );
+
+            addModuleFiles( moduleBasedir, walked.get( moduleBasedir ), module, excludes, files, caseInsensitiveKeys );
+        }
+
+        for ( int i = 0; i < moduleReferences.size(); i++ )
+        {
+            File basedir = moduleReferences.get( i ).getBasedir();
+            SiteModule module = referencedModules.get( i );
+            String excludes = ( moduleExcludes == null ) ? null : moduleExcludes.get( module.getParserId() );
+
+            addModuleFiles( basedir, walked.get( basedir ), module, excludes, files, caseInsensitiveKeys );
+        }
+
+        JfrRenderListener.DOCUMENT_DISCOVERY.commit( discoveryEvent, Integer.valueOf( directories.size() ),
+                                                     Integer.valueOf( files.size() ) );
+
         return files;
     }
 
-    private void addModuleFiles( File moduleBasedir, SiteModule module, String excludes,
-                                 Map<String, DocumentRenderer> files )
+    /**
+     * Walk module directories, in parallel if more than one thread is allowed.
+     *
+     * @return the candidate documents of each existing directory, as returned by {@link SourceFileWalker#walk(File)}.
+     */
+    private Map<File, List<String>> walkModuleDirectories( final SourceFileWalker walker, Collection<File> directories,
+                                                           int threadCount )
             throws IOException, RendererException
     {
-        if ( moduleBasedir.exists() )
+        Map<File, List<String>> walked = new HashMap<File, List<String>>();
+
+        List<File> existing = new ArrayList<File>();
+        for ( File directory : directories )
         {
-            @SuppressWarnings ( "unchecked" )
-            List<String> allFiles = FileUtils.getFileNames( moduleBasedir, "**/*.*", excludes, false );
+            if ( directory.exists() )
+            {
+                existing.add( directory );
+            }
+        }
+
+        int n = Math.min( threadCount, existing.size() );
 
-            String lowerCaseExtension = module.getExtension().toLowerCase( Locale.ENGLISH );
-            List<String> docs = new LinkedList<String>( allFiles );
-            // Take care of extension case
-            for ( Iterator<String> it = docs.iterator(); it.hasNext(); )
+        if ( n <= 1 )
+        {
+            for ( File directory : existing )
             {
-                String name = it.next().trim();
+                walked.put( directory, walker.walk( directory ) );
+            }
+
+            return walked;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool( n, new RendererThreadFactory( "site-scanner" ) );
+
+        try
+        {
+            Map<File, Future<List<String>>> results = new LinkedHashMap<File, Future<List<String>>>();
 
-                if ( !name.toLowerCase( Locale.ENGLISH ).endsWith( "." + lowerCaseExtension ) )
+            for ( final File directory : existing )
+            {
+                results.put( directory, executor.submit( new Callable<List<String>>()
                 {
-                    it.remove();
-                }
+                    public List<String> call()
+                    {
+                        return walker.walk( directory );
+                    }
+                } ) );
+            }
+
+            for ( Map.Entry<File, Future<List<String>>> result : results.entrySet() )
+            {
+                waitFor( result.getValue() );
+
+                walked.put( result.getKey(), result.getValue().get() );
             }
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+
+            throw new RendererException( "Interrupted while locating documents", e );
+        }
+        catch ( ExecutionException e )
+        {
+            // not reached: waitFor() already reported the failure
+            throw new RendererException( "Error while locating documents: " + e.getMessage(), e );
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+
+        return walked;
+    }
+
+    /**
+     * @param caseInsensitiveKeys the keys of <code>files</code>, indexed by {@link #toCaseInsensitiveKey(String)}
+     *      in insertion order: documents differing only by case are found without scanning every document.
+     */
+    private void addModuleFiles( File moduleBasedir, List<String> walkedFiles, SiteModule module, String excludes,
+                                 Map<String, DocumentRenderer> files, Map<String, List<String>> caseInsensitiveKeys )
+            throws IOException, RendererException
+    {
+        // not walked if it did not exist
+        if ( walkedFiles != null )
+        {
+            List<String> allFiles = SourceFileWalker.exclude( walkedFiles, excludes );
+
+            // Take care of extension case, and *.xml.vm
+            String docSuffix = "." + module.getExtension().toLowerCase( Locale.ENGLISH );
+            String velocitySuffix = module.getExtension().toLowerCase( Locale.ENGLISH ) + ".vm";
 
-            List<String> velocityFiles = new LinkedList<String>( allFiles );
-            // *.xml.vm
-            for ( Iterator<String> it = velocityFiles.iterator(); it.hasNext(); )
+            List<String> docs = new ArrayList<String>( allFiles.size() );
+            List<String> velocityFiles = new ArrayList<String>();
+            for ( String file : allFiles )
             {
-                String name = it.next().trim();
+                String name = file.trim().toLowerCase( Locale.ENGLISH );
 
-                if ( !name.toLowerCase( Locale.ENGLISH ).endsWith( lowerCaseExtension + ".vm" ) )
+                if ( name.endsWith( docSuffix ) )
                 {
-                    it.remove();
+                    docs.add( file );
+                }
+                else if ( name.endsWith( velocitySuffix ) )
+                {
+                    velocityFiles.add( file );
                 }
             }
             docs.addAll( velocityFiles );
@@ -257,11 +661,19 @@ public class DefaultSiteRenderer
                 // -----------------------------------------------------------------------
                 // Handle key without case differences
                 // -----------------------------------------------------------------------
-                for ( Map.Entry<String, DocumentRenderer> entry : files.entrySet() )
+                String caseInsensitiveKey = toCaseInsensitiveKey( key );
+                List<String> sameKeys = caseInsensitiveKeys.get( caseInsensitiveKey );
+
+                if ( sameKeys == null )
+                {
+                    sameKeys = new ArrayList<String>( 1 );
+                    caseInsensitiveKeys.put( caseInsensitiveKey, sameKeys );
+                }
+                else
                 {
-                    if ( entry.getKey().equalsIgnoreCase( key ) )
+                    for ( String sameKey : sameKeys )
                     {
-                        RenderingContext originalContext = entry.getValue().getRenderingContext();
+                        RenderingContext originalContext = files.get( sameKey ).getRenderingContext();
 
                         File originalDoc = new File( originalContext.getBasedir(), originalContext.getInputName() );
 
@@ -280,56 +692,517 @@ public class DefaultSiteRenderer
                     }
                 }
 
+                sameKeys.add( key );
                 files.put( key, new DoxiaDocumentRenderer( context ) );
             }
         }
     }
 
-    private void renderModule( Collection<DocumentRenderer> docs, SiteRenderingContext siteRenderingContext,
-                               File outputDirectory )
-            throws IOException, RendererException
+    /**
+     * Fold the case of a key the way {@link String#equalsIgnoreCase(String)} compares characters, so that two
+     * keys are equal ignoring case if and only if their folded keys are equal.
+     */
+    private static String toCaseInsensitiveKey( String key )
     {
-        for ( DocumentRenderer docRenderer : docs )
-        {
-            RenderingContext renderingContext = docRenderer.getRenderingContext();
+        char[] chars = key.toCharArray();
 
-            File outputFile = new File( outputDirectory, docRenderer.getOutputName() );
+        for ( int i = 0; i < chars.length; i++ )
+        {
+            chars[i] = Character.toLowerCase( Character.toUpperCase( chars[i] ) );
+        }
 
-            File inputFile = new File( renderingContext.getBasedir(), renderingContext.getInputName() );
+        return new String( chars );
+    }
 
-            boolean modified = !outputFile.exists() || ( inputFile.lastModified() > outputFile.lastModified() )
-                || ( siteRenderingContext.getDecoration().getLastModified() > outputFile.lastModified() );
+    private void renderModule( Collection<DocumentRenderer> docs, final SiteRenderingContext siteRenderingContext,
+                               final File outputDirectory, final RenderingManifest manifest,
+                               final OutputStatistics statistics, final SidecarCompressor compressor )
+            throws IOException, RendererException
+    {
+        int threadCount = Math.min( siteRenderingContext.getThreadCount(), docs.size() );
 
-            if ( modified || docRenderer.isOverwrite() )
+        if ( threadCount <= 1 )
+        {
+            for ( DocumentRenderer docRenderer : docs )
             {
-                if ( !outputFile.getParentFile().exists() )
-                {
-                    outputFile.getParentFile().mkdirs();
-                }
+                renderDocumentFile( docRenderer, siteRenderingContext, outputDirectory, manifest, statistics,
+                                    compressor );
+            }
 
-                if ( getLogger().isDebugEnabled() )
+            return;
+        }
+
+        if ( getLogger().isDebugEnabled() )
+        {
+            getLogger().debug( "Rendering " + docs.size() + " documents with " + threadCount + " threads" );
+        }
+
+        ExecutorService executor =
+            Executors.newFixedThreadPool( threadCount, new RendererThreadFactory( "site-renderer" ) );
+
+        try
+        {
+            List<Future<?>> results = new ArrayList<Future<?>>( docs.size() );
+
+            for ( final DocumentRenderer docRenderer : docs )
+            {
+                results.add( executor.submit( new Callable<Object>()
+                {
+                    public Object call()
+                        throws Exception
+                    {
+                        renderDocumentFile( docRenderer, siteRenderingContext, outputDirectory, manifest,
+                                            statistics, compressor );
+
+                        return null;
+                    }
+                } ) );
+            }
+
+            // wait in submission order, so that the first failing document is the one reported
+            for ( Future<?> result : results )
+            {
+                waitFor( result );
+            }
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+    private void renderDocumentFile( DocumentRenderer docRenderer, SiteRenderingContext siteRenderingContext,
+                                     File outputDirectory, RenderingManifest manifest,
+                                     OutputStatistics statistics, SidecarCompressor compressor )
+            throws IOException, RendererException
+    {
+        RenderingContext renderingContext = docRenderer.getRenderingContext();
+
+        File outputFile = new File( outputDirectory, docRenderer.getOutputName() );
+
+        File inputFile = new File( renderingContext.getBasedir(), renderingContext.getInputName() );
+
+        String outputName = docRenderer.getOutputName().replace( '\\', '/' );
+
+        byte[][] inputs = ( manifest == null ) ? null : manifest.inputs( outputName, inputFile );
+
+        String changes;
+        if ( docRenderer.isOverwrite() )
+        {
+            changes = "always overwritten";
+        }
+        else if ( siteRenderingContext.getForcedRendering() != null )
+        {
+            changes = siteRenderingContext.getForcedRendering();
+        }
+        else if ( !outputFile.exists() )
+        {
+            changes = "no previous output";
+        }
+        else if ( manifest != null )
+        {
+            changes = ( inputs == null ) ? "source not readable" : manifest.getChanges( outputName, inputs );
+        }
+        else
+        {
+            changes = getTimestampChanges( inputFile, outputFile, siteRenderingContext );
+        }
+
+        if ( changes != null )
+        {
+            if ( !outputFile.getParentFile().exists() )
+            {
+                outputFile.getParentFile().mkdirs();
+            }
+
+            if ( getLogger().isDebugEnabled() )
+            {
+                getLogger().debug( "Generating " + outputFile + ": " + changes );
+            }
+
+            if ( manifest != null )
+            {
+                // recorded again once written: a failed rendering must not be skipped next time
+                manifest.remove( outputName );
+            }
+
+            List<RenderListener> listeners = siteRenderingContext.getRenderListeners();
+            for ( RenderListener listener : listeners )
+            {
+                listener.documentStarted( outputName );
+            }
+            long start = System.nanoTime();
+
+            long outputSize = -1;
+            List<String> includes;
+            DocumentResourceLoader.startRecording();
+            try
+            {
+                outputSize = writeDocumentFile( docRenderer, siteRenderingContext, outputFile, outputName,
+                                                statistics, compressor );
+            }
+            finally
+            {
+                includes = DocumentResourceLoader.stopRecording();
+                siteRenderingContext.getIncludedNames().put( outputName, includes );
+
+                long nanos = System.nanoTime() - start;
+                for ( RenderListener listener : listeners )
                 {
-                    getLogger().debug( "Generating " + outputFile );
+                    listener.documentEnded( outputName, nanos, outputSize );
                 }
+            }
+
+            if ( inputs != null )
+            {
+                manifest.update( outputName, inputs, inputFile, includes );
+            }
+        }
+        else
+        {
+            statistics.skipped();
+
+            if ( compressor != null )
+            {
+                compressor.compressIfStale( outputFile );
+            }
+
+            if ( getLogger().isDebugEnabled() )
+            {
+                getLogger().debug( inputFile + " unchanged, not regenerating..." );
+            }
+        }
+    }
 
-                Writer writer = null;
+    /**
+     * Render a document to its output file.
+     *
+     * @return the size of the output, in bytes.
+     */
+    private long writeDocumentFile( DocumentRenderer docRenderer, SiteRenderingContext siteRenderingContext,
+                                    File outputFile, String outputName, OutputStatistics statistics,
+                                    SidecarCompressor compressor )
+            throws IOException, RendererException
+    {
+        if ( siteRenderingContext.isWriteIfChanged() )
+        {
+            // compared to the existing file while rendered: the page is never held in memory
+            WriteIfChangedOutputStream content = new WriteIfChangedOutputStream( outputFile );
+            boolean written;
+            try
+            {
+                Writer writer = WriterFactory.newWriter( content, siteRenderingContext.getOutputEncoding() );
+                docRenderer.renderDocument( writer, this, siteRenderingContext );
+
+                // usually closed already by the template merge: closing the stream does not end the content
+                IOUtil.close( writer );
+
+                long start = firePhaseStarted( siteRenderingContext, outputName, RenderPhase.WRITING );
                 try
                 {
-                    writer = WriterFactory.newWriter( outputFile, siteRenderingContext.getOutputEncoding() );
-                    docRenderer.renderDocument( writer, this, siteRenderingContext );
+                    written = content.commit();
                 }
                 finally
                 {
-                    IOUtil.close( writer );
+                    firePhaseEnded( siteRenderingContext, outputName, RenderPhase.WRITING, start,
+                                    content.getCount() );
+                }
+            }
+            finally
+            {
+                content.discard();
+            }
+
+            if ( written )
+            {
+                statistics.written();
+
+                if ( compressor != null )
+                {
+                    compressor.compress( outputFile );
                 }
             }
             else
             {
+                statistics.unchanged();
+
+                if ( compressor != null )
+                {
+                    compressor.compressIfStale( outputFile );
+                }
+
                 if ( getLogger().isDebugEnabled() )
                 {
-                    getLogger().debug( inputFile + " unchanged, not regenerating..." );
+                    getLogger().debug( outputFile + " has the same content, left untouched" );
                 }
             }
+
+            return content.getCount();
+        }
+        else
+        {
+            Writer writer = null;
+            try
+            {
+                writer = WriterFactory.newWriter( outputFile, siteRenderingContext.getOutputEncoding() );
+                docRenderer.renderDocument( writer, this, siteRenderingContext );
+            }
+            finally
+            {
+                IOUtil.close( writer );
+            }
+
+            statistics.written();
+
+            if ( compressor != null )
+            {
+                compressor.compress( outputFile );
+            }
+
+            return outputFile.length();
+        }
+    }
+
+    /**
+     * Notify the listeners of the context that a phase of the rendering of a document starts.
+     *
+     * @return the start time of the phase.
+     */
+    private static long firePhaseStarted( SiteRenderingContext siteRenderingContext, String document,
+                                          RenderPhase phase )
+    {
+        for ( RenderListener listener : siteRenderingContext.getRenderListeners() )
+        {
+            listener.phaseStarted( document, phase );
+        }
+
+        return System.nanoTime();
+    }
+
+    /**
+     * Notify the listeners of the context that a phase of the rendering of a document ended.
+     *
+     * @param start the start time of the phase.
+     * @param size the size of the content handled by the phase, or <code>-1</code> if unknown.
+     */
+    private static void firePhaseEnded( SiteRenderingContext siteRenderingContext, String document,
+                                        RenderPhase phase, long start, long size )
+    {
+        long nanos = System.nanoTime() - start;
+
+        for ( RenderListener listener : siteRenderingContext.getRenderListeners() )
+        {
+            listener.phaseEnded( document, phase, nanos, size );
+        }
+    }
+
+    /**
+     * Compare timestamps when no rendering manifest is used.
+     *
+     * @return <code>null</code> if the output is newer than every input, or a description of what changed.
+     */
+    private static String getTimestampChanges( File inputFile, File outputFile,
+                                               SiteRenderingContext siteRenderingContext )
+    {
+        long lastModified = outputFile.lastModified();
+
+        if ( inputFile.lastModified() > lastModified )
+        {
+            return "source changed";
+        }
+
+        if ( siteRenderingContext.getDecoration().getLastModified() > lastModified )
+        {
+            return "decoration model changed";
+        }
+
+        File skinJarFile = siteRenderingContext.getSkinJarFile();
+        if ( skinJarFile != null && skinJarFile.lastModified() > lastModified )
+        {
+            return "skin changed";
+        }
+
+        return null;
+    }
+
+    /**
+     * Compute the digests of the rendering inputs shared by all documents.
+     *
+     * @see RenderingManifest
+     */
+    byte[][] getGlobalInputs( SiteRenderingContext siteRenderingContext )
+            throws IOException
+    {
+        byte[][] inputs = new byte[RenderingManifest.INPUT_COUNT][];
+
+        MessageDigest digest = RenderingManifest.newDigest();
+        DecorationModel decoration = siteRenderingContext.getDecoration();
+        if ( decoration != null )
+        {
+            // lastModified is transient, only the content is written
+            StringWriter sw = new StringWriter();
+            new DecorationXpp3Writer().write( sw, decoration );
+            RenderingManifest.update( digest, sw.toString() );
+        }
+        inputs[RenderingManifest.DECORATION] = digest.digest();
+
+        inputs[RenderingManifest.TEMPLATE] = getTemplateDigest( siteRenderingContext );
+
+        boolean comparable = true;
+        Map<String, ?> templateProperties = siteRenderingContext.getTemplateProperties();
+        if ( templateProperties != null )
+        {
+            for ( Map.Entry<String, ?> entry : new TreeMap<String, Object>( templateProperties ).entrySet() )
+            {
+                Object value = entry.getValue();
+
+                if ( value == null || value instanceof String || value instanceof Number || value instanceof Boolean )
+                {
+                    RenderingManifest.update( digest, entry.getKey() );
+                    RenderingManifest.update( digest, String.valueOf( value ) );
+                }
+                else
+                {
+                    // the toString() of any other object may change every run, or miss a change of its content
+                    if ( getLogger().isDebugEnabled() )
+                    {
+                        getLogger().debug( "Template property '" + entry.getKey() + "' is a "
+                            + value.getClass().getName() + ": documents are always rendered" );
+                    }
+
+                    comparable = false;
+                }
+            }
+        }
+        byte[] templatePropertiesDigest = digest.digest();
+        inputs[RenderingManifest.TEMPLATE_PROPERTIES] = comparable ? templatePropertiesDigest : null;
+
+        RenderingManifest.update( digest, String.valueOf( siteRenderingContext.getLocale() ) );
+        RenderingManifest.update( digest, siteRenderingContext.getInputEncoding() );
+        RenderingManifest.update( digest, siteRenderingContext.getOutputEncoding() );
+        inputs[RenderingManifest.ENVIRONMENT] = digest.digest();
+
+        return inputs;
+    }
+
+    /**
+     * Compute the digest of the template. For a skin, every <code>META-INF/</code> entry is taken into account
+     * since the template may include them, but not the resources: changing a skin image or stylesheet does not
+     * invalidate the documents.
+     */
+    private byte[] getTemplateDigest( SiteRenderingContext siteRenderingContext )
+            throws IOException
+    {
+        MessageDigest digest = RenderingManifest.newDigest();
+
+        String templateName = siteRenderingContext.getTemplateName();
+        RenderingManifest.update( digest, templateName );
+
+        File skinJarFile = siteRenderingContext.getSkinJarFile();
+        if ( skinJarFile != null && SKIN_TEMPLATE_LOCATION.equals( templateName ) )
+        {
+            digest.update( SkinArchive.get( skinJarFile ).getMetaInfDigest() );
+        }
+        else if ( templateName != null )
+        {
+            ClassLoader classLoader = siteRenderingContext.getTemplateClassLoader();
+            if ( classLoader == null )
+            {
+                classLoader = Thread.currentThread().getContextClassLoader();
+            }
+
+            InputStream in = ( classLoader == null ) ? null : classLoader.getResourceAsStream( templateName );
+            if ( in != null )
+            {
+                digestStream( digest, in );
+            }
+            else if ( new File( templateName ).isFile() )
+            {
+                RenderingManifest.update( digest, new File( templateName ) );
+            }
+        }
+
+        return digest.digest();
+    }
+
+    private static void digestStream( MessageDigest digest, InputStream in )
+            throws IOException
+    {
+        try
+        {
+            RenderingManifest.update( digest, in );
+        }
+        finally
+        {
+            IOUtil.close( in );
+        }
+    }
+
+    private void saveManifest( RenderingManifest manifest )
+    {
+        try
+        {
+            manifest.save();
+        }
+        catch ( IOException e )
+        {
+            getLogger().warn( "Unable to save the rendering manifest: " + e.getMessage() );
+        }
+    }
+
+    private void saveValidationCache( ValidationCache validationCache )
+    {
+        if ( getLogger().isDebugEnabled() )
+        {
+            getLogger().debug( "Validation cache: " + validationCache.getHits() + " documents unchanged, "
+                + validationCache.getMisses() + " validated" );
+        }
+
+        try
+        {
+            validationCache.save();
+        }
+        catch ( IOException e )
+        {
+            getLogger().warn( "Unable to save the validation cache: " + e.getMessage() );
+        }
+    }
+
+    private static void waitFor( Future<?> result )
+            throws IOException, RendererException
+    {
+        try
+        {
+            result.get();
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+
+            throw new RendererException( "Interrupted while rendering documents", e );
+        }
+        catch ( ExecutionException e )
+        {
+            Throwable cause = e.getCause();
+
+            if ( cause instanceof RendererException )
+            {
+                throw (RendererException) cause;
+            }
+            if ( cause instanceof IOException )
+            {
+                throw (IOException) cause;
+            }
+            if ( cause instanceof RuntimeException )
+            {
+                throw (RuntimeException) cause;
+            }
+            if ( cause instanceof Error )
+            {
+                throw (Error) cause;
+            }
+
+            throw new RendererException( "Error while rendering documents: " + cause.getMessage(), cause );
         }
     }
 
@@ -337,34 +1210,71 @@ public class DefaultSiteRenderer
     public void renderDocument( Writer writer, RenderingContext renderingContext, SiteRenderingContext siteContext )
             throws RendererException, FileNotFoundException, UnsupportedEncodingException
     {
-        SiteRendererSink sink = new SiteRendererSink( renderingContext );
+        SiteRendererSink sink = new SiteRendererSink( renderingContext, siteContext.getSpillThreshold() );
 
         File doc = new File( renderingContext.getBasedir(), renderingContext.getInputName() );
 
+        String document = renderingContext.getOutputName().replace( '\\', '/' );
+
+        String parserId = renderingContext.getParserId();
+
+        Parser parser;
+        try
+        {
+            parser = parserPool.acquire( parserId );
+        }
+        catch ( ComponentLookupException e )
+        {
+            throw new RendererException( "Error getting a parser for '" + doc + "': " + e.getMessage(), e );
+        }
+
         Reader reader = null;
+        // the content merged by Velocity, or buffered to be validated
+        ContentBuffer merged = null;
+        long size = doc.length();
+        boolean parsed = false;
         try
         {
             String resource = doc.getAbsolutePath();
 
-            Parser parser = doxia.getParser( renderingContext.getParserId() );
-
             // TODO: DOXIA-111: the filter used here must be checked generally.
             if ( renderingContext.getAttribute( "velocity" ) != null )
             {
                 try
                 {
-                    SiteResourceLoader.setResource( resource );
-
                     Context vc = createVelocityContext( sink, siteContext );
 
-                    StringWriter sw = new StringWriter();
+                    // the parser reads the merged content from its chunks: no String copy of the whole document
+                    merged = new ContentBuffer( siteContext.getSpillThreshold() );
+
+                    long mergeStart = firePhaseStarted( siteContext, document, RenderPhase.VELOCITY );
+                    try
+                    {
+                        // the document is kept per thread: documents are merged concurrently
+                        DocumentResourceLoader.setDocument( doc );
+
+                        velocity.getEngine().mergeTemplate( resource, siteContext.getInputEncoding(), vc, merged );
+                    }
+                    finally
+                    {
+                        DocumentResourceLoader.setDocument( null );
 
-                    velocity.getEngine().mergeTemplate( resource, siteContext.getInputEncoding(), vc, sw );
+                        firePhaseEnded( siteContext, document, RenderPhase.VELOCITY, mergeStart, merged.length() );
+                    }
 
-                    reader = new StringReader( sw.toString() );
+                    size = merged.length();
+                    reader = merged.newReader();
                     if ( parser.getType() == Parser.XML_TYPE && siteContext.isValidate() )
                     {
-                        reader = validate( reader, resource );
+                        long start = firePhaseStarted( siteContext, document, RenderPhase.VALIDATION );
+                        try
+                        {
+                            validate( merged, resource, siteContext );
+                        }
+                        finally
+                        {
+                            firePhaseEnded( siteContext, document, RenderPhase.VALIDATION, start, merged.length() );
+                        }
                     }
                 }
                 catch ( Exception e )
@@ -387,7 +1297,16 @@ public class DefaultSiteRenderer
                         reader = ReaderFactory.newXmlReader( doc );
                         if ( siteContext.isValidate() )
                         {
-                            reader = validate( reader, resource );
+                            long start = firePhaseStarted( siteContext, document, RenderPhase.VALIDATION );
+                            try
+                            {
+                                merged = validate( reader, resource, siteContext );
+                                reader = merged.newReader();
+                            }
+                            finally
+                            {
+                                firePhaseEnded( siteContext, document, RenderPhase.VALIDATION, start, doc.length() );
+                            }
                         }
                         break;
 
@@ -398,11 +1317,21 @@ public class DefaultSiteRenderer
                 }
             }
             sink.enableLogging( new PlexusLoggerWrapper( getLogger() ) );
-            doxia.parse( reader, renderingContext.getParserId(), sink );
-        }
-        catch ( ParserNotFoundException e )
-        {
-            throw new RendererException( "Error getting a parser for '" + doc + "': " + e.getMessage(), e );
+
+            if ( parserPool.isShared( parserId ) )
+            {
+                // a singleton parser keeps the state of its document in fields: one document at a time
+                synchronized ( parser )
+                {
+                    parse( parser, reader, sink, siteContext, document, size );
+                }
+            }
+            else
+            {
+                parse( parser, reader, sink, siteContext, document, size );
+            }
+
+            parsed = true;
         }
         catch ( ParseException e )
         {
@@ -420,15 +1349,60 @@ public class DefaultSiteRenderer
             sink.close();
 
             IOUtil.close( reader );
+
+            if ( merged != null )
+            {
+                merged.dispose();
+            }
+
+            parserPool.release( parserId, parser );
+
+            if ( !parsed )
+            {
+                // no template merge to come: delete the temporary files of the content now
+                sink.dispose();
+            }
         }
 
-        generateDocument( writer, sink, siteContext );
+        long start = firePhaseStarted( siteContext, document, RenderPhase.TEMPLATE );
+        try
+        {
+            generateDocument( writer, sink, siteContext );
+        }
+        finally
+        {
+            firePhaseEnded( siteContext, document, RenderPhase.TEMPLATE, start,
+                            sink.getHeadContent().length() + sink.getBodyContent().length() );
+
+            sink.dispose();
+        }
+    }
+
+    /**
+     * @param size the size of the source, or <code>-1</code> if unknown.
+     */
+    private void parse( Parser parser, Reader reader, SiteRendererSink sink, SiteRenderingContext siteContext,
+                        String document, long size )
+            throws ParseException
+    {
+        long start = firePhaseStarted( siteContext, document, RenderPhase.PARSING );
+        try
+        {
+            parser.enableLogging( new PlexusLoggerWrapper( getLogger() ) );
+
+            parser.parse( reader, sink );
+        }
+        finally
+        {
+            firePhaseEnded( siteContext, document, RenderPhase.PARSING, start, size );
+        }
     }
 
     private Context createVelocityContext( SiteRendererSink sink, SiteRenderingContext siteRenderingContext )
     {
-        ToolManager toolManager = new ToolManager( true );
-        Context context = toolManager.createContext();
+        VelocityBaseContext baseContext = getVelocityBaseContext( siteRenderingContext );
+
+        Map<String, Object> context = new HashMap<String, Object>();
 
         // ----------------------------------------------------------------------
         // Data objects
@@ -443,87 +1417,111 @@ public class DefaultSiteRenderer
         context.put( "shortTitle", sink.getTitle() );
 
         // DOXIASITETOOLS-70: Prepend the project name to the title, if any
-        String title = "";
-        if ( siteRenderingContext.getDecoration() != null
-                && siteRenderingContext.getDecoration().getName() != null )
-        {
-            title = siteRenderingContext.getDecoration().getName();
-        }
-        else if ( siteRenderingContext.getDefaultWindowTitle() != null )
-        {
-            title = siteRenderingContext.getDefaultWindowTitle();
-        }
+        context.put( "title", baseContext.getTitlePrefix() + sink.getTitle() );
 
-        if ( title.length() > 0 )
+        if ( !siteRenderingContext.isStreamingBody() )
         {
-            title += " - ";
+            context.put( "headContent", sink.getHead() );
+            context.put( "bodyContent", sink.getBody() );
         }
-        title += sink.getTitle();
 
-        context.put( "title", title );
-
-        context.put( "headContent", sink.getHead() );
-
-        context.put( "bodyContent", sink.getBody() );
-
-        context.put( "decoration", siteRenderingContext.getDecoration() );
-
-        SimpleDateFormat sdf = new SimpleDateFormat( "yyyyMMdd" );
         if ( StringUtils.isNotEmpty( sink.getDate() ) )
         {
             try
             {
                 // we support only ISO-8601 date
-                context.put( "dateCreation",
-                        sdf.format( new SimpleDateFormat( "yyyy-MM-dd" ).parse( sink.getDate() ) ) );
+                context.put( "dateCreation", new SimpleDateFormat( "yyyyMMdd" ).format(
+                        new SimpleDateFormat( "yyyy-MM-dd" ).parse( sink.getDate() ) ) );
             }
             catch ( java.text.ParseException e )
             {
                 getLogger().debug( "Could not parse date: " + sink.getDate() + ", ignoring!", e );
             }
         }
-        context.put( "dateRevision", sdf.format( new Date() ) );
-
-        context.put( "currentDate", new Date() );
-        
-        context.put( "publishDate", siteRenderingContext.getPublishDate() );
 
-        Locale locale = siteRenderingContext.getLocale();
-        context.put( "dateFormat", DateFormat.getDateInstance( DateFormat.DEFAULT, locale ) );
+        // templates may change the pattern: not shared between documents
+        context.put( "dateFormat", DateFormat.getDateInstance( DateFormat.DEFAULT, siteRenderingContext.getLocale() ) );
 
         String currentFileName = renderingContext.getOutputName().replace( '\\', '/' );
         context.put( "currentFileName", currentFileName );
 
         context.put( "alignedFileName", PathTool.calculateLink( currentFileName, renderingContext.getRelativePath() ) );
 
-        context.put( "locale", locale );
-        context.put( "supportedLocales", Collections.unmodifiableList( siteRenderingContext.getSiteLocales() ) );
+        return baseContext.createDocumentContext( context );
+    }
 
-        InputStream inputStream = null;
-        try
+    /**
+     * Get the Velocity context part shared by all documents of a site rendering context, building it if
+     * it does not exist yet or if the site rendering context changed since it was built.
+     */
+    private VelocityBaseContext getVelocityBaseContext( SiteRenderingContext siteRenderingContext )
+    {
+        VelocityBaseContext baseContext = siteRenderingContext.getVelocityBaseContext();
+
+        if ( baseContext != null && baseContext.isBuiltFrom( siteRenderingContext, i18n ) )
         {
-            inputStream = this.getClass().getClassLoader().getResourceAsStream( "META-INF/maven/org.apache.maven.doxia/doxia-site-renderer/pom.properties" );
-            if ( inputStream == null )
-            {
-                getLogger().debug( "pom.properties for doxia-site-renderer could not be found." );
-            }
-            else
+            return baseContext;
+        }
+
+        synchronized ( siteRenderingContext )
+        {
+            baseContext = siteRenderingContext.getVelocityBaseContext();
+
+            if ( baseContext == null || !baseContext.isBuiltFrom( siteRenderingContext, i18n ) )
             {
-                Properties properties = new Properties();
-                properties.load( inputStream );
-                context.put( "doxiaSiteRendererVersion", properties.getProperty( "version" ) );
+                baseContext = createVelocityBaseContext( siteRenderingContext );
+
+                siteRenderingContext.setVelocityBaseContext( baseContext );
             }
+
+            return baseContext;
         }
-        catch( IOException e )
+    }
+
+    private VelocityBaseContext createVelocityBaseContext( SiteRenderingContext siteRenderingContext )
+    {
+        Map<String, Object> context = new HashMap<String, Object>();
+
+        // ----------------------------------------------------------------------
+        // Data objects
+        // ----------------------------------------------------------------------
+
+        String title = "";
+        if ( siteRenderingContext.getDecoration() != null
+                && siteRenderingContext.getDecoration().getName() != null )
         {
-            getLogger().debug( "Failed to load pom.properties, so doxiaVersion is not available in the velocityContext." );
+            title = siteRenderingContext.getDecoration().getName();
         }
-        finally
+        else if ( siteRenderingContext.getDefaultWindowTitle() != null )
         {
-            IOUtil.close( inputStream );
+            title = siteRenderingContext.getDefaultWindowTitle();
         }
 
-        // Add user properties
+        if ( title.length() > 0 )
+        {
+            title += " - ";
+        }
+
+        context.put( "decoration", siteRenderingContext.getDecoration() );
+
+        Date now = new Date();
+
+        context.put( "dateRevision", new SimpleDateFormat( "yyyyMMdd" ).format( now ) );
+
+        context.put( "currentDate", now );
+
+        context.put( "publishDate", siteRenderingContext.getPublishDate() );
+
+        context.put( "locale", siteRenderingContext.getLocale() );
+        context.put( "supportedLocales", Collections.unmodifiableList( siteRenderingContext.getSiteLocales() ) );
+
+        if ( doxiaSiteRendererVersion != null )
+        {
+            context.put( "doxiaSiteRendererVersion", doxiaSiteRendererVersion );
+        }
+
+        // Add user properties, document values included
+        Map<String, Object> overridingProperties = new HashMap<String, Object>();
         Map<String, ?> templateProperties = siteRenderingContext.getTemplateProperties();
 
         if ( templateProperties != null )
@@ -531,6 +1529,11 @@ public class DefaultSiteRenderer
             for ( Map.Entry<String, ?> entry : templateProperties.entrySet() )
             {
                 context.put( entry.getKey(), entry.getValue() );
+
+                if ( DOCUMENT_CONTEXT_KEYS.contains( entry.getKey() ) )
+                {
+                    overridingProperties.put( entry.getKey(), entry.getValue() );
+                }
             }
         }
 
@@ -546,7 +1549,8 @@ public class DefaultSiteRenderer
 
         context.put( "i18n", i18n );
 
-        return context;
+        return new VelocityBaseContext( siteRenderingContext, i18n, new ToolManager( true ), context,
+                                        overridingProperties, title );
     }
 
     /** {@inheritDoc} */
@@ -555,7 +1559,18 @@ public class DefaultSiteRenderer
     {
         Context context = createVelocityContext( sink, siteRenderingContext );
 
-        writeTemplate( writer, context, siteRenderingContext );
+        if ( siteRenderingContext.isStreamingBody() )
+        {
+            context.put( "headContent", StreamingBodyWriter.HEAD_CONTENT );
+            context.put( "bodyContent", StreamingBodyWriter.BODY_CONTENT );
+
+            writeTemplate( new StreamingBodyWriter( writer, sink.getHeadContent(), sink.getBodyContent() ), context,
+                           siteRenderingContext );
+        }
+        else
+        {
+            writeTemplate( writer, context, siteRenderingContext );
+        }
     }
 
     private void writeTemplate( Writer writer, Context context, SiteRenderingContext siteContext )
@@ -563,7 +1578,8 @@ public class DefaultSiteRenderer
     {
         ClassLoader old = null;
 
-        if ( siteContext.getTemplateClassLoader() != null )
+        if ( siteContext.getTemplateClassLoader() != null
+            && siteContext.getTemplateClassLoader() != Thread.currentThread().getContextClassLoader() )
         {
             // -------------------------------------------------------------------------
             // If no template classloader was set we'll just use the context classloader
@@ -576,7 +1592,7 @@ public class DefaultSiteRenderer
 
         try
         {
-            processTemplate( siteContext.getTemplateName(), context, writer );
+            processTemplate( siteContext, context, writer );
         }
         finally
         {
@@ -592,27 +1608,51 @@ public class DefaultSiteRenderer
     /**
      * @noinspection OverlyBroadCatchBlock,UnusedCatchParameter
      */
-    private void processTemplate( String templateName, Context context, Writer writer )
+    private void processTemplate( SiteRenderingContext siteContext, Context context, Writer writer )
             throws RendererException
     {
-        Template template;
+        Template template = getTemplate( siteContext );
 
         try
         {
-            template = velocity.getEngine().getTemplate( templateName );
+            template.merge( context, writer );
         }
         catch ( Exception e )
         {
-            throw new RendererException( "Could not find the template '" + templateName, e );
+            throw new RendererException( "Error while generating code.", e );
         }
+    }
 
-        try
-        {
-            template.merge( context, writer );
-        }
-        catch ( Exception e )
+    /**
+     * Get the compiled template of a site rendering context: it is looked up and parsed only for the first
+     * document, then merged concurrently for every document.
+     */
+    private Template getTemplate( SiteRenderingContext siteContext )
+            throws RendererException
+    {
+        String templateName = siteContext.getTemplateName();
+        ClassLoader templateClassLoader = siteContext.getTemplateClassLoader();
+        TemplateCache cache = siteContext.getTemplateCache();
+
+        synchronized ( cache )
         {
-            throw new RendererException( "Error while generating code.", e );
+            Template template = cache.get( templateName, templateClassLoader );
+
+            if ( template == null )
+            {
+                try
+                {
+                    template = velocity.getEngine().getTemplate( templateName );
+                }
+                catch ( Exception e )
+                {
+                    throw new RendererException( "Could not find the template '" + templateName, e );
+                }
+
+                cache.put( templateName, templateClassLoader, template );
+            }
+
+            return template;
         }
     }
 
@@ -623,25 +1663,26 @@ public class DefaultSiteRenderer
     {
         SiteRenderingContext context = new SiteRenderingContext();
 
-        ZipFile zipFile = getZipFile( skinFile );
+        SkinArchive skin = SkinArchive.get( skinFile );
 
-        try
+        if ( skin.hasTemplate() )
         {
-            if ( zipFile.getEntry( SKIN_TEMPLATE_LOCATION ) != null )
-            {
-                context.setTemplateName( SKIN_TEMPLATE_LOCATION );
-                context.setTemplateClassLoader( new URLClassLoader( new URL[]{skinFile.toURI().toURL()} ) );
-            }
-            else
+            synchronized ( skinArchives )
             {
-                context.setTemplateName( DEFAULT_TEMPLATE );
-                context.setTemplateClassLoader( getClass().getClassLoader() );
-                context.setUsingDefaultTemplate( true );
+                if ( skinArchives.add( skin ) )
+                {
+                    skin.acquire();
+                }
             }
+
+            context.setTemplateName( SKIN_TEMPLATE_LOCATION );
+            context.setTemplateClassLoader( skin.getClassLoader() );
         }
-        finally
+        else
         {
-            closeZipFile( zipFile );
+            context.setTemplateName( DEFAULT_TEMPLATE );
+            context.setTemplateClassLoader( getClass().getClassLoader() );
+            context.setUsingDefaultTemplate( true );
         }
 
         context.setTemplateProperties( attributes );
@@ -653,27 +1694,6 @@ public class DefaultSiteRenderer
         return context;
     }
 
-    private static ZipFile getZipFile( File file )
-        throws IOException
-    {
-        if ( file == null )
-        {
-            throw new IOException( "Error opening ZipFile: null" );
-        }
-
-        try
-        {
-            // TODO: plexus-archiver, if it could do the excludes
-            return new ZipFile( file );
-        }
-        catch ( ZipException ex )
-        {
-            IOException ioe = new IOException( "Error opening ZipFile: " + file.getAbsolutePath() );
-            ioe.initCause( ex );
-            throw ioe;
-        }
-    }
-
     /** {@inheritDoc} */
     public SiteRenderingContext createContextForTemplate( File templateFile, File skinFile, Map<String, ?> attributes,
                                                           DecorationModel decoration, String defaultWindowTitle,
@@ -713,88 +1733,40 @@ public class DefaultSiteRenderer
     {
         if ( siteRenderingContext.getSkinJarFile() != null )
         {
-            ZipFile file = getZipFile( siteRenderingContext.getSkinJarFile() );
-
-            try
-            {
-                for ( Enumeration<? extends ZipEntry> e = file.entries(); e.hasMoreElements(); )
-                {
-                    ZipEntry entry = e.nextElement();
-
-                    if ( !entry.getName().startsWith( "META-INF/" ) )
-                    {
-                        File destFile = new File( outputDirectory, entry.getName() );
-                        if ( !entry.isDirectory() )
-                        {
-                            destFile.getParentFile().mkdirs();
-
-                            copyFileFromZip( file, entry, destFile );
-                        }
-                        else
-                        {
-                            destFile.mkdirs();
-                        }
-                    }
-                }
-            }
-            finally
-            {
-                closeZipFile( file );
-            }
+            copySkinResources( siteRenderingContext, outputDirectory );
         }
 
         if ( siteRenderingContext.isUsingDefaultTemplate() )
         {
-            InputStream resourceList = getClass().getClassLoader()
-                    .getResourceAsStream( RESOURCE_DIR + "/resources.txt" );
-
-            if ( resourceList != null )
+            for ( String line : getDefaultResourceNames() )
             {
-                Reader r = null;
-                try
-                {
-                    r = ReaderFactory.newReader( resourceList, ReaderFactory.UTF_8 );
-                    LineNumberReader reader = new LineNumberReader( r );
-
-                    String line = reader.readLine();
-
-                    while ( line != null )
-                    {
-                        InputStream is = getClass().getClassLoader().getResourceAsStream( RESOURCE_DIR + "/" + line );
-
-                        if ( is == null )
-                        {
-                            throw new IOException( "The resource " + line + " doesn't exist." );
-                        }
+                InputStream is = getClass().getClassLoader().getResourceAsStream( RESOURCE_DIR + "/" + line );
 
-                        File outputFile = new File( outputDirectory, line );
-
-                        if ( !outputFile.getParentFile().exists() )
-                        {
-                            outputFile.getParentFile().mkdirs();
-                        }
+                if ( is == null )
+                {
+                    throw new IOException( "The resource " + line + " doesn't exist." );
+                }
 
-                        OutputStream os = null;
-                        try
-                        {
-                            // for the images
-                            os = new FileOutputStream( outputFile );
-                            IOUtil.copy( is, os );
-                        }
-                        finally
-                        {
-                            IOUtil.close( os );
-                        }
+                File outputFile = new File( outputDirectory, line );
 
-                        IOUtil.close( is );
+                if ( !outputFile.getParentFile().exists() )
+                {
+                    outputFile.getParentFile().mkdirs();
+                }
 
-                        line = reader.readLine();
-                    }
+                OutputStream os = null;
+                try
+                {
+                    // for the images
+                    os = new FileOutputStream( outputFile );
+                    IOUtil.copy( is, os );
                 }
                 finally
                 {
-                    IOUtil.close( r );
+                    IOUtil.close( os );
                 }
+
+                IOUtil.close( is );
             }
         }
 
@@ -835,6 +1807,245 @@ public class DefaultSiteRenderer
                 IOUtil.close( writer );
             }
         }
+
+        if ( siteRenderingContext.isGzipSidecars() )
+        {
+            compressResources( siteRenderingContext, resourcesDirectory, outputDirectory );
+        }
+    }
+
+    /**
+     * @return the resources of the default template, listed in its <code>resources.txt</code>.
+     */
+    private List<String> getDefaultResourceNames()
+            throws IOException
+    {
+        List<String> names = new ArrayList<String>();
+
+        InputStream resourceList = getClass().getClassLoader().getResourceAsStream( RESOURCE_DIR + "/resources.txt" );
+
+        if ( resourceList != null )
+        {
+            Reader r = null;
+            try
+            {
+                r = ReaderFactory.newReader( resourceList, ReaderFactory.UTF_8 );
+                LineNumberReader reader = new LineNumberReader( r );
+
+                for ( String line = reader.readLine(); line != null; line = reader.readLine() )
+                {
+                    names.add( line );
+                }
+            }
+            finally
+            {
+                IOUtil.close( r );
+            }
+        }
+
+        return names;
+    }
+
+    /**
+     * Write the gzip sidecars of the copied resources whose sidecar is stale: the resources left untouched, or
+     * copied again to the same content, keep theirs.
+     */
+    private void compressResources( SiteRenderingContext siteRenderingContext, File resourcesDirectory,
+                                    File outputDirectory )
+            throws IOException
+    {
+        Set<String> names = new LinkedHashSet<String>();
+
+        if ( siteRenderingContext.getSkinJarFile() != null )
+        {
+            for ( ZipEntry entry : SkinArchive.get( siteRenderingContext.getSkinJarFile() ).getEntries() )
+            {
+                if ( !entry.getName().startsWith( "META-INF/" ) && !entry.isDirectory() )
+                {
+                    names.add( entry.getName() );
+                }
+            }
+        }
+
+        if ( siteRenderingContext.isUsingDefaultTemplate() )
+        {
+            names.addAll( getDefaultResourceNames() );
+        }
+
+        if ( resourcesDirectory != null && resourcesDirectory.exists() )
+        {
+            for ( String name : getResourceNames( resourcesDirectory ) )
+            {
+                names.add( name.replace( File.separatorChar, '/' ) );
+            }
+        }
+
+        names.add( "css/site.css" );
+
+        SidecarCompressor compressor = new SidecarCompressor( siteRenderingContext.getThreadCount() );
+        try
+        {
+            for ( String name : names )
+            {
+                compressor.compressIfStale( new File( outputDirectory, name ) );
+            }
+
+            int compressed = compressor.finish();
+
+            if ( getLogger().isDebugEnabled() )
+            {
+                getLogger().debug( "Compressed " + compressed + " resources" );
+            }
+        }
+        finally
+        {
+            compressor.close();
+        }
+    }
+
+    /**
+     * Extract the resources of the skin jar to the output directory. Files already holding the content of
+     * their entry are left untouched, keeping their last modification date; the other ones are extracted in
+     * parallel.
+     */
+    private void copySkinResources( SiteRenderingContext siteRenderingContext, final File outputDirectory )
+            throws IOException
+    {
+        SkinArchive skin = SkinArchive.get( siteRenderingContext.getSkinJarFile() );
+
+        List<ZipEntry> files = new ArrayList<ZipEntry>();
+        for ( ZipEntry entry : skin.getEntries() )
+        {
+            if ( !entry.getName().startsWith( "META-INF/" ) )
+            {
+                File destFile = new File( outputDirectory, entry.getName() );
+                if ( !entry.isDirectory() )
+                {
+                    destFile.getParentFile().mkdirs();
+
+                    files.add( entry );
+                }
+                else
+                {
+                    destFile.mkdirs();
+                }
+            }
+        }
+
+        final ZipFile file = skin.openZipFile();
+        final AtomicInteger extracted = new AtomicInteger();
+
+        try
+        {
+            int threadCount = Math.min( siteRenderingContext.getThreadCount(), files.size() );
+
+            if ( threadCount <= 1 )
+            {
+                for ( ZipEntry entry : files )
+                {
+                    if ( copyFileFromZipIfChanged( file, entry, new File( outputDirectory, entry.getName() ) ) )
+                    {
+                        extracted.incrementAndGet();
+                    }
+                }
+            }
+            else
+            {
+                ExecutorService executor =
+                    Executors.newFixedThreadPool( threadCount, new RendererThreadFactory( "skin-resources" ) );
+
+                try
+                {
+                    List<Future<?>> results = new ArrayList<Future<?>>( files.size() );
+
+                    for ( final ZipEntry entry : files )
+                    {
+                        results.add( executor.submit( new Callable<Object>()
+                        {
+                            public Object call()
+                                throws Exception
+                            {
+                                if ( copyFileFromZipIfChanged( file, entry,
+                                                               new File( outputDirectory, entry.getName() ) ) )
+                                {
+                                    extracted.incrementAndGet();
+                                }
+
+                                return null;
+                            }
+                        } ) );
+                    }
+
+                    for ( Future<?> result : results )
+                    {
+                        waitFor( result );
+                    }
+                }
+                catch ( RendererException e )
+                {
+                    IOException ioe = new IOException( "Error extracting skin resources: " + e.getMessage() );
+                    ioe.initCause( e );
+                    throw ioe;
+                }
+                finally
+                {
+                    executor.shutdownNow();
+                }
+            }
+        }
+        finally
+        {
+            closeZipFile( file );
+        }
+
+        if ( getLogger().isDebugEnabled() )
+        {
+            getLogger().debug( "Skin resources: " + extracted.get() + " extracted, "
+                + ( files.size() - extracted.get() ) + " unchanged" );
+        }
+    }
+
+    /**
+     * Extract an entry, unless the destination file already has the same size and CRC.
+     *
+     * @return <code>true</code> if the entry was extracted.
+     */
+    private static boolean copyFileFromZipIfChanged( ZipFile file, ZipEntry entry, File destFile )
+            throws IOException
+    {
+        if ( entry.getSize() >= 0 && entry.getCrc() >= 0 && destFile.isFile() && destFile.length() == entry.getSize()
+            && getCrc( destFile ) == entry.getCrc() )
+        {
+            return false;
+        }
+
+        copyFileFromZip( file, entry, destFile );
+
+        return true;
+    }
+
+    private static long getCrc( File f )
+            throws IOException
+    {
+        CRC32 crc = new CRC32();
+
+        InputStream in = null;
+        try
+        {
+            in = new FileInputStream( f );
+
+            byte[] buffer = new byte[8192];
+            for ( int n = in.read( buffer ); n >= 0; n = in.read( buffer ) )
+            {
+                crc.update( buffer, 0, n );
+            }
+        }
+        finally
+        {
+            IOUtil.close( in );
+        }
+
+        return crc.getValue();
     }
 
     private static void copyFileFromZip( ZipFile file, ZipEntry entry, File destFile )
@@ -864,47 +2075,91 @@ public class DefaultSiteRenderer
     {
         if ( source.exists() )
         {
-            DirectoryScanner scanner = new DirectoryScanner();
+            for ( String name : getResourceNames( source ) )
+            {
+                File sourceFile = new File( source, name );
 
-            String[] includedResources = {"**/**"};
+                File destinationFile = new File( destination, name );
 
-            scanner.setIncludes( includedResources );
+                FileUtils.copyFile( sourceFile, destinationFile );
+            }
+        }
+    }
 
-            scanner.addDefaultExcludes();
+    private static String[] getResourceNames( File source )
+    {
+        DirectoryScanner scanner = new DirectoryScanner();
 
-            scanner.setBasedir( source );
+        String[] includedResources = {"**/**"};
 
-            scanner.scan();
+        scanner.setIncludes( includedResources );
 
-            List<String> includedFiles = Arrays.asList( scanner.getIncludedFiles() );
+        scanner.addDefaultExcludes();
 
-            for ( String name : includedFiles )
-            {
-                File sourceFile = new File( source, name );
+        scanner.setBasedir( source );
 
-                File destinationFile = new File( destination, name );
+        scanner.scan();
 
-                FileUtils.copyFile( sourceFile, destinationFile );
-            }
-        }
+        return scanner.getIncludedFiles();
     }
 
-    private Reader validate( Reader source, String resource )
+    /**
+     * @return the validated content, to be read by the parser then disposed.
+     */
+    private ContentBuffer validate( Reader source, String resource, SiteRenderingContext siteContext )
             throws ParseException, IOException
     {
-        getLogger().debug( "Validating: " + resource );
-
+        // buffered once, then read by the validator and by the parser
+        ContentBuffer content = new ContentBuffer( siteContext.getSpillThreshold() );
+        boolean valid = false;
         try
         {
-            String content = IOUtil.toString( new BufferedReader( source ) );
+            IOUtil.copy( source, content );
 
-            new XmlValidator( new PlexusLoggerWrapper( getLogger() ) ).validate( content );
+            validate( content, resource, siteContext );
+            valid = true;
 
-            return new StringReader( content );
+            return content;
         }
         finally
         {
             IOUtil.close( source );
+
+            if ( !valid )
+            {
+                content.dispose();
+            }
+        }
+    }
+
+    private void validate( ContentBuffer content, String resource, SiteRenderingContext siteContext )
+            throws ParseException, IOException
+    {
+        ValidationCache validationCache = siteContext.getValidationCache();
+        if ( validationCache == null )
+        {
+            getLogger().debug( "Validating: " + resource );
+
+            xmlValidator.report( xmlValidator.validate( content ) );
+        }
+        else
+        {
+            String key = ValidationCache.digest( content );
+
+            ValidationResult result = validationCache.get( key );
+            if ( result == null )
+            {
+                getLogger().debug( "Validating: " + resource );
+
+                result = xmlValidator.validate( content );
+                validationCache.put( key, result );
+            }
+            else
+            {
+                getLogger().debug( "Unchanged since last validation: " + resource );
+            }
+
+            xmlValidator.report( result );
         }
     }
 
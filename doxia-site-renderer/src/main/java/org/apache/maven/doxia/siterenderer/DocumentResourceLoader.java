@@ -0,0 +1,172 @@
+package org.apache.maven.doxia.siterenderer;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.collections.ExtendedProperties;
+import org.apache.velocity.exception.ResourceNotFoundException;
+import org.apache.velocity.runtime.resource.Resource;
+import org.apache.velocity.runtime.resource.loader.ResourceLoader;
+
+/**
+ * Loads Velocity sources of documents, and the files they include with <code>#parse</code> or
+ * <code>#include</code>, relative to their directory. Unlike <code>SiteResourceLoader</code>, which hands the
+ * document over through a static field, the document is kept per thread: documents rendered in parallel are
+ * merged concurrently. The names of the included files can be recorded, to know what a document depends on.
+ *
+ * @version $Id$
+ * @since 1.4
+ */
+public class DocumentResourceLoader
+    extends ResourceLoader
+{
+    private static final ThreadLocal<File> DOCUMENT = new ThreadLocal<File>();
+
+    private static final ThreadLocal<List<String>> INCLUDES = new ThreadLocal<List<String>>();
+
+    /**
+     * Set the document merged by the current thread.
+     *
+     * @param document the Velocity source of the document, or <code>null</code> once merged.
+     */
+    static void setDocument( File document )
+    {
+        if ( document == null )
+        {
+            DOCUMENT.remove();
+        }
+        else
+        {
+            DOCUMENT.set( document );
+        }
+    }
+
+    /**
+     * Record the names of the files included by the documents merged by the current thread, until
+     * {@link #stopRecording()}.
+     */
+    static void startRecording()
+    {
+        INCLUDES.set( new ArrayList<String>() );
+    }
+
+    /**
+     * @return the names of the files included since {@link #startRecording()}, relative to the directory of
+     *      their document, in inclusion order.
+     */
+    static List<String> stopRecording()
+    {
+        List<String> includes = INCLUDES.get();
+        INCLUDES.remove();
+
+        return ( includes == null ) ? Collections.<String>emptyList() : includes;
+    }
+
+    /**
+     * Find a file included by a document, the way the loader does.
+     *
+     * @param document the Velocity source of the document.
+     * @param name the name of the included file.
+     * @return the included file.
+     */
+    static File getIncludedFile( File document, String name )
+    {
+        return new File( document.getAbsoluteFile().getParentFile(), name );
+    }
+
+    /** {@inheritDoc} */
+    public void init( ExtendedProperties configuration )
+    {
+        // nothing to configure
+    }
+
+    /** {@inheritDoc} */
+    public InputStream getResourceStream( String name )
+        throws ResourceNotFoundException
+    {
+        File file = getFile( name );
+
+        // a missing file is recorded too: the document changes once it is created
+        List<String> includes = INCLUDES.get();
+        if ( includes != null && DOCUMENT.get() != null && file != DOCUMENT.get() && !includes.contains( name ) )
+        {
+            includes.add( name );
+        }
+
+        if ( file == null )
+        {
+            throw new ResourceNotFoundException( "No document resource " + name );
+        }
+
+        try
+        {
+            return new FileInputStream( file );
+        }
+        catch ( FileNotFoundException e )
+        {
+            throw new ResourceNotFoundException( "Unable to read " + file + ": " + e.getMessage() );
+        }
+    }
+
+    /** {@inheritDoc} */
+    public boolean isSourceModified( Resource resource )
+    {
+        File file = getFile( resource.getName() );
+
+        return file == null || file.lastModified() != resource.getLastModified();
+    }
+
+    /** {@inheritDoc} */
+    public long getLastModified( Resource resource )
+    {
+        File file = getFile( resource.getName() );
+
+        return ( file == null ) ? 0 : file.lastModified();
+    }
+
+    /**
+     * @return the document itself, or a file of its directory, or <code>null</code> if none.
+     */
+    private static File getFile( String name )
+    {
+        File document = DOCUMENT.get();
+
+        if ( document == null )
+        {
+            return null;
+        }
+
+        if ( name.equals( document.getAbsolutePath() ) )
+        {
+            return document;
+        }
+
+        File file = getIncludedFile( document, name );
+
+        return file.isFile() ? file : null;
+    }
+}
@@ -0,0 +1,77 @@
+package org.apache.maven.doxia.siterenderer;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Counts what happened to the output files of a rendering run, updated by every rendering thread.
+ *
+ * @version $Id$
+ * @since 1.4
+ */
+class OutputStatistics
+{
+    private final AtomicInteger written = new AtomicInteger();
+
+    private final AtomicInteger unchanged = new AtomicInteger();
+
+    private final AtomicInteger skipped = new AtomicInteger();
+
+    /** An output file was written. */
+    void written()
+    {
+        written.incrementAndGet();
+    }
+
+    /** A document was rendered to the content its output file already had, which was left untouched. */
+    void unchanged()
+    {
+        unchanged.incrementAndGet();
+    }
+
+    /** A document was not rendered, since its output was up to date. */
+    void skipped()
+    {
+        skipped.incrementAndGet();
+    }
+
+    int getWritten()
+    {
+        return written.get();
+    }
+
+    int getUnchanged()
+    {
+        return unchanged.get();
+    }
+
+    int getSkipped()
+    {
+        return skipped.get();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String toString()
+    {
+        return written + " written, " + unchanged + " unchanged, " + skipped + " up to date";
+    }
+}
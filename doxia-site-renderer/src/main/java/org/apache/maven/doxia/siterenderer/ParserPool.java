@@ -0,0 +1,148 @@
+package org.apache.maven.doxia.siterenderer;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.maven.doxia.parser.Parser;
+import org.codehaus.plexus.PlexusContainer;
+import org.codehaus.plexus.component.repository.exception.ComponentLookupException;
+
+/**
+ * The parsers of the documents rendered concurrently. A parser keeps the state of the document it parses in its
+ * fields: an instance parses one document at a time. Instances are looked up from the container, so that they
+ * get their requirements, then kept for the next documents once released.
+ * <p>
+ * A parser component declared as a singleton cannot be pooled, the container handing out the same instance
+ * again: such a parser is {@link #isShared(String) shared}, and its users have to lock it.
+ * </p>
+ *
+ * @version $Id$
+ * @since 1.4
+ */
+class ParserPool
+{
+    private final PlexusContainer container;
+
+    /** The released instances, by parser id. */
+    private final ConcurrentMap<String, Queue<Parser>> idle = new ConcurrentHashMap<String, Queue<Parser>>();
+
+    /** The single instance of the parsers the container does not create per lookup, by parser id. */
+    private final ConcurrentMap<String, Parser> singletons = new ConcurrentHashMap<String, Parser>();
+
+    /**
+     * @param container the container creating the parsers.
+     */
+    ParserPool( PlexusContainer container )
+    {
+        this.container = container;
+    }
+
+    /**
+     * Take a parser out of the pool, creating it if every instance is in use.
+     *
+     * @param parserId the parser id.
+     * @return a parser, to be given back with {@link #release(String, Parser)}.
+     * @throws ComponentLookupException if there is no such parser.
+     */
+    Parser acquire( String parserId )
+        throws ComponentLookupException
+    {
+        Parser singleton = singletons.get( parserId );
+        if ( singleton != null )
+        {
+            return singleton;
+        }
+
+        Queue<Parser> queue = getQueue( parserId );
+
+        Parser parser = queue.poll();
+        if ( parser != null )
+        {
+            return parser;
+        }
+
+        synchronized ( queue )
+        {
+            parser = (Parser) container.lookup( Parser.ROLE, parserId );
+
+            if ( !singletons.containsKey( parserId ) && queue.isEmpty() )
+            {
+                // first instance: a second lookup tells whether the container creates an instance per lookup
+                Parser other = (Parser) container.lookup( Parser.ROLE, parserId );
+
+                if ( other == parser )
+                {
+                    singletons.put( parserId, parser );
+                }
+                else
+                {
+                    queue.add( other );
+                }
+            }
+        }
+
+        return parser;
+    }
+
+    /**
+     * Give a parser back to the pool, once its document is parsed.
+     *
+     * @param parserId the parser id.
+     * @param parser a parser returned by {@link #acquire(String)}.
+     */
+    void release( String parserId, Parser parser )
+    {
+        if ( singletons.get( parserId ) != parser )
+        {
+            getQueue( parserId ).add( parser );
+        }
+    }
+
+    /**
+     * @param parserId the parser id, already {@link #acquire(String) acquired} once.
+     * @return <code>true</code> if the parser is a single instance, which can only parse one document at a time.
+     */
+    boolean isShared( String parserId )
+    {
+        return singletons.containsKey( parserId );
+    }
+
+    private Queue<Parser> getQueue( String parserId )
+    {
+        Queue<Parser> queue = idle.get( parserId );
+
+        if ( queue == null )
+        {
+            queue = new ConcurrentLinkedQueue<Parser>();
+
+            Queue<Parser> existing = idle.putIfAbsent( parserId, queue );
+            if ( existing != null )
+            {
+                queue = existing;
+            }
+        }
+
+        return queue;
+    }
+}
@@ -0,0 +1,90 @@
+package org.apache.maven.doxia.siterenderer;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+/**
+ * Receives the progress of a site rendering, with the time taken by each phase of each document.
+ * Listeners are registered with {@link SiteRenderingContext#addRenderListener(RenderListener)}.
+ * <p>
+ * Documents are rendered in parallel when the context has several threads: except
+ * {@link #renderingStarted(int)} and {@link #renderingEnded()}, the methods may be called concurrently and
+ * have to be thread safe. Times are measured with <code>System.nanoTime()</code>.
+ * </p>
+ *
+ * @version $Id$
+ * @since 1.4
+ */
+public interface RenderListener
+{
+    /**
+     * The rendering of a site starts.
+     *
+     * @param documentCount the number of documents, including the up to date ones that will not be rendered.
+     */
+    void renderingStarted( int documentCount );
+
+    /**
+     * The rendering of a document starts. Up to date documents are not rendered.
+     *
+     * @param document the output name of the document.
+     */
+    void documentStarted( String document );
+
+    /**
+     * A phase of the rendering of a document starts.
+     *
+     * @param document the output name of the document.
+     * @param phase the phase.
+     */
+    void phaseStarted( String document, RenderPhase phase );
+
+    /**
+     * A phase of the rendering of a document ended, successfully or not.
+     *
+     * @param document the output name of the document.
+     * @param phase the phase.
+     * @param nanos the time taken by the phase, in nanoseconds.
+     * @param size the size of the content handled by the phase: characters merged by Velocity, source bytes
+     *      validated or parsed, head and body characters merged in the template, bytes written; <code>-1</code>
+     *      if unknown.
+     */
+    void phaseEnded( String document, RenderPhase phase, long nanos, long size );
+
+    /**
+     * The rendering of a document ended, successfully or not.
+     *
+     * @param document the output name of the document.
+     * @param nanos the time taken by the document, in nanoseconds.
+     * @param outputSize the size of the output, in bytes, or <code>-1</code> if the rendering failed.
+     */
+    void documentEnded( String document, long nanos, long outputSize );
+
+    /**
+     * The resources of a site directory, of the skin and of the default template were copied.
+     *
+     * @param nanos the time taken by the copy, in nanoseconds.
+     */
+    void resourcesCopied( long nanos );
+
+    /**
+     * The rendering of a site ended, successfully or not.
+     */
+    void renderingEnded();
+}
@@ -0,0 +1,58 @@
+package org.apache.maven.doxia.siterenderer;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+/**
+ * The phases of the rendering of a document, as reported to a {@link RenderListener}.
+ *
+ * @version $Id$
+ * @since 1.4
+ */
+public enum RenderPhase
+{
+    /** The Velocity processing of a <code>*.vm</code> source. */
+    VELOCITY( "velocity" ),
+
+    /** The XML validation of the source. */
+    VALIDATION( "validation" ),
+
+    /** The parsing of the source into the site sink. */
+    PARSING( "parsing" ),
+
+    /** The merge of the site template, writing the output unless it is only written if changed. */
+    TEMPLATE( "template" ),
+
+    /** The comparison and write of the output file, when it is only written if changed. */
+    WRITING( "writing" );
+
+    private final String label;
+
+    private RenderPhase( String label )
+    {
+        this.label = label;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String toString()
+    {
+        return label;
+    }
+}
@@ -0,0 +1,54 @@
+package org.apache.maven.doxia.siterenderer;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates named daemon threads for the renderer worker pools, so that an unfinished pool never prevents
+ * the JVM from exiting.
+ *
+ * @version $Id$
+ * @since 1.4
+ */
+class RendererThreadFactory
+    implements ThreadFactory
+{
+    private final String prefix;
+
+    private final AtomicInteger count = new AtomicInteger();
+
+    /**
+     * @param name the pool name, used as thread name prefix.
+     */
+    RendererThreadFactory( String name )
+    {
+        this.prefix = "doxia-" + name + "-";
+    }
+
+    /** {@inheritDoc} */
+    public Thread newThread( Runnable r )
+    {
+        Thread thread = new Thread( r, prefix + count.incrementAndGet() );
+        thread.setDaemon( true );
+        return thread;
+    }
+}
@@ -0,0 +1,555 @@
+package org.apache.maven.doxia.siterenderer;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.codehaus.plexus.util.IOUtil;
+
+/**
+ * Persistent record of the inputs each output file was rendered from, stored in the output directory.
+ * Every output file keeps one digest per input: its own source content, the files its Velocity source included,
+ * and the inputs shared by all documents (decoration model, template, template properties, locale and
+ * encodings). An output is up to date
+ * when none of these digests changed since it was generated: unlike file timestamps, this survives fresh
+ * checkouts, and it tells which input caused a document to be regenerated.
+ * <p>
+ * A global input without digest, like template properties holding objects whose content cannot be compared,
+ * is taken as changed every time: documents depending on it are always rendered.
+ * </p>
+ *
+ * @version $Id$
+ * @since 1.4
+ */
+class RenderingManifest
+{
+    /** The manifest file name, in the output directory. */
+    static final String FILE_NAME = ".doxia-site-renderer.manifest";
+
+    /** Index of the source document digest. */
+    static final int SOURCE = 0;
+
+    /** Index of the decoration model digest. */
+    static final int DECORATION = 1;
+
+    /** Index of the template digest, including anything the template may include from a skin. */
+    static final int TEMPLATE = 2;
+
+    /** Index of the template properties digest. */
+    static final int TEMPLATE_PROPERTIES = 3;
+
+    /** Index of the locale and encodings digest. */
+    static final int ENVIRONMENT = 4;
+
+    /** Index of the digest of the files included by the source document. */
+    static final int INCLUDES = 5;
+
+    /** Number of inputs recorded per output file. */
+    static final int INPUT_COUNT = 6;
+
+    private static final String[] INPUT_NAMES =
+        { "source", "decoration model", "template", "template properties", "locale or encoding", "included file" };
+
+    private static final int MAGIC = 0x44534D46;
+
+    private static final int VERSION = 3;
+
+    private static final String ALGORITHM = "MD5";
+
+    private final File file;
+
+    private final byte[][] globalInputs;
+
+    private byte[][] previousGlobalInputs;
+
+    private final Map<String, byte[][]> entries = new ConcurrentHashMap<String, byte[][]>();
+
+    /** The names of the files included by the source of each output, relative to the source directory. */
+    private final Map<String, List<String>> includes = new ConcurrentHashMap<String, List<String>>();
+
+    /** The outputs of the documents of the current rendering, rendered or skipped. */
+    private final Map<String, Boolean> seen = new ConcurrentHashMap<String, Boolean>();
+
+    private volatile boolean modified;
+
+    private RenderingManifest( File file, byte[][] globalInputs )
+    {
+        this.file = file;
+        this.globalInputs = globalInputs;
+    }
+
+    /**
+     * Load the manifest from an output directory. A missing or unreadable manifest gives an empty one,
+     * ie every document will be rendered.
+     *
+     * @param outputDirectory the output directory, not null.
+     * @param globalInputs the digests of the inputs shared by all documents, indexed like {@link #SOURCE},
+     *      {@link #DECORATION}... The source and includes digests are ignored, a <code>null</code> digest is never
+     *      up to date.
+     * @return the manifest, never null.
+     */
+    static RenderingManifest load( File outputDirectory, byte[][] globalInputs )
+    {
+        RenderingManifest manifest = new RenderingManifest( new File( outputDirectory, FILE_NAME ), globalInputs );
+
+        if ( manifest.file.isFile() )
+        {
+            try
+            {
+                manifest.read();
+            }
+            catch ( IOException e )
+            {
+                // corrupted or from another version: start from scratch
+                manifest.previousGlobalInputs = null;
+                manifest.entries.clear();
+                manifest.includes.clear();
+            }
+        }
+
+        return manifest;
+    }
+
+    /**
+     * @return the names of the global inputs that changed since the manifest was last saved, empty if the
+     *      manifest is new.
+     */
+    List<String> getChangedGlobalInputs()
+    {
+        List<String> changes = new ArrayList<String>();
+
+        if ( previousGlobalInputs != null )
+        {
+            for ( int i = DECORATION; i <= ENVIRONMENT; i++ )
+            {
+                if ( isChanged( globalInputs[i], previousGlobalInputs[i] ) )
+                {
+                    changes.add( INPUT_NAMES[i] );
+                }
+            }
+        }
+
+        return changes;
+    }
+
+    /**
+     * Compute the digests of the inputs of a source document, with the files it included when last rendered.
+     * The output is recorded as part of the current rendering, and kept by {@link #prune()}.
+     *
+     * @param outputName the output name, relative to the output directory.
+     * @param source the source document.
+     * @return the input digests, or <code>null</code> if the source is not a readable file.
+     */
+    byte[][] inputs( String outputName, File source )
+    {
+        seen.put( outputName, Boolean.TRUE );
+
+        if ( !source.isFile() )
+        {
+            return null;
+        }
+
+        MessageDigest digest = newDigest();
+        try
+        {
+            update( digest, source );
+        }
+        catch ( IOException e )
+        {
+            return null;
+        }
+
+        byte[][] inputs = globalInputs.clone();
+        inputs[SOURCE] = digest.digest();
+
+        List<String> previousIncludes = includes.get( outputName );
+        inputs[INCLUDES] = digestIncludes( source, ( previousIncludes == null )
+                        ? Collections.<String>emptyList() : previousIncludes );
+
+        return inputs;
+    }
+
+    /**
+     * Compute the digest of the files included by a source document: their names and contents.
+     *
+     * @param source the source document.
+     * @param names the names of the included files, as recorded by {@link DocumentResourceLoader}.
+     * @return the digest.
+     */
+    static byte[] digestIncludes( File source, List<String> names )
+    {
+        MessageDigest digest = newDigest();
+
+        for ( String name : names )
+        {
+            update( digest, name );
+
+            File included = DocumentResourceLoader.getIncludedFile( source, name );
+            try
+            {
+                if ( included.isFile() )
+                {
+                    update( digest, included );
+                }
+            }
+            catch ( IOException e )
+            {
+                // digested as missing
+            }
+
+            // a missing file does not digest like an empty one
+            update( digest, String.valueOf( included.isFile() ) );
+        }
+
+        return digest.digest();
+    }
+
+    /**
+     * @param outputName the output name, relative to the output directory.
+     * @param inputs the input digests of the document, as computed by {@link #inputs(String, File)}.
+     * @return <code>null</code> if the output was generated from the same inputs, or a description of what
+     *      changed.
+     */
+    String getChanges( String outputName, byte[][] inputs )
+    {
+        byte[][] previous = entries.get( outputName );
+
+        if ( previous == null )
+        {
+            return "not rendered before";
+        }
+
+        StringBuilder changes = null;
+        for ( int i = 0; i < INPUT_COUNT; i++ )
+        {
+            if ( isChanged( inputs[i], previous[i] ) )
+            {
+                if ( changes == null )
+                {
+                    changes = new StringBuilder( INPUT_NAMES[i] );
+                }
+                else
+                {
+                    changes.append( ", " ).append( INPUT_NAMES[i] );
+                }
+            }
+        }
+
+        return ( changes == null ) ? null : changes.append( " changed" ).toString();
+    }
+
+    private static boolean isChanged( byte[] digest, byte[] previousDigest )
+    {
+        return digest == null || !Arrays.equals( digest, previousDigest );
+    }
+
+    /**
+     * Forget the inputs of a document about to be rendered: if the rendering fails, its output may be missing or
+     * partial, and the next rendering must not skip it. The inputs are recorded again once the document is
+     * written, by {@link #update(String, byte[][], File, List)}.
+     *
+     * @param outputName the output name, relative to the output directory.
+     */
+    void remove( String outputName )
+    {
+        includes.remove( outputName );
+
+        if ( entries.remove( outputName ) != null )
+        {
+            modified = true;
+        }
+    }
+
+    /**
+     * Forget the outputs that were not part of the current rendering, like the ones of deleted or renamed
+     * documents. To be called only once every document of the site went through {@link #inputs(String, File)}.
+     */
+    void prune()
+    {
+        for ( Iterator<String> it = entries.keySet().iterator(); it.hasNext(); )
+        {
+            String outputName = it.next();
+
+            if ( !seen.containsKey( outputName ) )
+            {
+                it.remove();
+                includes.remove( outputName );
+                modified = true;
+            }
+        }
+    }
+
+    /**
+     * Record the inputs of a document that has just been rendered.
+     *
+     * @param outputName the output name, relative to the output directory.
+     * @param inputs the input digests of the document, as computed by {@link #inputs(String, File)}.
+     * @param source the source document.
+     * @param includedNames the names of the files the source included while rendered.
+     */
+    void update( String outputName, byte[][] inputs, File source, List<String> includedNames )
+    {
+        byte[][] rendered = inputs.clone();
+        rendered[INCLUDES] = digestIncludes( source, includedNames );
+
+        includes.put( outputName, new ArrayList<String>( includedNames ) );
+        entries.put( outputName, rendered );
+        modified = true;
+    }
+
+    /**
+     * Write the manifest back to the output directory, if anything changed.
+     *
+     * @throws IOException if the manifest cannot be written.
+     */
+    void save()
+        throws IOException
+    {
+        if ( !modified )
+        {
+            return;
+        }
+
+        file.getParentFile().mkdirs();
+
+        File tmp = new File( file.getPath() + ".tmp" );
+
+        DataOutputStream out = null;
+        try
+        {
+            out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( tmp ) ) );
+
+            out.writeInt( MAGIC );
+            out.writeInt( VERSION );
+
+            writeInputs( out, globalInputs );
+
+            Map<String, byte[][]> snapshot = new TreeMap<String, byte[][]>( entries );
+            out.writeInt( snapshot.size() );
+            for ( Map.Entry<String, byte[][]> entry : snapshot.entrySet() )
+            {
+                out.writeUTF( entry.getKey() );
+                writeInputs( out, entry.getValue() );
+
+                List<String> names = includes.get( entry.getKey() );
+                out.writeInt( ( names == null ) ? 0 : names.size() );
+                if ( names != null )
+                {
+                    for ( String name : names )
+                    {
+                        out.writeUTF( name );
+                    }
+                }
+            }
+        }
+        finally
+        {
+            IOUtil.close( out );
+        }
+
+        if ( !tmp.renameTo( file ) )
+        {
+            // File.renameTo() does not overwrite on every platform
+            file.delete();
+
+            if ( !tmp.renameTo( file ) )
+            {
+                throw new IOException( "Unable to write " + file );
+            }
+        }
+
+        modified = false;
+    }
+
+    private void read()
+        throws IOException
+    {
+        DataInputStream in = null;
+        try
+        {
+            in = new DataInputStream( new BufferedInputStream( new FileInputStream( file ) ) );
+
+            if ( in.readInt() != MAGIC || in.readInt() != VERSION )
+            {
+                throw new IOException( "Unsupported manifest " + file );
+            }
+
+            previousGlobalInputs = readInputs( in );
+
+            for ( int count = in.readInt(); count > 0; count-- )
+            {
+                String outputName = in.readUTF();
+
+                entries.put( outputName, readInputs( in ) );
+
+                List<String> names = new ArrayList<String>();
+                for ( int n = in.readInt(); n > 0; n-- )
+                {
+                    names.add( in.readUTF() );
+                }
+                includes.put( outputName, names );
+            }
+        }
+        finally
+        {
+            IOUtil.close( in );
+        }
+    }
+
+    private static void writeInputs( DataOutputStream out, byte[][] inputs )
+        throws IOException
+    {
+        for ( int i = 0; i < INPUT_COUNT; i++ )
+        {
+            byte[] digest = inputs[i];
+
+            if ( digest == null )
+            {
+                out.writeByte( 0 );
+            }
+            else
+            {
+                out.writeByte( digest.length );
+                out.write( digest );
+            }
+        }
+    }
+
+    private static byte[][] readInputs( DataInputStream in )
+        throws IOException
+    {
+        byte[][] inputs = new byte[INPUT_COUNT][];
+
+        for ( int i = 0; i < INPUT_COUNT; i++ )
+        {
+            int length = in.readUnsignedByte();
+
+            if ( length > 0 )
+            {
+                inputs[i] = new byte[length];
+                in.readFully( inputs[i] );
+            }
+        }
+
+        return inputs;
+    }
+
+    // ----------------------------------------------------------------------
+    // Digest helpers
+    // ----------------------------------------------------------------------
+
+    /**
+     * @return a new message digest, using the algorithm of the manifest.
+     */
+    static MessageDigest newDigest()
+    {
+        try
+        {
+            return MessageDigest.getInstance( ALGORITHM );
+        }
+        catch ( NoSuchAlgorithmException e )
+        {
+            // every JRE has to support MD5
+            throw new IllegalStateException( e.getMessage() );
+        }
+    }
+
+    /**
+     * Add a string to a digest, followed by a separator so that consecutive values cannot collide.
+     *
+     * @param digest the digest to update.
+     * @param value the value, may be null.
+     */
+    static void update( MessageDigest digest, String value )
+    {
+        try
+        {
+            if ( value != null )
+            {
+                digest.update( value.getBytes( "UTF-8" ) );
+            }
+            digest.update( (byte) 0 );
+        }
+        catch ( UnsupportedEncodingException e )
+        {
+            // every JRE has to support UTF-8
+            throw new IllegalStateException( e.getMessage() );
+        }
+    }
+
+    /**
+     * Add the content of a file to a digest.
+     *
+     * @param digest the digest to update.
+     * @param f the file to read.
+     * @throws IOException if the file cannot be read.
+     */
+    static void update( MessageDigest digest, File f )
+        throws IOException
+    {
+        InputStream in = null;
+        try
+        {
+            in = new FileInputStream( f );
+
+            update( digest, in );
+        }
+        finally
+        {
+            IOUtil.close( in );
+        }
+    }
+
+    /**
+     * Add the content of a stream to a digest. The stream is not closed.
+     *
+     * @param digest the digest to update.
+     * @param in the stream to read.
+     * @throws IOException if the stream cannot be read.
+     */
+    static void update( MessageDigest digest, InputStream in )
+        throws IOException
+    {
+        byte[] buffer = new byte[8192];
+        for ( int n = in.read( buffer ); n >= 0; n = in.read( buffer ) )
+        {
+            digest.update( buffer, 0, n );
+        }
+    }
+}
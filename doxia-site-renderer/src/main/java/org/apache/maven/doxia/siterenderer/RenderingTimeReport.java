@@ -0,0 +1,266 @@
+package org.apache.maven.doxia.siterenderer;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.codehaus.plexus.logging.Logger;
+
+/**
+ * A {@link RenderListener} logging, at the end of the rendering, the slowest documents and a histogram of the
+ * times of each rendering phase. Histogram buckets are powers of two of milliseconds.
+ * <p>
+ * The renderer logs this report to its own logger when {@link SiteRenderingContext#setTimingReport(boolean)} is
+ * switched on; it can also be {@link SiteRenderingContext#addRenderListener(RenderListener) added} like any
+ * listener, to log it elsewhere.
+ * </p>
+ *
+ * @version $Id$
+ * @since 1.4
+ */
+public class RenderingTimeReport
+    implements RenderListener
+{
+    /** The number of slowest documents reported by the renderer. */
+    public static final int DEFAULT_SLOWEST_COUNT = 10;
+
+    /** Buckets: under 1 ms, under 2 ms, under 4 ms... and the last one for the rest. */
+    private static final int BUCKETS = 14;
+
+    private static final RenderPhase[] PHASES = RenderPhase.values();
+
+    private final Logger logger;
+
+    private final int slowestCount;
+
+    /** The phase times of every rendered document, by document, with the document time last. */
+    private final Map<String, AtomicLongArray> documents = new ConcurrentHashMap<String, AtomicLongArray>();
+
+    private final AtomicLongArray[] histograms = new AtomicLongArray[PHASES.length];
+
+    private final AtomicLong resourcesNanos = new AtomicLong();
+
+    private final AtomicLong outputSize = new AtomicLong();
+
+    private volatile int documentCount;
+
+    /**
+     * @param logger the logger receiving the report, at info level.
+     * @param slowestCount the number of slowest documents to report.
+     */
+    public RenderingTimeReport( Logger logger, int slowestCount )
+    {
+        this.logger = logger;
+        this.slowestCount = slowestCount;
+
+        for ( int i = 0; i < PHASES.length; i++ )
+        {
+            histograms[i] = new AtomicLongArray( BUCKETS );
+        }
+    }
+
+    /** {@inheritDoc} */
+    public void renderingStarted( int documentCount )
+    {
+        this.documentCount = documentCount;
+
+        documents.clear();
+        resourcesNanos.set( 0 );
+        outputSize.set( 0 );
+        for ( int i = 0; i < PHASES.length; i++ )
+        {
+            histograms[i] = new AtomicLongArray( BUCKETS );
+        }
+    }
+
+    /** {@inheritDoc} */
+    public void documentStarted( String document )
+    {
+        documents.put( document, new AtomicLongArray( PHASES.length + 1 ) );
+    }
+
+    /** {@inheritDoc} */
+    public void phaseStarted( String document, RenderPhase phase )
+    {
+        // only the end matters
+    }
+
+    /** {@inheritDoc} */
+    public void phaseEnded( String document, RenderPhase phase, long nanos, long size )
+    {
+        AtomicLongArray times = documents.get( document );
+        if ( times != null )
+        {
+            times.addAndGet( phase.ordinal(), nanos );
+        }
+
+        histograms[phase.ordinal()].incrementAndGet( getBucket( nanos ) );
+    }
+
+    /** {@inheritDoc} */
+    public void documentEnded( String document, long nanos, long outputSize )
+    {
+        AtomicLongArray times = documents.get( document );
+        if ( times != null )
+        {
+            times.set( PHASES.length, nanos );
+        }
+
+        if ( outputSize > 0 )
+        {
+            this.outputSize.addAndGet( outputSize );
+        }
+    }
+
+    /** {@inheritDoc} */
+    public void resourcesCopied( long nanos )
+    {
+        resourcesNanos.addAndGet( nanos );
+    }
+
+    /** {@inheritDoc} */
+    public void renderingEnded()
+    {
+        if ( !logger.isInfoEnabled() )
+        {
+            return;
+        }
+
+        long total = 0;
+        for ( AtomicLongArray times : documents.values() )
+        {
+            total += times.get( PHASES.length );
+        }
+
+        logger.info( "Rendered " + documents.size() + " of " + documentCount + " documents (" + outputSize.get()
+            + " bytes) in " + millis( total ) + " (summed over threads), resources copied in "
+            + millis( resourcesNanos.get() ) );
+
+        List<String> slowest = getSlowestDocuments();
+        if ( !slowest.isEmpty() )
+        {
+            logger.info( "Slowest documents:" );
+            for ( String document : slowest )
+            {
+                AtomicLongArray times = documents.get( document );
+
+                StringBuilder line = new StringBuilder( "  " );
+                line.append( millis( times.get( PHASES.length ) ) ).append( ' ' ).append( document ).append( " (" );
+                String separator = "";
+                for ( RenderPhase phase : PHASES )
+                {
+                    if ( times.get( phase.ordinal() ) > 0 )
+                    {
+                        line.append( separator ).append( phase ).append( ' ' );
+                        line.append( millis( times.get( phase.ordinal() ) ) );
+                        separator = ", ";
+                    }
+                }
+                logger.info( line.append( ')' ).toString() );
+            }
+        }
+
+        for ( RenderPhase phase : PHASES )
+        {
+            String histogram = getHistogram( phase );
+            if ( histogram != null )
+            {
+                logger.info( "  " + phase + ": " + histogram );
+            }
+        }
+    }
+
+    /**
+     * @return the output names of the slowest documents of the last rendering, the slowest first.
+     */
+    List<String> getSlowestDocuments()
+    {
+        List<Map.Entry<String, AtomicLongArray>> entries =
+            new ArrayList<Map.Entry<String, AtomicLongArray>>( documents.entrySet() );
+
+        Collections.sort( entries, new Comparator<Map.Entry<String, AtomicLongArray>>()
+        {
+            public int compare( Map.Entry<String, AtomicLongArray> e1, Map.Entry<String, AtomicLongArray> e2 )
+            {
+                long t1 = e1.getValue().get( PHASES.length );
+                long t2 = e2.getValue().get( PHASES.length );
+
+                return ( t1 < t2 ) ? 1 : ( ( t1 > t2 ) ? -1 : e1.getKey().compareTo( e2.getKey() ) );
+            }
+        } );
+
+        List<String> slowest = new ArrayList<String>();
+        for ( int i = 0; i < entries.size() && i < slowestCount; i++ )
+        {
+            slowest.add( entries.get( i ).getKey() );
+        }
+        return slowest;
+    }
+
+    /**
+     * @param phase a rendering phase.
+     * @return the histogram of the phase times, like <code>&lt;1ms: 12, &lt;2ms: 3</code>, or <code>null</code>
+     * if the phase never ran.
+     */
+    String getHistogram( RenderPhase phase )
+    {
+        AtomicLongArray histogram = histograms[phase.ordinal()];
+
+        StringBuilder buffer = new StringBuilder();
+        for ( int i = 0; i < BUCKETS; i++ )
+        {
+            long count = histogram.get( i );
+            if ( count > 0 )
+            {
+                if ( buffer.length() > 0 )
+                {
+                    buffer.append( ", " );
+                }
+                buffer.append( ( i < BUCKETS - 1 ) ? "<" + ( 1L << i ) : ">=" + ( 1L << ( i - 1 ) ) );
+                buffer.append( "ms: " ).append( count );
+            }
+        }
+        return ( buffer.length() == 0 ) ? null : buffer.toString();
+    }
+
+    private static int getBucket( long nanos )
+    {
+        long ms = nanos / 1000000L;
+
+        int bucket = 0;
+        while ( bucket < BUCKETS - 1 && ms >= ( 1L << bucket ) )
+        {
+            bucket++;
+        }
+        return bucket;
+    }
+
+    private static String millis( long nanos )
+    {
+        return ( nanos / 1000000L ) + " ms";
+    }
+}
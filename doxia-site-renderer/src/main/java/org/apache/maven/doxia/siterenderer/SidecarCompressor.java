@@ -0,0 +1,315 @@
+package org.apache.maven.doxia.siterenderer;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPOutputStream;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.codehaus.plexus.util.IOUtil;
+
+/**
+ * Writes gzip compressed copies of output files next to them, like <code>index.html.gz</code> for
+ * <code>index.html</code>, so that a web server can send them as is to clients accepting gzip. Files are
+ * compressed in parallel with the rendering, by a pool of its own. Only text files are compressed: images and
+ * archives are compressed already.
+ * <p>
+ * A file written during the rendering is always compressed again. For a file left untouched, the sidecar is
+ * stale if its last modification date, which is set to the date of its file, differs; or else if the size and
+ * CRC-32 of the uncompressed content, recorded by the gzip trailer, differ from the file ones: timestamps may be
+ * too coarse to tell a file rewritten right after its sidecar.
+ * </p>
+ *
+ * @version $Id$
+ * @since 1.4
+ */
+class SidecarCompressor
+{
+    /** The sidecar suffix. */
+    static final String SUFFIX = ".gz";
+
+    private static final Set<String> EXTENSIONS =
+        new HashSet<String>( Arrays.asList( new String[] { "css", "htm", "html", "js", "svg", "txt", "xml" } ) );
+
+    private final ExecutorService executor;
+
+    private final List<Future<?>> results = Collections.synchronizedList( new ArrayList<Future<?>>() );
+
+    private final AtomicInteger compressed = new AtomicInteger();
+
+    /**
+     * @param threadCount the number of compressing threads.
+     */
+    SidecarCompressor( int threadCount )
+    {
+        executor = Executors.newFixedThreadPool( threadCount, new RendererThreadFactory( "gzip" ) );
+    }
+
+    /**
+     * @param file an output file.
+     * @return <code>true</code> if the file gets a compressed sidecar.
+     */
+    static boolean isCompressible( File file )
+    {
+        return EXTENSIONS.contains( FileUtils.getExtension( file.getName() ).toLowerCase( Locale.ENGLISH ) );
+    }
+
+    /**
+     * Compress a file that was just written, in background.
+     *
+     * @param file the output file.
+     */
+    void compress( final File file )
+    {
+        if ( !isCompressible( file ) )
+        {
+            return;
+        }
+
+        results.add( executor.submit( new Callable<Object>()
+        {
+            public Object call()
+                throws IOException
+            {
+                writeSidecar( file );
+
+                return null;
+            }
+        } ) );
+    }
+
+    /**
+     * Compress a file that was not written, in background, only if its sidecar is missing or stale.
+     *
+     * @param file the output file.
+     */
+    void compressIfStale( final File file )
+    {
+        if ( !isCompressible( file ) || !file.isFile() )
+        {
+            return;
+        }
+
+        results.add( executor.submit( new Callable<Object>()
+        {
+            public Object call()
+                throws IOException
+            {
+                if ( isStale( file ) )
+                {
+                    writeSidecar( file );
+                }
+
+                return null;
+            }
+        } ) );
+    }
+
+    /**
+     * @param file an output file.
+     * @return <code>true</code> if the sidecar of the file is missing, or was not compressed from its content.
+     */
+    static boolean isStale( File file )
+    {
+        File sidecar = new File( file.getPath() + SUFFIX );
+
+        // at least a header and a trailer
+        if ( sidecar.length() < 18 || sidecar.lastModified() != file.lastModified() )
+        {
+            return true;
+        }
+
+        try
+        {
+            long[] trailer = readTrailer( sidecar );
+
+            return trailer[1] != ( file.length() & 0xffffffffL ) || trailer[0] != crc( file );
+        }
+        catch ( IOException e )
+        {
+            return true;
+        }
+    }
+
+    /**
+     * @return the CRC-32 and the size modulo 2<sup>32</sup> of the uncompressed content of a gzip file.
+     */
+    private static long[] readTrailer( File sidecar )
+        throws IOException
+    {
+        RandomAccessFile in = new RandomAccessFile( sidecar, "r" );
+        try
+        {
+            in.seek( in.length() - 8 );
+
+            byte[] trailer = new byte[8];
+            in.readFully( trailer );
+
+            return new long[] { readInt( trailer, 0 ), readInt( trailer, 4 ) };
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    /**
+     * @return an unsigned little endian integer, as written by gzip.
+     */
+    private static long readInt( byte[] b, int off )
+    {
+        return ( b[off] & 0xffL ) | ( b[off + 1] & 0xffL ) << 8 | ( b[off + 2] & 0xffL ) << 16
+            | ( b[off + 3] & 0xffL ) << 24;
+    }
+
+    private static long crc( File file )
+        throws IOException
+    {
+        CRC32 crc = new CRC32();
+
+        InputStream in = new FileInputStream( file );
+        try
+        {
+            byte[] buffer = new byte[8192];
+            for ( int n = in.read( buffer ); n >= 0; n = in.read( buffer ) )
+            {
+                crc.update( buffer, 0, n );
+            }
+        }
+        finally
+        {
+            IOUtil.close( in );
+        }
+
+        return crc.getValue();
+    }
+
+    /**
+     * Wait for every submitted file to be compressed.
+     *
+     * @return the number of sidecars written.
+     * @throws IOException if a sidecar could not be written.
+     */
+    int finish()
+        throws IOException
+    {
+        synchronized ( results )
+        {
+            waitFor( results );
+        }
+
+        return compressed.get();
+    }
+
+    /**
+     * Stop the compressing threads, interrupting the compressions not finished.
+     */
+    void close()
+    {
+        executor.shutdownNow();
+    }
+
+    private static void waitFor( List<Future<?>> results )
+        throws IOException
+    {
+        for ( Future<?> result : results )
+        {
+            try
+            {
+                result.get();
+            }
+            catch ( ExecutionException e )
+            {
+                IOException ioe = new IOException( "Error compressing output: " + e.getCause().getMessage() );
+                ioe.initCause( e.getCause() );
+                throw ioe;
+            }
+            catch ( InterruptedException e )
+            {
+                Thread.currentThread().interrupt();
+
+                throw new IOException( "Interrupted while compressing output" );
+            }
+        }
+    }
+
+    private void writeSidecar( File file )
+        throws IOException
+    {
+        File sidecar = new File( file.getPath() + SUFFIX );
+        File tmp = new File( sidecar.getPath() + ".tmp" );
+
+        InputStream in = null;
+        OutputStream out = null;
+        try
+        {
+            in = new FileInputStream( file );
+            out = new GZIPOutputStream( new FileOutputStream( tmp ) );
+
+            IOUtil.copy( in, out );
+
+            // IOUtil.close() would hide a failure to write the end of the stream
+            out.close();
+            out = null;
+        }
+        finally
+        {
+            IOUtil.close( in );
+            IOUtil.close( out );
+        }
+
+        if ( !tmp.renameTo( sidecar ) )
+        {
+            // File.renameTo() does not overwrite on every platform
+            sidecar.delete();
+
+            if ( !tmp.renameTo( sidecar ) )
+            {
+                tmp.delete();
+
+                throw new IOException( "Unable to write " + sidecar );
+            }
+        }
+
+        sidecar.setLastModified( file.lastModified() );
+
+        compressed.incrementAndGet();
+    }
+}
@@ -0,0 +1,710 @@
+package org.apache.maven.doxia.siterenderer;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URLDecoder;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.apache.maven.doxia.sink.render.RenderingContext;
+import org.codehaus.plexus.logging.AbstractLogEnabled;
+import org.codehaus.plexus.logging.Logger;
+import org.codehaus.plexus.logging.console.ConsoleLogger;
+import org.codehaus.plexus.util.FileUtils;
+import org.codehaus.plexus.util.IOUtil;
+import org.codehaus.plexus.util.StringUtils;
+import org.codehaus.plexus.util.WriterFactory;
+
+/**
+ * A local HTTP server rendering the pages of a site on demand, to preview a site without rendering it
+ * entirely. A request path is resolved to the document rendered to this path, and the page is rendered into
+ * the response; other paths are served from the site resources, the skin jar or the default template
+ * resources, without extracting anything to disk.
+ * <p>
+ * Rendered pages are kept in a least recently used cache, and rendered again when one of the inputs the
+ * rendering manifest tracks changes: the source, the files it included, the decoration model, the template or
+ * skin, the template properties or the environment. The inputs shared by all pages, and the documents, are
+ * checked again at most once per {@link #RELOCATE_INTERVAL}.
+ * </p>
+ * <p>
+ * Each connection gets its own thread, so that an idle browser connection does not hold the other requests.
+ * </p>
+ *
+ * @version $Id$
+ * @since 1.4
+ */
+public class SitePreviewServer
+    extends AbstractLogEnabled
+{
+    /** The default number of rendered pages kept in cache. */
+    public static final int DEFAULT_CACHE_SIZE = 256;
+
+    /** The minimum delay between two locations of the documents, in milliseconds. */
+    static final long RELOCATE_INTERVAL = 1000;
+
+    private static final int MAX_LINE_LENGTH = 8192;
+
+    /** The time to wait for a request once connected, in milliseconds. */
+    private static final int SO_TIMEOUT = 5000;
+
+    private static final Map<String, String> CONTENT_TYPES = new HashMap<String, String>();
+
+    static
+    {
+        CONTENT_TYPES.put( "css", "text/css" );
+        CONTENT_TYPES.put( "gif", "image/gif" );
+        CONTENT_TYPES.put( "ico", "image/x-icon" );
+        CONTENT_TYPES.put( "jpeg", "image/jpeg" );
+        CONTENT_TYPES.put( "jpg", "image/jpeg" );
+        CONTENT_TYPES.put( "js", "text/javascript" );
+        CONTENT_TYPES.put( "pdf", "application/pdf" );
+        CONTENT_TYPES.put( "png", "image/png" );
+        CONTENT_TYPES.put( "svg", "image/svg+xml" );
+        CONTENT_TYPES.put( "txt", "text/plain" );
+        CONTENT_TYPES.put( "xml", "application/xml" );
+    }
+
+    private final Renderer renderer;
+
+    private final SiteRenderingContext siteRenderingContext;
+
+    private final int port;
+
+    private int cacheSize = DEFAULT_CACHE_SIZE;
+
+    private final Map<String, Page> cache = new LinkedHashMap<String, Page>( 16, 0.75f, true )
+    {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry( Map.Entry<String, Page> eldest )
+        {
+            return size() > cacheSize;
+        }
+    };
+
+    private final AtomicInteger renderedCount = new AtomicInteger();
+
+    private volatile Map<String, DocumentRenderer> documents;
+
+    /** When the documents were last located, guarded by <code>this</code>. */
+    private long locatedAt;
+
+    /** The digests of the inputs shared by all pages, guarded by <code>this</code>. */
+    private byte[][] globalInputs;
+
+    /** When the shared inputs were last digested, guarded by <code>this</code>. */
+    private long digestedAt;
+
+    private ServerSocket serverSocket;
+
+    private ExecutorService executor;
+
+    /**
+     * Construct a new server. Nothing is served before {@link #start()}.
+     *
+     * @param renderer the renderer.
+     * @param siteRenderingContext the site rendering context, kept for the whole life of the server.
+     * @param port the local port to listen to, or <code>0</code> for any free port.
+     */
+    public SitePreviewServer( Renderer renderer, SiteRenderingContext siteRenderingContext, int port )
+    {
+        this.renderer = renderer;
+        this.siteRenderingContext = siteRenderingContext;
+        this.port = port;
+
+        enableLogging( new ConsoleLogger( Logger.LEVEL_INFO, "site-preview" ) );
+    }
+
+    /**
+     * @param cacheSize the maximum number of rendered pages kept in cache.
+     */
+    public void setCacheSize( int cacheSize )
+    {
+        this.cacheSize = cacheSize;
+    }
+
+    /**
+     * Locate the documents of the site and start serving requests, in background threads.
+     *
+     * @throws RendererException if the documents cannot be located.
+     * @throws IOException if the port cannot be listened to.
+     */
+    public void start()
+        throws RendererException, IOException
+    {
+        relocateDocuments();
+
+        serverSocket = new ServerSocket( port, 50, InetAddress.getByName( "localhost" ) );
+
+        ThreadFactory threadFactory = new RendererThreadFactory( "site-preview" );
+        // not bounded by the rendering threads: a connection may wait for its request
+        executor = Executors.newCachedThreadPool( threadFactory );
+
+        threadFactory.newThread( new Runnable()
+        {
+            public void run()
+            {
+                accept();
+            }
+        } ).start();
+
+        getLogger().info( "Serving " + documents.size() + " documents at http://localhost:" + getPort() + "/" );
+    }
+
+    /**
+     * Stop serving requests. The requests being served are interrupted.
+     */
+    public void stop()
+    {
+        try
+        {
+            serverSocket.close();
+        }
+        catch ( IOException e )
+        {
+            // ignore
+        }
+
+        executor.shutdownNow();
+    }
+
+    /**
+     * @return the local port listened to.
+     */
+    public int getPort()
+    {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * @return the number of pages rendered since the server started.
+     */
+    int getRenderedCount()
+    {
+        return renderedCount.get();
+    }
+
+    private void accept()
+    {
+        while ( !serverSocket.isClosed() )
+        {
+            final Socket socket;
+            try
+            {
+                socket = serverSocket.accept();
+            }
+            catch ( IOException e )
+            {
+                if ( !serverSocket.isClosed() )
+                {
+                    getLogger().warn( "Error accepting a connection: " + e.getMessage() );
+                }
+                continue;
+            }
+
+            executor.execute( new Runnable()
+            {
+                public void run()
+                {
+                    try
+                    {
+                        handle( socket );
+                    }
+                    catch ( IOException e )
+                    {
+                        getLogger().debug( "Error answering a request: " + e.getMessage(), e );
+                    }
+                    finally
+                    {
+                        try
+                        {
+                            socket.close();
+                        }
+                        catch ( IOException e )
+                        {
+                            // ignore
+                        }
+                    }
+                }
+            } );
+        }
+    }
+
+    private void handle( Socket socket )
+        throws IOException
+    {
+        socket.setSoTimeout( SO_TIMEOUT );
+
+        InputStream in = new BufferedInputStream( socket.getInputStream() );
+        OutputStream out = socket.getOutputStream();
+
+        String requestLine = readLine( in );
+        if ( requestLine == null )
+        {
+            return;
+        }
+
+        // the headers do not matter
+        for ( String header = readLine( in ); header != null && header.length() > 0; header = readLine( in ) )
+        {
+            // skip
+        }
+
+        String[] tokens = StringUtils.split( requestLine, " " );
+        if ( tokens.length < 2 )
+        {
+            writeError( out, 400, "Bad Request", requestLine );
+            return;
+        }
+
+        String method = tokens[0];
+        if ( !"GET".equals( method ) && !"HEAD".equals( method ) )
+        {
+            writeError( out, 405, "Method Not Allowed", method );
+            return;
+        }
+
+        String path;
+        try
+        {
+            path = decode( tokens[1] );
+        }
+        catch ( IllegalArgumentException e )
+        {
+            writeError( out, 400, "Bad Request", tokens[1] );
+            return;
+        }
+
+        long start = System.currentTimeMillis();
+
+        Page page;
+        try
+        {
+            page = getPage( path );
+        }
+        catch ( RendererException e )
+        {
+            getLogger().error( "Error rendering " + path + ": " + e.getMessage(), e );
+
+            writeError( out, 500, "Internal Server Error", e.getMessage() );
+            return;
+        }
+
+        if ( page == null )
+        {
+            writeError( out, 404, "Not Found", path );
+            return;
+        }
+
+        write( out, 200, "OK", page.contentType, page.content, "HEAD".equals( method ) );
+
+        if ( getLogger().isDebugEnabled() )
+        {
+            getLogger().debug( method + " " + path + " in " + ( System.currentTimeMillis() - start ) + " ms" );
+        }
+    }
+
+    /**
+     * Get the content served for a path.
+     *
+     * @param path the decoded request path.
+     * @return the page, or <code>null</code> if there is nothing to serve for this path.
+     */
+    Page getPage( String path )
+        throws RendererException, IOException
+    {
+        String name = path.startsWith( "/" ) ? path.substring( 1 ) : path;
+        if ( name.length() == 0 || name.endsWith( "/" ) )
+        {
+            name += "index.html";
+        }
+
+        // separators are decoded already: a backslash is a separator too on Windows
+        name = name.replace( '\\', '/' );
+        if ( ( "/" + name + "/" ).indexOf( "/../" ) >= 0 || name.startsWith( "/" ) || name.indexOf( ':' ) >= 0 )
+        {
+            return null;
+        }
+
+        DocumentRenderer document = documents.get( name );
+        if ( document == null && name.endsWith( ".html" ) )
+        {
+            // the document may have been added since the documents were located
+            document = relocateDocuments().get( name );
+        }
+
+        if ( document != null )
+        {
+            return renderPage( name, document );
+        }
+
+        return getResource( name );
+    }
+
+    /**
+     * Locate the documents again, unless they were located less than {@link #RELOCATE_INTERVAL} ago.
+     *
+     * @return the located documents.
+     */
+    private synchronized Map<String, DocumentRenderer> relocateDocuments()
+        throws RendererException, IOException
+    {
+        long now = System.currentTimeMillis();
+
+        if ( documents == null || now - locatedAt >= RELOCATE_INTERVAL )
+        {
+            documents = renderer.locateDocumentFiles( siteRenderingContext );
+            locatedAt = now;
+        }
+
+        return documents;
+    }
+
+    /**
+     * Digest the inputs shared by all pages again, unless they were digested less than
+     * {@link #RELOCATE_INTERVAL} ago.
+     *
+     * @return the digests, indexed like the inputs of the rendering manifest, or <code>null</code> if the renderer
+     *      cannot tell them.
+     */
+    private synchronized byte[][] getGlobalInputs()
+        throws IOException
+    {
+        long now = System.currentTimeMillis();
+
+        boolean stale = globalInputs == null || now - digestedAt >= RELOCATE_INTERVAL;
+        if ( stale && renderer instanceof DefaultSiteRenderer )
+        {
+            globalInputs = ( (DefaultSiteRenderer) renderer ).getGlobalInputs( siteRenderingContext );
+            digestedAt = now;
+        }
+
+        return globalInputs;
+    }
+
+    private Page renderPage( String name, DocumentRenderer document )
+        throws RendererException, IOException
+    {
+        RenderingContext renderingContext = document.getRenderingContext();
+        File source = new File( renderingContext.getBasedir(), renderingContext.getInputName() );
+
+        byte[][] inputs = null;
+        if ( !document.isOverwrite() && source.isFile() && getGlobalInputs() != null )
+        {
+            Page cached;
+            synchronized ( cache )
+            {
+                cached = cache.get( name );
+            }
+
+            inputs = getGlobalInputs().clone();
+
+            MessageDigest md = RenderingManifest.newDigest();
+            RenderingManifest.update( md, source );
+            inputs[RenderingManifest.SOURCE] = md.digest();
+
+            if ( cached != null )
+            {
+                inputs[RenderingManifest.INCLUDES] = RenderingManifest.digestIncludes( source, cached.includes );
+
+                if ( isUpToDate( inputs, cached.inputs ) )
+                {
+                    return cached;
+                }
+            }
+        }
+
+        String encoding = siteRenderingContext.getOutputEncoding();
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        Writer writer = WriterFactory.newWriter( content, encoding );
+        List<String> includes;
+        DocumentResourceLoader.startRecording();
+        try
+        {
+            document.renderDocument( writer, renderer, siteRenderingContext );
+        }
+        finally
+        {
+            includes = DocumentResourceLoader.stopRecording();
+
+            IOUtil.close( writer );
+        }
+        renderedCount.incrementAndGet();
+
+        Page page = new Page( "text/html; charset=" + encoding, content.toByteArray() );
+
+        if ( inputs != null )
+        {
+            inputs[RenderingManifest.INCLUDES] = RenderingManifest.digestIncludes( source, includes );
+            page.inputs = inputs;
+            page.includes = new ArrayList<String>( includes );
+
+            synchronized ( cache )
+            {
+                cache.put( name, page );
+            }
+        }
+
+        return page;
+    }
+
+    /**
+     * @return <code>true</code> if every input has the digest it had when the page was rendered; a
+     *      <code>null</code> digest is never up to date.
+     */
+    private static boolean isUpToDate( byte[][] inputs, byte[][] renderedInputs )
+    {
+        for ( int i = 0; i < inputs.length; i++ )
+        {
+            if ( inputs[i] == null || !Arrays.equals( inputs[i], renderedInputs[i] ) )
+            {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Look for a resource the way the resources are copied: for each site directory, the skin resources are
+     * extracted, then the default template resources, then the site resources. The resources of the last site
+     * directory win, then the default template and skin resources, then the resources of the other site
+     * directories.
+     */
+    private Page getResource( String name )
+        throws IOException
+    {
+        String contentType = getContentType( name );
+
+        List<File> siteDirectories = siteRenderingContext.getSiteDirectories();
+        int last = siteDirectories.size() - 1;
+
+        if ( last >= 0 )
+        {
+            Page page = getSiteResource( siteDirectories.get( last ), name, contentType );
+            if ( page != null )
+            {
+                return page;
+            }
+        }
+
+        if ( siteRenderingContext.isUsingDefaultTemplate() && !name.endsWith( ".vm" ) )
+        {
+            InputStream in = getClass().getClassLoader().getResourceAsStream( DefaultSiteRenderer.RESOURCE_DIR
+                + "/" + name );
+            if ( in != null )
+            {
+                try
+                {
+                    return new Page( contentType, IOUtil.toByteArray( in ) );
+                }
+                finally
+                {
+                    IOUtil.close( in );
+                }
+            }
+        }
+
+        File skinJarFile = siteRenderingContext.getSkinJarFile();
+        if ( skinJarFile != null && !name.startsWith( "META-INF/" ) )
+        {
+            SkinArchive skin = SkinArchive.get( skinJarFile );
+            ZipEntry entry = skin.getEntry( name );
+
+            if ( entry != null && !entry.isDirectory() )
+            {
+                ZipFile zipFile = skin.openZipFile();
+                try
+                {
+                    return new Page( contentType, IOUtil.toByteArray( zipFile.getInputStream( entry ) ) );
+                }
+                finally
+                {
+                    zipFile.close();
+                }
+            }
+        }
+
+        for ( int i = last - 1; i >= 0; i-- )
+        {
+            Page page = getSiteResource( siteDirectories.get( i ), name, contentType );
+            if ( page != null )
+            {
+                return page;
+            }
+        }
+
+        if ( "css/site.css".equals( name ) )
+        {
+            // DOXIA-86: copyResources() creates it when nothing provides it
+            return new Page( contentType, "/* You can override this file with your own styles */".getBytes(
+                siteRenderingContext.getOutputEncoding() ) );
+        }
+
+        return null;
+    }
+
+    /**
+     * @return the resource of a site directory, or <code>null</code> if none or if the name resolves outside of
+     *      its resources directory.
+     */
+    private static Page getSiteResource( File siteDirectory, String name, String contentType )
+        throws IOException
+    {
+        File resources = new File( siteDirectory, "resources" ).getCanonicalFile();
+        File file = new File( resources, name ).getCanonicalFile();
+
+        if ( !file.getPath().startsWith( resources.getPath() + File.separator ) || !file.isFile() )
+        {
+            return null;
+        }
+
+        InputStream in = new FileInputStream( file );
+        try
+        {
+            return new Page( contentType, IOUtil.toByteArray( in ) );
+        }
+        finally
+        {
+            IOUtil.close( in );
+        }
+    }
+
+    private static String getContentType( String name )
+    {
+        String contentType = CONTENT_TYPES.get( FileUtils.getExtension( name ).toLowerCase( Locale.ENGLISH ) );
+
+        return ( contentType == null ) ? "application/octet-stream" : contentType;
+    }
+
+    private static String decode( String uri )
+        throws UnsupportedEncodingException
+    {
+        int query = uri.indexOf( '?' );
+        if ( query >= 0 )
+        {
+            uri = uri.substring( 0, query );
+        }
+
+        // a '+' is not a space in a path
+        return URLDecoder.decode( StringUtils.replace( uri, "+", "%2B" ), "UTF-8" );
+    }
+
+    private static String readLine( InputStream in )
+        throws IOException
+    {
+        StringBuilder line = new StringBuilder();
+
+        for ( int c = in.read(); c != '\n'; c = in.read() )
+        {
+            if ( c < 0 )
+            {
+                return ( line.length() == 0 ) ? null : line.toString();
+            }
+
+            if ( c != '\r' )
+            {
+                if ( line.length() == MAX_LINE_LENGTH )
+                {
+                    throw new IOException( "Request line too long" );
+                }
+
+                line.append( (char) c );
+            }
+        }
+
+        return line.toString();
+    }
+
+    private static void writeError( OutputStream out, int status, String reason, String message )
+        throws IOException
+    {
+        String content = status + " " + reason + ": " + message;
+
+        write( out, status, reason, "text/plain; charset=UTF-8", content.getBytes( "UTF-8" ), false );
+    }
+
+    private static void write( OutputStream out, int status, String reason, String contentType, byte[] content,
+                               boolean headOnly )
+        throws IOException
+    {
+        StringBuilder headers = new StringBuilder();
+        headers.append( "HTTP/1.1 " ).append( status ).append( ' ' ).append( reason ).append( "\r\n" );
+        headers.append( "Content-Type: " ).append( contentType ).append( "\r\n" );
+        headers.append( "Content-Length: " ).append( content.length ).append( "\r\n" );
+        headers.append( "Cache-Control: no-cache\r\n" );
+        headers.append( "Connection: close\r\n" );
+        headers.append( "\r\n" );
+
+        out.write( headers.toString().getBytes( "ISO-8859-1" ) );
+        if ( !headOnly )
+        {
+            out.write( content );
+        }
+        out.flush();
+    }
+
+    /**
+     * Content served for a path.
+     */
+    static final class Page
+    {
+        final String contentType;
+
+        final byte[] content;
+
+        /** The input digests of a rendered page, <code>null</code> if the page is not cached. */
+        byte[][] inputs;
+
+        /** The names of the files included by the source of a rendered page. */
+        List<String> includes;
+
+        Page( String contentType, byte[] content )
+        {
+            this.contentType = contentType;
+            this.content = content;
+        }
+    }
+}
@@ -26,6 +26,8 @@ import java.util.Date;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.apache.maven.doxia.site.decoration.DecorationModel;
 import org.codehaus.plexus.util.ReaderFactory;
@@ -71,6 +73,34 @@ public class SiteRenderingContext
 
     private Date publishDate;
 
+    private int threadCount = 1;
+
+    private boolean renderingManifest;
+
+    private boolean streamingBody;
+
+    private File cacheDirectory;
+
+    private boolean writeIfChanged;
+
+    private boolean gzipSidecars;
+
+    private boolean timingReport;
+
+    private int spillThreshold;
+
+    private final List<RenderListener> renderListeners = new CopyOnWriteArrayList<RenderListener>();
+
+    private final TemplateCache templateCache = new TemplateCache();
+
+    private volatile VelocityBaseContext velocityBaseContext;
+
+    private volatile ValidationCache validationCache;
+
+    private volatile String forcedRendering;
+
+    private final Map<String, List<String>> includedNames = new ConcurrentHashMap<String, List<String>>();
+
     /**
      * If input documents should be validated before parsing.
      * By default no validation is performed.
@@ -395,5 +425,331 @@ public class SiteRenderingContext
     {
         this.publishDate = publishDate;
     }
-    
+
+    /**
+     * <p>Getter for the field <code>threadCount</code>.</p>
+     *
+     * @return the number of threads used to render documents, <code>1</code> (the default) means sequential.
+     * @since 1.4
+     */
+    public int getThreadCount()
+    {
+        return threadCount;
+    }
+
+    /**
+     * <p>Set the number of threads used to render documents in parallel.</p>
+     * Values lower than <code>1</code> are ignored and fall back to sequential rendering.
+     *
+     * @param threadCount the number of rendering threads.
+     * @since 1.4
+     */
+    public void setThreadCount( int threadCount )
+    {
+        this.threadCount = Math.max( 1, threadCount );
+    }
+
+    /**
+     * If a manifest of content digests should be kept in the output directory to detect unchanged documents,
+     * instead of comparing file timestamps. By default timestamps are used.
+     *
+     * @return true if the rendering manifest is used.
+     * @since 1.4
+     */
+    public boolean isRenderingManifest()
+    {
+        return renderingManifest;
+    }
+
+    /**
+     * Switch on/off the rendering manifest. Content digests, unlike file timestamps, survive fresh checkouts
+     * of the sources.
+     *
+     * @param renderingManifest true to detect unchanged documents with content digests.
+     * @since 1.4
+     */
+    public void setRenderingManifest( boolean renderingManifest )
+    {
+        this.renderingManifest = renderingManifest;
+    }
+
+    /**
+     * If the body content should be streamed to the output instead of being given to the template as a
+     * <code>String</code>, which keeps large documents from being copied in memory. In this mode,
+     * <code>$bodyContent</code> can only be rendered as is: any method call on it does not see the body.
+     * By default the body is a <code>String</code>.
+     *
+     * @return <code>true</code> if the body content is streamed.
+     * @since 1.4
+     */
+    public boolean isStreamingBody()
+    {
+        return streamingBody;
+    }
+
+    /**
+     * <p>Setter for the field <code>streamingBody</code>.</p>
+     *
+     * @param streamingBody <code>true</code> to stream the body content to the output.
+     * @since 1.4
+     */
+    public void setStreamingBody( boolean streamingBody )
+    {
+        this.streamingBody = streamingBody;
+    }
+
+    /**
+     * <p>Getter for the field <code>spillThreshold</code>.</p>
+     *
+     * @return the number of characters above which the content of a document moves to a temporary file, or
+     * <code>0</code> if contents are kept in memory.
+     * @since 1.4
+     */
+    public int getSpillThreshold()
+    {
+        return spillThreshold;
+    }
+
+    /**
+     * Set the number of characters above which the head, body or Velocity processed source of a document moves
+     * to a temporary file, deleted once the document is rendered. Along with the streaming of the body, this
+     * keeps the memory taken by the rendering of a document independent of its size. By default contents are
+     * kept in memory.
+     *
+     * @param spillThreshold the threshold, in characters, <code>0</code> to keep contents in memory.
+     * @see #setStreamingBody(boolean)
+     * @since 1.4
+     */
+    public void setSpillThreshold( int spillThreshold )
+    {
+        this.spillThreshold = spillThreshold;
+    }
+
+    /**
+     * If documents should be compared to their output file while rendered, the file being replaced only if its
+     * content changed. By default output files are always written.
+     *
+     * @return <code>true</code> if output files are written only when their content changes.
+     * @since 1.4
+     */
+    public boolean isWriteIfChanged()
+    {
+        return writeIfChanged;
+    }
+
+    /**
+     * Switch on/off the write-if-changed mode. Output files with unchanged content keep their last modification
+     * date, so that a synchronization with a web server only transfers the changed pages. Since such a file stays
+     * older than its source, this mode works best with the rendering manifest.
+     *
+     * @param writeIfChanged <code>true</code> to write output files only when their content changes.
+     * @see #setRenderingManifest(boolean)
+     * @since 1.4
+     */
+    public void setWriteIfChanged( boolean writeIfChanged )
+    {
+        this.writeIfChanged = writeIfChanged;
+    }
+
+    /**
+     * If a gzip compressed copy of every text output file, like <code>index.html.gz</code>, should be written
+     * next to it, for web servers sending precompressed files. By default no copy is written.
+     *
+     * @return <code>true</code> if gzip sidecars are written.
+     * @since 1.4
+     */
+    public boolean isGzipSidecars()
+    {
+        return gzipSidecars;
+    }
+
+    /**
+     * Switch on/off gzip sidecars. Sidecars are compressed in parallel with the rendering, and only written again
+     * when their file changed.
+     *
+     * @param gzipSidecars <code>true</code> to write gzip sidecars.
+     * @since 1.4
+     */
+    public void setGzipSidecars( boolean gzipSidecars )
+    {
+        this.gzipSidecars = gzipSidecars;
+    }
+
+    /**
+     * If the rendering should log a timing report when it ends: the slowest documents and a histogram of the
+     * times of each rendering phase. By default no report is logged.
+     *
+     * @return <code>true</code> if a timing report is logged.
+     * @see RenderingTimeReport
+     * @since 1.4
+     */
+    public boolean isTimingReport()
+    {
+        return timingReport;
+    }
+
+    /**
+     * Switch on/off the timing report, logged at info level by the renderer at the end of each rendering.
+     *
+     * @param timingReport <code>true</code> to log a timing report.
+     * @since 1.4
+     */
+    public void setTimingReport( boolean timingReport )
+    {
+        this.timingReport = timingReport;
+    }
+
+    /**
+     * Add a listener receiving the progress of the rendering, with the time taken by each phase of each document.
+     *
+     * @param listener the listener, not null.
+     * @see RenderingTimeReport
+     * @since 1.4
+     */
+    public void addRenderListener( RenderListener listener )
+    {
+        renderListeners.add( listener );
+    }
+
+    /**
+     * Remove a listener added by {@link #addRenderListener(RenderListener)}.
+     *
+     * @param listener the listener.
+     * @since 1.4
+     */
+    public void removeRenderListener( RenderListener listener )
+    {
+        renderListeners.remove( listener );
+    }
+
+    /**
+     * <p>Getter for the field <code>renderListeners</code>.</p>
+     *
+     * @return the listeners receiving the progress of the rendering, not modifiable.
+     * @since 1.4
+     */
+    public List<RenderListener> getRenderListeners()
+    {
+        return Collections.unmodifiableList( renderListeners );
+    }
+
+    /**
+     * <p>Getter for the field <code>cacheDirectory</code>.</p>
+     *
+     * @return the directory where the renderer keeps data between builds, or <code>null</code> if none.
+     * @since 1.4
+     */
+    public File getCacheDirectory()
+    {
+        return cacheDirectory;
+    }
+
+    /**
+     * Set the directory where the renderer keeps data between builds, like the content of source directories
+     * so that unchanged directories are not listed again, or the results of validations so that unchanged
+     * documents are not validated again. By default nothing is kept.
+     *
+     * @param cacheDirectory the cache directory, <code>null</code> to keep nothing.
+     * @since 1.4
+     */
+    public void setCacheDirectory( File cacheDirectory )
+    {
+        this.cacheDirectory = cacheDirectory;
+    }
+
+    /**
+     * @return the cache holding the compiled template of this context.
+     * @since 1.4
+     */
+    TemplateCache getTemplateCache()
+    {
+        return templateCache;
+    }
+
+    /**
+     * <p>Number of documents that reused the compiled template.</p>
+     *
+     * @return the template cache hits.
+     * @since 1.4
+     */
+    public long getTemplateCacheHits()
+    {
+        return templateCache.getHits();
+    }
+
+    /**
+     * <p>Number of times the template had to be looked up and compiled.</p>
+     *
+     * @return the template cache misses.
+     * @since 1.4
+     */
+    public long getTemplateCacheMisses()
+    {
+        return templateCache.getMisses();
+    }
+
+    /**
+     * @return the Velocity context part shared by all documents, or <code>null</code> if not built yet.
+     * @since 1.4
+     */
+    VelocityBaseContext getVelocityBaseContext()
+    {
+        return velocityBaseContext;
+    }
+
+    /**
+     * @param velocityBaseContext the Velocity context part shared by all documents, <code>null</code> to rebuild it.
+     * @since 1.4
+     */
+    void setVelocityBaseContext( VelocityBaseContext velocityBaseContext )
+    {
+        this.velocityBaseContext = velocityBaseContext;
+    }
+
+    /**
+     * @return the results of previous validations, or <code>null</code> if validations are not cached.
+     * @since 1.4
+     */
+    ValidationCache getValidationCache()
+    {
+        return validationCache;
+    }
+
+    /**
+     * @param validationCache the results of previous validations, <code>null</code> to validate every document.
+     * @since 1.4
+     */
+    void setValidationCache( ValidationCache validationCache )
+    {
+        this.validationCache = validationCache;
+    }
+
+    /**
+     * @return why every document has to be rendered regardless of its previous output, or <code>null</code>.
+     * @since 1.4
+     */
+    String getForcedRendering()
+    {
+        return forcedRendering;
+    }
+
+    /**
+     * @param forcedRendering why every document has to be rendered regardless of its previous output, like a
+     *      change the renderer cannot detect by itself, or <code>null</code> to only render changed documents.
+     * @since 1.4
+     */
+    void setForcedRendering( String forcedRendering )
+    {
+        this.forcedRendering = forcedRendering;
+    }
+
+    /**
+     * @return the names of the files included by the last rendering of each document, relative to the directory
+     *      of its source, by output name.
+     * @since 1.4
+     */
+    Map<String, List<String>> getIncludedNames()
+    {
+        return includedNames;
+    }
 }
@@ -0,0 +1,519 @@
+package org.apache.maven.doxia.siterenderer;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.maven.doxia.sink.render.RenderingContext;
+import org.codehaus.plexus.logging.AbstractLogEnabled;
+import org.codehaus.plexus.logging.Logger;
+import org.codehaus.plexus.logging.console.ConsoleLogger;
+
+/**
+ * Keeps a site rendered while its sources are edited: after an initial rendering, the site directories,
+ * module directories, resources and template file are polled, and only what changed is rendered again.
+ * The site rendering context stays the same, so the document list, skin and compiled template stay warm
+ * between two renderings.
+ * <p>
+ * A new or deleted document is detected through the last modification date of its directory, an edited
+ * document or resource through its own last modification date and size, taken in the same walk as the
+ * directories. A document is also rendered again when a file it included with <code>#parse</code> or
+ * <code>#include</code> changed. The output of a deleted document is deleted. A change of the decoration model
+ * or of the skin jar requires a new site rendering context, ie a new watcher.
+ * </p>
+ *
+ * @version $Id$
+ * @since 1.4
+ */
+public class SiteRenderingWatcher
+    extends AbstractLogEnabled
+    implements Runnable
+{
+    /** The default delay between two checks, in milliseconds. */
+    public static final long DEFAULT_INTERVAL = 1000;
+
+    private final DefaultSiteRenderer renderer;
+
+    private final SiteRenderingContext siteRenderingContext;
+
+    private final File outputDirectory;
+
+    private long interval = DEFAULT_INTERVAL;
+
+    private volatile boolean stopped;
+
+    private Map<String, DocumentRenderer> documents;
+
+    private Map<File, String> directories;
+
+    /** The stamps of the files of the walked directories, including the document sources. */
+    private Map<File, String> sources;
+
+    private Map<File, String> resources;
+
+    private File templateFile;
+
+    private String template;
+
+    /**
+     * Construct a new watcher, logging with the logger of the renderer. Nothing is rendered before {@link #start()}.
+     *
+     * @param renderer the renderer.
+     * @param siteRenderingContext the site rendering context, kept for the whole life of the watcher.
+     * @param outputDirectory the output directory.
+     */
+    public SiteRenderingWatcher( DefaultSiteRenderer renderer, SiteRenderingContext siteRenderingContext,
+                                 File outputDirectory )
+    {
+        this( renderer, siteRenderingContext, outputDirectory, renderer.getRendererLogger() );
+    }
+
+    /**
+     * Construct a new watcher. Nothing is rendered before {@link #start()}.
+     *
+     * @param renderer the renderer.
+     * @param siteRenderingContext the site rendering context, kept for the whole life of the watcher.
+     * @param outputDirectory the output directory.
+     * @param logger the logger, <code>null</code> to log to the console.
+     */
+    public SiteRenderingWatcher( DefaultSiteRenderer renderer, SiteRenderingContext siteRenderingContext,
+                                 File outputDirectory, Logger logger )
+    {
+        this.renderer = renderer;
+        this.siteRenderingContext = siteRenderingContext;
+        this.outputDirectory = outputDirectory;
+
+        enableLogging( ( logger == null ) ? new ConsoleLogger( Logger.LEVEL_INFO, "site-watcher" ) : logger );
+    }
+
+    /**
+     * @param interval the delay between two checks, in milliseconds.
+     */
+    public void setInterval( long interval )
+    {
+        this.interval = interval;
+    }
+
+    /**
+     * Render the whole site, and take the initial state of its sources.
+     *
+     * @throws RendererException if a document cannot be rendered.
+     * @throws IOException if an output cannot be written.
+     */
+    public void start()
+        throws RendererException, IOException
+    {
+        long start = System.currentTimeMillis();
+
+        templateFile = getTemplateFile();
+        template = stamp( templateFile );
+
+        documents = renderer.locateDocumentFiles( siteRenderingContext );
+        directories = new HashMap<File, String>();
+        sources = new HashMap<File, String>();
+        stampDirectories( directories, sources );
+        stampOtherSources( sources );
+        resources = stampResources();
+
+        renderer.render( documents.values(), siteRenderingContext, outputDirectory );
+
+        // the included files are only known once rendered
+        stampOtherSources( sources );
+
+        getLogger().info( "Rendered " + documents.size() + " documents in " + ( System.currentTimeMillis() - start )
+            + " ms, watching for changes" );
+    }
+
+    /**
+     * Check for changes until {@link #stop()} is called. Rendering errors, including runtime exceptions thrown
+     * by a parser or a template, are logged: the next change may fix them.
+     */
+    public void run()
+    {
+        while ( !stopped )
+        {
+            try
+            {
+                Thread.sleep( interval );
+            }
+            catch ( InterruptedException e )
+            {
+                Thread.currentThread().interrupt();
+
+                return;
+            }
+
+            try
+            {
+                check();
+            }
+            catch ( RendererException e )
+            {
+                getLogger().error( "Error while rendering: " + e.getMessage(), e );
+            }
+            catch ( IOException e )
+            {
+                getLogger().error( "Error while rendering: " + e.getMessage(), e );
+            }
+            catch ( RuntimeException e )
+            {
+                getLogger().error( "Error while rendering: " + e.getMessage(), e );
+            }
+        }
+    }
+
+    /**
+     * Stop checking for changes, after the current check if any.
+     */
+    public void stop()
+    {
+        stopped = true;
+    }
+
+    /**
+     * Render what changed since the last check.
+     *
+     * @return the number of documents rendered.
+     * @throws RendererException if a document cannot be rendered.
+     * @throws IOException if an output cannot be written.
+     */
+    public int check()
+        throws RendererException, IOException
+    {
+        long start = System.currentTimeMillis();
+
+        Map<File, String> currentDirectories = new HashMap<File, String>();
+        Map<File, String> currentSources = new HashMap<File, String>();
+        stampDirectories( currentDirectories, currentSources );
+
+        if ( !currentDirectories.equals( directories ) )
+        {
+            Map<String, DocumentRenderer> located = renderer.locateDocumentFiles( siteRenderingContext );
+            deleteOutputs( located );
+            documents = located;
+            directories = currentDirectories;
+        }
+
+        stampOtherSources( currentSources );
+
+        Collection<DocumentRenderer> changed;
+        String reason;
+
+        String currentTemplate = stamp( templateFile );
+
+        if ( currentTemplate != null && !currentTemplate.equals( template ) )
+        {
+            // Velocity does not cache templates, its resource loaders being configured without cache: the
+            // template is read again once the renderer cache is cleared
+            siteRenderingContext.getTemplateCache().clear();
+
+            changed = documents.values();
+            reason = "template changed";
+        }
+        else
+        {
+            changed = new ArrayList<DocumentRenderer>();
+            for ( DocumentRenderer document : documents.values() )
+            {
+                if ( isChanged( getSource( document ), currentSources ) )
+                {
+                    changed.add( document );
+
+                    continue;
+                }
+
+                for ( File included : getIncludedFiles( document ) )
+                {
+                    if ( isChanged( included, currentSources ) )
+                    {
+                        changed.add( document );
+
+                        break;
+                    }
+                }
+            }
+            reason = "source changed";
+        }
+
+        template = currentTemplate;
+        sources = currentSources;
+
+        if ( !changed.isEmpty() )
+        {
+            // timestamps may be too coarse to see an edit right after the previous rendering
+            siteRenderingContext.setForcedRendering( reason );
+            try
+            {
+                renderDocuments( changed );
+            }
+            finally
+            {
+                siteRenderingContext.setForcedRendering( null );
+            }
+
+            // files newly included by the rendered documents
+            stampOtherSources( sources );
+        }
+
+        Map<File, String> currentResources = stampResources();
+        boolean resourcesChanged = !currentResources.equals( resources );
+        resources = currentResources;
+
+        if ( resourcesChanged )
+        {
+            for ( File siteDirectory : siteRenderingContext.getSiteDirectories() )
+            {
+                renderer.copyResources( siteRenderingContext, new File( siteDirectory, "resources" ),
+                                        outputDirectory );
+            }
+        }
+
+        if ( !changed.isEmpty() || resourcesChanged )
+        {
+            getLogger().info( ( resourcesChanged ? "Copied resources, rendered " : "Rendered " ) + changed.size()
+                + " documents (" + reason + ") in " + ( System.currentTimeMillis() - start ) + " ms" );
+        }
+
+        return changed.size();
+    }
+
+    private void renderDocuments( Collection<DocumentRenderer> changed )
+        throws RendererException, IOException
+    {
+        // resources are copied only when they change
+        renderer.renderDocuments( changed, siteRenderingContext, outputDirectory );
+    }
+
+    /**
+     * Delete the output of the documents that are no longer located, and its gzip sidecar if any.
+     *
+     * @param located the documents located now.
+     */
+    private void deleteOutputs( Map<String, DocumentRenderer> located )
+    {
+        for ( Map.Entry<String, DocumentRenderer> entry : documents.entrySet() )
+        {
+            if ( !located.containsKey( entry.getKey() ) )
+            {
+                File output = new File( outputDirectory, entry.getValue().getOutputName() );
+
+                if ( output.delete() )
+                {
+                    getLogger().info( "Deleted " + output + " (source deleted)" );
+                }
+
+                new File( output.getPath() + SidecarCompressor.SUFFIX ).delete();
+            }
+        }
+    }
+
+    /**
+     * @return the template file, or <code>null</code> if the template is not a file, for instance in a jar.
+     */
+    private File getTemplateFile()
+    {
+        ClassLoader classLoader = siteRenderingContext.getTemplateClassLoader();
+        if ( classLoader == null )
+        {
+            classLoader = Thread.currentThread().getContextClassLoader();
+        }
+
+        URL url = ( classLoader == null ) ? null : classLoader.getResource( siteRenderingContext.getTemplateName() );
+        if ( url == null || !"file".equals( url.getProtocol() ) )
+        {
+            return null;
+        }
+
+        try
+        {
+            return new File( url.toURI() );
+        }
+        catch ( URISyntaxException e )
+        {
+            return null;
+        }
+    }
+
+    /**
+     * @return <code>true</code> if the file changed, appeared or disappeared since the previous check.
+     */
+    private boolean isChanged( File file, Map<File, String> currentSources )
+    {
+        String stamp = currentSources.get( file );
+
+        return stamp == null || !stamp.equals( sources.get( file ) );
+    }
+
+    /**
+     * @return the files included by the last rendering of the document, empty if it was not rendered.
+     */
+    private List<File> getIncludedFiles( DocumentRenderer document )
+    {
+        String outputName = document.getOutputName().replace( '\\', '/' );
+
+        List<String> names = siteRenderingContext.getIncludedNames().get( outputName );
+        if ( names == null || names.isEmpty() )
+        {
+            return Collections.emptyList();
+        }
+
+        File source = getSource( document );
+
+        List<File> files = new ArrayList<File>( names.size() );
+        for ( String name : names )
+        {
+            files.add( DocumentResourceLoader.getIncludedFile( source, name ) );
+        }
+
+        return files;
+    }
+
+    private static File getSource( DocumentRenderer document )
+    {
+        RenderingContext renderingContext = document.getRenderingContext();
+
+        return new File( renderingContext.getBasedir(), renderingContext.getInputName() );
+    }
+
+    private static String stamp( File file )
+    {
+        return ( file == null ) ? null : file.lastModified() + ":" + file.length();
+    }
+
+    /**
+     * Stamp the site directories, module directories and their subdirectories, except resources, and the files
+     * they contain, in a single walk.
+     *
+     * @param directories the stamps of the directories, to fill.
+     * @param files the stamps of the files, to fill.
+     */
+    private void stampDirectories( Map<File, String> directories, Map<File, String> files )
+    {
+        for ( File siteDirectory : siteRenderingContext.getSiteDirectories() )
+        {
+            directories.put( siteDirectory, stamp( siteDirectory ) );
+
+            File[] children = siteDirectory.listFiles();
+            if ( children != null )
+            {
+                for ( File child : children )
+                {
+                    if ( child.isDirectory() && !"resources".equals( child.getName() ) )
+                    {
+                        stampDirectories( child, directories, files );
+                    }
+                }
+            }
+        }
+
+        for ( ModuleReference module : siteRenderingContext.getModules() )
+        {
+            stampDirectories( module.getBasedir(), directories, files );
+        }
+    }
+
+    private static void stampDirectories( File dir, Map<File, String> directories, Map<File, String> files )
+    {
+        directories.put( dir, stamp( dir ) );
+
+        File[] children = dir.listFiles();
+        if ( children != null )
+        {
+            for ( File child : children )
+            {
+                if ( child.isDirectory() )
+                {
+                    stampDirectories( child, directories, files );
+                }
+                else
+                {
+                    files.put( child, stamp( child ) );
+                }
+            }
+        }
+    }
+
+    /**
+     * Stamp the sources of the documents and the files they included outside of the walked directories, if any.
+     *
+     * @param files the stamps of the files, to complete.
+     */
+    private void stampOtherSources( Map<File, String> files )
+    {
+        for ( DocumentRenderer document : documents.values() )
+        {
+            File source = getSource( document );
+
+            if ( !files.containsKey( source ) )
+            {
+                files.put( source, stamp( source ) );
+            }
+
+            for ( File included : getIncludedFiles( document ) )
+            {
+                if ( !files.containsKey( included ) )
+                {
+                    files.put( included, stamp( included ) );
+                }
+            }
+        }
+    }
+
+    private Map<File, String> stampResources()
+    {
+        Map<File, String> stamps = new HashMap<File, String>();
+
+        for ( File siteDirectory : siteRenderingContext.getSiteDirectories() )
+        {
+            List<File> dirs = new ArrayList<File>();
+            dirs.add( new File( siteDirectory, "resources" ) );
+
+            while ( !dirs.isEmpty() )
+            {
+                File[] children = dirs.remove( dirs.size() - 1 ).listFiles();
+                if ( children != null )
+                {
+                    for ( File child : children )
+                    {
+                        if ( child.isDirectory() )
+                        {
+                            dirs.add( child );
+                        }
+                        else
+                        {
+                            stamps.put( child, stamp( child ) );
+                        }
+                    }
+                }
+            }
+        }
+
+        return stamps;
+    }
+}
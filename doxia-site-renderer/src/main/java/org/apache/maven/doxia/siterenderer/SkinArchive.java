@@ -0,0 +1,307 @@
+package org.apache.maven.doxia.siterenderer;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+
+import org.codehaus.plexus.util.IOUtil;
+
+/**
+ * The index of a skin jar, shared by every site rendering context using the same skin in the JVM: in reactor
+ * builds, each module and each locale create a context for the same skin. The jar is read once, and read again
+ * only if its last modification date or size changed.
+ * <p>
+ * The registry keeps the {@link #MAX_SKINS} most recently used skins. An index replaced because its skin jar
+ * changed, or evicted because of the bound, may still be used by contexts created from it, in a watcher, a preview
+ * server or a parallel module rendering: its class loader is only closed when the last renderer that
+ * {@link #acquire() acquired} the index {@link #release() releases} it.
+ * </p>
+ *
+ * @version $Id$
+ * @since 1.4
+ */
+class SkinArchive
+{
+    /** The maximum number of skins kept in the registry. */
+    static final int MAX_SKINS = 16;
+
+    private static final Map<String, SkinArchive> REGISTRY = new LinkedHashMap<String, SkinArchive>( 16, 0.75f, true )
+    {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry( Map.Entry<String, SkinArchive> eldest )
+        {
+            return size() > MAX_SKINS;
+        }
+    };
+
+    private final File file;
+
+    private final long lastModified;
+
+    private final long length;
+
+    private final List<ZipEntry> entries;
+
+    private final Map<String, ZipEntry> entriesByName;
+
+    private final boolean template;
+
+    private final byte[] metaInfDigest;
+
+    private URLClassLoader classLoader;
+
+    /** The number of renderers using the class loader of this index. */
+    private int owners;
+
+    private SkinArchive( File file, long lastModified, long length, List<ZipEntry> entries, boolean template,
+                         byte[] metaInfDigest )
+    {
+        this.file = file;
+        this.lastModified = lastModified;
+        this.length = length;
+        this.entries = entries;
+        this.entriesByName = new HashMap<String, ZipEntry>( entries.size() * 2 );
+        for ( ZipEntry entry : entries )
+        {
+            entriesByName.put( entry.getName(), entry );
+        }
+        this.template = template;
+        this.metaInfDigest = metaInfDigest;
+    }
+
+    /**
+     * Get the index of a skin jar, reading the jar only if it is not known yet or if it changed.
+     *
+     * @param skinFile the skin jar.
+     * @return the skin index, never null.
+     * @throws IOException if the skin jar cannot be read.
+     */
+    static SkinArchive get( File skinFile )
+        throws IOException
+    {
+        if ( skinFile == null )
+        {
+            throw new IOException( "Error opening ZipFile: null" );
+        }
+
+        String key = skinFile.getAbsolutePath();
+
+        synchronized ( REGISTRY )
+        {
+            SkinArchive skin = REGISTRY.get( key );
+
+            if ( skin == null || skin.lastModified != skinFile.lastModified() || skin.length != skinFile.length() )
+            {
+                skin = load( skinFile );
+
+                REGISTRY.put( key, skin );
+            }
+
+            return skin;
+        }
+    }
+
+    private static SkinArchive load( File skinFile )
+        throws IOException
+    {
+        long lastModified = skinFile.lastModified();
+        long length = skinFile.length();
+
+        List<ZipEntry> entries = new ArrayList<ZipEntry>();
+        boolean template = false;
+        MessageDigest digest = RenderingManifest.newDigest();
+
+        ZipFile zipFile = open( skinFile );
+        try
+        {
+            for ( Enumeration<? extends ZipEntry> e = zipFile.entries(); e.hasMoreElements(); )
+            {
+                ZipEntry entry = e.nextElement();
+
+                entries.add( entry );
+
+                if ( entry.getName().startsWith( "META-INF/" ) && !entry.isDirectory() )
+                {
+                    template |= DefaultSiteRenderer.SKIN_TEMPLATE_LOCATION.equals( entry.getName() );
+
+                    RenderingManifest.update( digest, entry.getName() );
+
+                    InputStream in = zipFile.getInputStream( entry );
+                    try
+                    {
+                        RenderingManifest.update( digest, in );
+                    }
+                    finally
+                    {
+                        IOUtil.close( in );
+                    }
+                }
+            }
+        }
+        finally
+        {
+            try
+            {
+                zipFile.close();
+            }
+            catch ( IOException e )
+            {
+                // ignore
+            }
+        }
+
+        return new SkinArchive( skinFile, lastModified, length, Collections.unmodifiableList( entries ), template,
+                                digest.digest() );
+    }
+
+    private static ZipFile open( File file )
+        throws IOException
+    {
+        try
+        {
+            // TODO: plexus-archiver, if it could do the excludes
+            return new ZipFile( file );
+        }
+        catch ( ZipException ex )
+        {
+            IOException ioe = new IOException( "Error opening ZipFile: " + file.getAbsolutePath() );
+            ioe.initCause( ex );
+            throw ioe;
+        }
+    }
+
+    /**
+     * @return a new zip file on the skin jar, to read entries content. The caller has to close it.
+     * @throws IOException if the skin jar cannot be opened.
+     */
+    ZipFile openZipFile()
+        throws IOException
+    {
+        return open( file );
+    }
+
+    /**
+     * @return the entries of the skin jar, in jar order.
+     */
+    List<ZipEntry> getEntries()
+    {
+        return entries;
+    }
+
+    /**
+     * @param name the entry name.
+     * @return the entry with this name, or <code>null</code> if the skin jar has none.
+     */
+    ZipEntry getEntry( String name )
+    {
+        return entriesByName.get( name );
+    }
+
+    /**
+     * @return <code>true</code> if the skin provides its own template.
+     */
+    boolean hasTemplate()
+    {
+        return template;
+    }
+
+    /**
+     * @return the digest of the names and content of every <code>META-INF/</code> entry, ie of the template
+     *      and anything it may include.
+     */
+    byte[] getMetaInfDigest()
+    {
+        return metaInfDigest;
+    }
+
+    /**
+     * @return the class loader loading the template from the skin jar, shared by every context using this skin.
+     * @throws IOException if the skin jar path cannot be converted to an URL.
+     */
+    synchronized ClassLoader getClassLoader()
+        throws IOException
+    {
+        if ( classLoader == null )
+        {
+            classLoader = new URLClassLoader( new URL[] { file.toURI().toURL() } );
+        }
+
+        return classLoader;
+    }
+
+    /**
+     * Record a renderer using the class loader of this index, until it {@link #release() releases} it.
+     */
+    synchronized void acquire()
+    {
+        owners++;
+    }
+
+    /**
+     * Release the class loader of this index for a renderer which {@link #acquire() acquired} it, closing the class
+     * loader when no other renderer uses it. A renderer still using the index afterwards gets a new class loader.
+     */
+    synchronized void release()
+    {
+        if ( owners > 0 && --owners == 0 )
+        {
+            close();
+        }
+    }
+
+    /**
+     * Close the class loader of this index, if any, releasing the jar it keeps open. The class loader can only be
+     * closed on a Java 7 or newer runtime, where it is {@link Closeable}.
+     */
+    synchronized void close()
+    {
+        if ( classLoader instanceof Closeable )
+        {
+            try
+            {
+                ( (Closeable) classLoader ).close();
+            }
+            catch ( IOException e )
+            {
+                // ignore
+            }
+        }
+
+        classLoader = null;
+    }
+}
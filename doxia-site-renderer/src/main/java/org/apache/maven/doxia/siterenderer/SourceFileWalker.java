@@ -0,0 +1,226 @@
+package org.apache.maven.doxia.siterenderer;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.codehaus.plexus.util.DirectoryScanner;
+import org.codehaus.plexus.util.SelectorUtils;
+import org.codehaus.plexus.util.StringUtils;
+
+/**
+ * Lists the candidate source documents of a module directory in a single walk, giving the same result as
+ * <code>FileUtils.getFileNames( basedir, "**&#47;*.*", excludes, false )</code>: the files with a dot in their
+ * name, except the default excludes, relative to the base directory and in the same order. Module excludes
+ * are applied afterwards, so that the walk of a directory can be shared by every module using it.
+ *
+ * @version $Id$
+ * @since 1.4
+ */
+class SourceFileWalker
+{
+    private static final String[] DEFAULT_EXCLUDES = normalizePatterns( DirectoryScanner.DEFAULTEXCLUDES );
+
+    /**
+     * The names of the directories whose content is entirely excluded by a default exclude like
+     * <code>**&#47;.svn&#47;**</code>: they are not walked at all.
+     */
+    private static final Set<String> EXCLUDED_DIRECTORY_NAMES = new HashSet<String>();
+
+    static
+    {
+        for ( String pattern : DirectoryScanner.DEFAULTEXCLUDES )
+        {
+            if ( pattern.startsWith( "**/" ) && pattern.endsWith( "/**" ) && pattern.length() > 6 )
+            {
+                String name = pattern.substring( 3, pattern.length() - 3 );
+
+                if ( name.indexOf( '*' ) < 0 && name.indexOf( '?' ) < 0 && name.indexOf( '/' ) < 0 )
+                {
+                    EXCLUDED_DIRECTORY_NAMES.add( name );
+                }
+            }
+        }
+    }
+
+    /**
+     * Walk a module directory.
+     *
+     * @param basedir the module directory.
+     * @return the paths of the candidate documents, relative to the module directory, never null.
+     */
+    List<String> walk( File basedir )
+    {
+        List<String> files = new ArrayList<String>();
+
+        walk( basedir, "", files );
+
+        return files;
+    }
+
+    private void walk( File dir, String prefix, List<String> files )
+    {
+        Listing listing = list( dir );
+
+        for ( int i = 0; i < listing.names.length; i++ )
+        {
+            String name = listing.names[i];
+            String path = prefix + name;
+
+            if ( listing.types[i] == Listing.DIRECTORY )
+            {
+                if ( !EXCLUDED_DIRECTORY_NAMES.contains( name ) )
+                {
+                    walk( new File( dir, name ), path + File.separator, files );
+                }
+            }
+            else if ( listing.types[i] == Listing.FILE && name.indexOf( '.' ) >= 0
+                && !isExcluded( path, DEFAULT_EXCLUDES ) )
+            {
+                files.add( path );
+            }
+        }
+    }
+
+    /**
+     * List the content of a directory.
+     *
+     * @param dir the directory.
+     * @return the files and directories it contains, empty if it cannot be listed.
+     */
+    Listing list( File dir )
+    {
+        String[] names = dir.list();
+
+        if ( names == null )
+        {
+            return Listing.EMPTY;
+        }
+
+        byte[] types = new byte[names.length];
+
+        for ( int i = 0; i < names.length; i++ )
+        {
+            File file = new File( dir, names[i] );
+
+            if ( file.isDirectory() )
+            {
+                types[i] = Listing.DIRECTORY;
+            }
+            else if ( file.isFile() )
+            {
+                types[i] = Listing.FILE;
+            }
+        }
+
+        return new Listing( names, types );
+    }
+
+    /**
+     * Remove excluded files from a walk result.
+     *
+     * @param files the paths returned by {@link #walk(File)}.
+     * @param excludes comma separated exclude patterns, may be null.
+     * @return the paths not matching any exclude pattern.
+     */
+    static List<String> exclude( List<String> files, String excludes )
+    {
+        if ( excludes == null )
+        {
+            return files;
+        }
+
+        String[] patterns = normalizePatterns( StringUtils.split( excludes, "," ) );
+        List<String> included = new ArrayList<String>( files.size() );
+
+        for ( String file : files )
+        {
+            if ( !isExcluded( file, patterns ) )
+            {
+                included.add( file );
+            }
+        }
+
+        return included;
+    }
+
+    private static boolean isExcluded( String path, String[] patterns )
+    {
+        for ( String pattern : patterns )
+        {
+            if ( SelectorUtils.matchPath( pattern, path, true ) )
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Normalize patterns like <code>DirectoryScanner</code> does.
+     */
+    private static String[] normalizePatterns( String[] patterns )
+    {
+        String[] normalized = new String[patterns.length];
+
+        for ( int i = 0; i < patterns.length; i++ )
+        {
+            String pattern = patterns[i].trim().replace( '/', File.separatorChar ).replace( '\\', File.separatorChar );
+
+            if ( pattern.endsWith( File.separator ) )
+            {
+                pattern += "**";
+            }
+
+            normalized[i] = pattern;
+        }
+
+        return normalized;
+    }
+
+    /**
+     * The content of a directory.
+     */
+    static final class Listing
+    {
+        static final byte OTHER = 0;
+
+        static final byte FILE = 1;
+
+        static final byte DIRECTORY = 2;
+
+        static final Listing EMPTY = new Listing( new String[0], new byte[0] );
+
+        final String[] names;
+
+        final byte[] types;
+
+        Listing( String[] names, byte[] types )
+        {
+            this.names = names;
+            this.types = types;
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package org.apache.maven.doxia.siterenderer;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.FilterWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+import org.apache.maven.doxia.siterenderer.sink.ContentBuffer;
+
+/**
+ * Streams the body content to the output where the template renders <code>$bodyContent</code>, and the head
+ * content where it renders <code>$headContent</code>.
+ * The template gets {@link #BODY_CONTENT} instead of the body: Velocity writes a reference by writing the
+ * <code>toString()</code> of its value, ie this very string instance, which this writer replaces with the
+ * buffered body chunks. No copy of the body is ever made as a single <code>String</code>.
+ *
+ * @version $Id$
+ * @since 1.4
+ */
+class StreamingBodyWriter
+    extends FilterWriter
+{
+    /** The value of <code>$bodyContent</code> when streaming, recognized by identity: never interned. */
+    static final String BODY_CONTENT = new String( "<!-- bodyContent -->" );
+
+    /** The value of <code>$headContent</code> when streaming, recognized by identity: never interned. */
+    static final String HEAD_CONTENT = new String( "<!-- headContent -->" );
+
+    private final ContentBuffer head;
+
+    private final ContentBuffer body;
+
+    /**
+     * @param out the output writer.
+     * @param head the head content to stream.
+     * @param body the body content to stream.
+     */
+    StreamingBodyWriter( Writer out, ContentBuffer head, ContentBuffer body )
+    {
+        super( out );
+
+        this.head = head;
+        this.body = body;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void write( String str )
+        throws IOException
+    {
+        if ( str == BODY_CONTENT )
+        {
+            body.writeTo( out );
+        }
+        else if ( str == HEAD_CONTENT )
+        {
+            head.writeTo( out );
+        }
+        else
+        {
+            out.write( str, 0, str.length() );
+        }
+    }
+}
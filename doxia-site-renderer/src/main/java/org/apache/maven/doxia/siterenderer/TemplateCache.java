@@ -0,0 +1,108 @@
+package org.apache.maven.doxia.siterenderer;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.velocity.Template;
+
+/**
+ * Holds the compiled Velocity template of a {@link SiteRenderingContext}, so that it is looked up and parsed
+ * once per rendering run instead of once per document. A compiled template can be merged concurrently.
+ * The cached template is dropped as soon as the template name or class loader of the context changes.
+ *
+ * @version $Id$
+ * @since 1.4
+ */
+class TemplateCache
+{
+    private String templateName;
+
+    private ClassLoader templateClassLoader;
+
+    private Template template;
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Get the cached template. Callers should synchronize on the cache between a miss and the following
+     * {@link #put(String, ClassLoader, Template)}, so that the template is compiled only once.
+     *
+     * @param name the template name.
+     * @param classLoader the template class loader, may be null.
+     * @return the compiled template, or <code>null</code> if it was not compiled yet for this name and class loader.
+     */
+    synchronized Template get( String name, ClassLoader classLoader )
+    {
+        if ( template != null && classLoader == templateClassLoader
+            && ( name == null ? templateName == null : name.equals( templateName ) ) )
+        {
+            hits.incrementAndGet();
+
+            return template;
+        }
+
+        misses.incrementAndGet();
+
+        return null;
+    }
+
+    /**
+     * Cache a compiled template.
+     *
+     * @param name the template name.
+     * @param classLoader the template class loader, may be null.
+     * @param compiled the compiled template.
+     */
+    synchronized void put( String name, ClassLoader classLoader, Template compiled )
+    {
+        this.templateName = name;
+        this.templateClassLoader = classLoader;
+        this.template = compiled;
+    }
+
+    /**
+     * Drop the cached template, for instance when the template source changed.
+     */
+    synchronized void clear()
+    {
+        this.templateName = null;
+        this.templateClassLoader = null;
+        this.template = null;
+    }
+
+    /**
+     * @return the number of lookups that found the compiled template.
+     */
+    long getHits()
+    {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of lookups that had to compile the template.
+     */
+    long getMisses()
+    {
+        return misses.get();
+    }
+}
@@ -0,0 +1,355 @@
+package org.apache.maven.doxia.siterenderer;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.maven.doxia.siterenderer.XmlSourceValidator.Entity;
+import org.apache.maven.doxia.siterenderer.XmlSourceValidator.ValidationResult;
+import org.apache.maven.doxia.siterenderer.sink.ContentBuffer;
+import org.codehaus.plexus.util.IOUtil;
+
+/**
+ * The results of previous validations, kept in a cache file and keyed by the digest of the validated content.
+ * The cache also keeps the digest of every external entity (DTD, XML schema) read by the validations: if one
+ * of them changed, every result is dropped, since a grammar read once may be used for any document through
+ * the grammar pool.
+ * <p>
+ * Only results depending on nothing else are kept: a validation failing to read an entity is not.
+ * </p>
+ *
+ * @version $Id$
+ * @since 1.4
+ */
+class ValidationCache
+{
+    /** The cache file name, in the cache directory. */
+    static final String FILE_NAME = "xml-validation.cache";
+
+    private static final int MAGIC = 0x44535643;
+
+    private static final int VERSION = 2;
+
+    private final File file;
+
+    /** The entities read by the kept validations, by public and system identifier. */
+    private final Map<String, Entity> entities = new ConcurrentHashMap<String, Entity>();
+
+    /** The kept validation results, by content digest. */
+    private final Map<String, ValidationResult> results = new ConcurrentHashMap<String, ValidationResult>();
+
+    private final AtomicInteger hits = new AtomicInteger();
+
+    private final AtomicInteger misses = new AtomicInteger();
+
+    private ValidationCache( File file )
+    {
+        this.file = file;
+    }
+
+    /**
+     * Load the cache of a cache directory, keeping its results only if the entities they read did not change.
+     * A missing or unreadable cache is ignored.
+     *
+     * @param cacheDirectory the cache directory, not null.
+     * @param validator the validator, to read the entities again.
+     * @return the cache, never null.
+     */
+    static ValidationCache load( File cacheDirectory, XmlSourceValidator validator )
+    {
+        ValidationCache cache = new ValidationCache( new File( cacheDirectory, FILE_NAME ) );
+
+        if ( cache.file.isFile() )
+        {
+            try
+            {
+                cache.read();
+            }
+            catch ( IOException e )
+            {
+                // corrupted or from another version: validate everything again
+                cache.entities.clear();
+                cache.results.clear();
+            }
+
+            for ( Entity entity : cache.entities.values() )
+            {
+                if ( !Arrays.equals( entity.digest, validator.digestEntity( entity.publicId, entity.systemId ) ) )
+                {
+                    cache.entities.clear();
+                    cache.results.clear();
+                    break;
+                }
+            }
+        }
+
+        return cache;
+    }
+
+    /**
+     * Compute the key of a content.
+     *
+     * @param content the content to validate.
+     * @return the content digest.
+     */
+    static String digest( ContentBuffer content )
+        throws IOException
+    {
+        MessageDigest digest = RenderingManifest.newDigest();
+
+        Reader reader = content.newReader();
+        char[] buffer = new char[4096];
+        byte[] bytes = new byte[buffer.length * 2];
+        for ( int n = reader.read( buffer ); n >= 0; n = reader.read( buffer ) )
+        {
+            // UTF-16, so that the digest does not depend on how the content is split
+            for ( int i = 0; i < n; i++ )
+            {
+                bytes[2 * i] = (byte) ( buffer[i] >> 8 );
+                bytes[2 * i + 1] = (byte) buffer[i];
+            }
+            digest.update( bytes, 0, 2 * n );
+        }
+
+        StringBuilder key = new StringBuilder();
+        for ( byte b : digest.digest() )
+        {
+            key.append( Character.forDigit( ( b >> 4 ) & 0xF, 16 ) ).append( Character.forDigit( b & 0xF, 16 ) );
+        }
+        return key.toString();
+    }
+
+    /**
+     * @param key the content digest.
+     * @return the result of a previous validation of this content, or <code>null</code> if none.
+     */
+    ValidationResult get( String key )
+    {
+        ValidationResult result = results.get( key );
+
+        ( ( result == null ) ? misses : hits ).incrementAndGet();
+
+        return result;
+    }
+
+    /**
+     * Keep the result of a validation, if it depends on nothing but the content and the entities it read.
+     *
+     * @param key the content digest.
+     * @param result the validation result.
+     */
+    void put( String key, ValidationResult result )
+    {
+        if ( !result.cacheable )
+        {
+            return;
+        }
+
+        for ( Entity entity : result.entities )
+        {
+            entities.put( getEntityKey( entity.publicId, entity.systemId ), entity );
+        }
+
+        // the cause is not kept, and would differ from a reused result
+        ValidationResult kept = new ValidationResult();
+        kept.warnings.addAll( result.warnings );
+        kept.error = result.error;
+
+        results.put( key, kept );
+    }
+
+    /**
+     * @return the number of validations skipped.
+     */
+    int getHits()
+    {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of validations done.
+     */
+    int getMisses()
+    {
+        return misses.get();
+    }
+
+    /**
+     * Write the cache file.
+     *
+     * @throws IOException if the cache file cannot be written.
+     */
+    void save()
+        throws IOException
+    {
+        file.getParentFile().mkdirs();
+
+        File tmp = new File( file.getPath() + ".tmp" );
+
+        DataOutputStream out = null;
+        try
+        {
+            out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( tmp ) ) );
+
+            out.writeInt( MAGIC );
+            out.writeInt( VERSION );
+
+            Map<String, Entity> sortedEntities = new TreeMap<String, Entity>( entities );
+            out.writeInt( sortedEntities.size() );
+            for ( Entity entity : sortedEntities.values() )
+            {
+                writeNullable( out, entity.publicId );
+                writeNullable( out, entity.systemId );
+                out.writeInt( entity.digest.length );
+                out.write( entity.digest );
+            }
+
+            Map<String, ValidationResult> sortedResults = new TreeMap<String, ValidationResult>( results );
+            out.writeInt( sortedResults.size() );
+            for ( Map.Entry<String, ValidationResult> entry : sortedResults.entrySet() )
+            {
+                ValidationResult result = entry.getValue();
+
+                writeString( out, entry.getKey() );
+                writeNullable( out, result.error );
+                out.writeInt( result.warnings.size() );
+                for ( String warning : result.warnings )
+                {
+                    writeString( out, warning );
+                }
+            }
+        }
+        finally
+        {
+            IOUtil.close( out );
+        }
+
+        if ( !tmp.renameTo( file ) )
+        {
+            // File.renameTo() does not overwrite on every platform
+            file.delete();
+
+            if ( !tmp.renameTo( file ) )
+            {
+                throw new IOException( "Unable to write " + file );
+            }
+        }
+    }
+
+    private void read()
+        throws IOException
+    {
+        DataInputStream in = null;
+        try
+        {
+            in = new DataInputStream( new BufferedInputStream( new FileInputStream( file ) ) );
+
+            if ( in.readInt() != MAGIC || in.readInt() != VERSION )
+            {
+                throw new IOException( "Unsupported cache " + file );
+            }
+
+            for ( int count = in.readInt(); count > 0; count-- )
+            {
+                String publicId = readNullable( in );
+                String systemId = readNullable( in );
+                byte[] digest = new byte[in.readInt()];
+                in.readFully( digest );
+
+                entities.put( getEntityKey( publicId, systemId ), new Entity( publicId, systemId, digest ) );
+            }
+
+            for ( int count = in.readInt(); count > 0; count-- )
+            {
+                String key = readString( in );
+
+                ValidationResult result = new ValidationResult();
+                result.error = readNullable( in );
+                for ( int warnings = in.readInt(); warnings > 0; warnings-- )
+                {
+                    result.warnings.add( readString( in ) );
+                }
+
+                results.put( key, result );
+            }
+        }
+        finally
+        {
+            IOUtil.close( in );
+        }
+    }
+
+    private static String getEntityKey( String publicId, String systemId )
+    {
+        return publicId + '\n' + systemId;
+    }
+
+    private static void writeNullable( DataOutputStream out, String value )
+        throws IOException
+    {
+        out.writeBoolean( value != null );
+        if ( value != null )
+        {
+            writeString( out, value );
+        }
+    }
+
+    private static String readNullable( DataInputStream in )
+        throws IOException
+    {
+        return in.readBoolean() ? readString( in ) : null;
+    }
+
+    /**
+     * Write a string as its length in bytes followed by its UTF-8 bytes: unlike
+     * {@link DataOutputStream#writeUTF(String)}, a validator message is not limited to 64 KB.
+     */
+    private static void writeString( DataOutputStream out, String value )
+        throws IOException
+    {
+        byte[] bytes = value.getBytes( "UTF-8" );
+
+        out.writeInt( bytes.length );
+        out.write( bytes );
+    }
+
+    private static String readString( DataInputStream in )
+        throws IOException
+    {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully( bytes );
+
+        return new String( bytes, "UTF-8" );
+    }
+}
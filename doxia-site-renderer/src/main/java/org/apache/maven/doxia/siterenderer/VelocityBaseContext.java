@@ -0,0 +1,140 @@
+package org.apache.maven.doxia.siterenderer;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.apache.maven.doxia.site.decoration.DecorationModel;
+import org.apache.velocity.VelocityContext;
+import org.apache.velocity.context.Context;
+import org.apache.velocity.tools.ToolManager;
+
+/**
+ * The part of the Velocity context shared by all documents of a {@link SiteRenderingContext}: decoration,
+ * locales, template properties, tools... It is built once, then every document gets a thin overlay holding
+ * only its own values, chained to the shared site values and to a fresh tool context:
+ * request scoped tools are never shared between documents.
+ * <p>
+ * Changes of the site rendering context are detected by identity: setting a new decoration, locale or template
+ * properties map rebuilds the base context, modifying them in place does not.
+ * </p>
+ *
+ * @version $Id$
+ * @since 1.4
+ */
+class VelocityBaseContext
+{
+    private final DecorationModel decoration;
+
+    private final String defaultWindowTitle;
+
+    private final Locale locale;
+
+    private final List<Locale> siteLocales;
+
+    private final int siteLocaleCount;
+
+    private final Date publishDate;
+
+    private final Map<String, ?> templateProperties;
+
+    private final Object i18n;
+
+    private final ToolManager toolManager;
+
+    private final Map<String, Object> siteValues;
+
+    private final Map<String, Object> overridingProperties;
+
+    private final String titlePrefix;
+
+    /**
+     * @param siteRenderingContext the site rendering context the base context is built from.
+     * @param i18n the i18n component of the base context.
+     * @param toolManager the tool manager creating the tool context of each document.
+     * @param siteValues the values shared by every document, not modified afterwards.
+     * @param overridingProperties the template properties having the same name as a document value: like
+     *      any template property, they take precedence.
+     * @param titlePrefix the prefix of every document title.
+     */
+    VelocityBaseContext( SiteRenderingContext siteRenderingContext, Object i18n, ToolManager toolManager,
+                         Map<String, Object> siteValues, Map<String, Object> overridingProperties,
+                         String titlePrefix )
+    {
+        this.decoration = siteRenderingContext.getDecoration();
+        this.defaultWindowTitle = siteRenderingContext.getDefaultWindowTitle();
+        this.locale = siteRenderingContext.getLocale();
+        this.siteLocales = siteRenderingContext.getSiteLocales();
+        this.siteLocaleCount = siteLocales.size();
+        this.publishDate = siteRenderingContext.getPublishDate();
+        this.templateProperties = siteRenderingContext.getTemplateProperties();
+        this.i18n = i18n;
+        this.toolManager = toolManager;
+        this.siteValues = Collections.unmodifiableMap( siteValues );
+        this.overridingProperties = overridingProperties;
+        this.titlePrefix = titlePrefix;
+    }
+
+    /**
+     * @param siteRenderingContext the site rendering context.
+     * @param currentI18n the i18n component that would be used now.
+     * @return <code>true</code> if this base context was built from the same values, compared by identity.
+     */
+    boolean isBuiltFrom( SiteRenderingContext siteRenderingContext, Object currentI18n )
+    {
+        return siteRenderingContext.getDecoration() == decoration
+            && siteRenderingContext.getDefaultWindowTitle() == defaultWindowTitle
+            && siteRenderingContext.getLocale() == locale
+            && siteRenderingContext.getSiteLocales() == siteLocales && siteLocales.size() == siteLocaleCount
+            && siteRenderingContext.getPublishDate() == publishDate
+            && siteRenderingContext.getTemplateProperties() == templateProperties && currentI18n == i18n;
+    }
+
+    /**
+     * @return the prefix of every document title, maybe empty.
+     */
+    String getTitlePrefix()
+    {
+        return titlePrefix;
+    }
+
+    /**
+     * Create the context of a document.
+     *
+     * @param documentValues the values of the document, used as storage of the returned context.
+     * @return a new context, looking up the document values first, then the site values, then the tools.
+     */
+    VelocityContext createDocumentContext( Map<String, Object> documentValues )
+    {
+        documentValues.putAll( overridingProperties );
+
+        Context tools;
+        synchronized ( toolManager )
+        {
+            tools = toolManager.createContext();
+        }
+
+        return new VelocityContext( documentValues, new VelocityContext( siteValues, tools ) );
+    }
+}
@@ -0,0 +1,282 @@
+package org.apache.maven.doxia.siterenderer;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.codehaus.plexus.util.IOUtil;
+
+/**
+ * Replaces the content of a file, unless it already has the content written to this stream. The content is
+ * compared to the file while it is written, without being kept in memory: as long as it is the same, nothing is
+ * written. From the first difference, the part already compared is copied from the file to a temporary file,
+ * followed by the rest of the content, and {@link #commit()} moves the temporary file to the file, so that the
+ * file is never seen half written.
+ * <p>
+ * Closing the stream does not end the content: the renderer closes the writers it renders to, and only the
+ * caller of {@link #commit()} or {@link #discard()} knows whether the rendering succeeded.
+ * </p>
+ *
+ * @version $Id$
+ * @since 1.4
+ */
+class WriteIfChangedOutputStream
+    extends OutputStream
+{
+    private static final int BUFFER_SIZE = 8192;
+
+    private final File file;
+
+    /** The file being compared, <code>null</code> once the content differs. */
+    private InputStream existing;
+
+    /** The number of bytes found the same as the file so far. */
+    private long matched;
+
+    /** The temporary file, <code>null</code> as long as the content is the same. */
+    private File tmp;
+
+    private OutputStream out;
+
+    private long count;
+
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+
+    private final byte[] single = new byte[1];
+
+    /**
+     * @param file the file to replace.
+     * @throws IOException if the file cannot be read, or the temporary file cannot be created.
+     */
+    WriteIfChangedOutputStream( File file )
+        throws IOException
+    {
+        this.file = file;
+
+        if ( file.isFile() )
+        {
+            existing = new BufferedInputStream( new FileInputStream( file ), BUFFER_SIZE );
+        }
+        else
+        {
+            diverge();
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void write( int b )
+        throws IOException
+    {
+        single[0] = (byte) b;
+        write( single, 0, 1 );
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void write( byte[] b, int off, int len )
+        throws IOException
+    {
+        count += len;
+
+        if ( out == null && !matches( b, off, len ) )
+        {
+            diverge();
+        }
+
+        if ( out != null )
+        {
+            out.write( b, off, len );
+        }
+        else
+        {
+            matched += len;
+        }
+    }
+
+    /**
+     * @return the number of bytes written to this stream.
+     */
+    long getCount()
+    {
+        return count;
+    }
+
+    /**
+     * End the content: replace the file if the content differs from it.
+     *
+     * @return <code>true</code> if the file was written.
+     * @throws IOException if the file cannot be written.
+     */
+    boolean commit()
+        throws IOException
+    {
+        if ( out == null )
+        {
+            if ( existing.read() < 0 )
+            {
+                discard();
+
+                return false;
+            }
+
+            // the file is longer
+            diverge();
+        }
+
+        out.close();
+        out = null;
+
+        if ( !tmp.renameTo( file ) )
+        {
+            // File.renameTo() does not overwrite on every platform
+            file.delete();
+
+            if ( !tmp.renameTo( file ) )
+            {
+                throw new IOException( "Unable to write " + file );
+            }
+        }
+
+        tmp = null;
+
+        return true;
+    }
+
+    /**
+     * Flush the content written to the temporary file, if any. The stream can still be committed or discarded.
+     *
+     * @throws IOException if the temporary file cannot be written.
+     */
+    @Override
+    public void flush()
+        throws IOException
+    {
+        if ( out != null )
+        {
+            out.flush();
+        }
+    }
+
+    /**
+     * Does nothing but {@link #flush()}: the content ends with {@link #commit()} or {@link #discard()}.
+     *
+     * @throws IOException if the temporary file cannot be written.
+     */
+    @Override
+    public void close()
+        throws IOException
+    {
+        flush();
+    }
+
+    /**
+     * Release the files. Without {@link #commit()}, the file is left untouched.
+     */
+    void discard()
+    {
+        IOUtil.close( existing );
+        existing = null;
+
+        IOUtil.close( out );
+        out = null;
+
+        if ( tmp != null )
+        {
+            tmp.delete();
+            tmp = null;
+        }
+    }
+
+    /**
+     * @return <code>true</code> if the next bytes of the file are these ones.
+     */
+    private boolean matches( byte[] b, int off, int len )
+        throws IOException
+    {
+        int compared = 0;
+
+        while ( compared < len )
+        {
+            int n = existing.read( buffer, 0, Math.min( buffer.length, len - compared ) );
+            if ( n < 0 )
+            {
+                return false;
+            }
+
+            for ( int i = 0; i < n; i++ )
+            {
+                if ( buffer[i] != b[off + compared + i] )
+                {
+                    return false;
+                }
+            }
+
+            compared += n;
+        }
+
+        return true;
+    }
+
+    /**
+     * Start the temporary file with the bytes found the same as the file.
+     */
+    private void diverge()
+        throws IOException
+    {
+        IOUtil.close( existing );
+        existing = null;
+
+        tmp = File.createTempFile( file.getName(), ".tmp", file.getParentFile() );
+        tmp.deleteOnExit();
+        out = new BufferedOutputStream( new FileOutputStream( tmp ), BUFFER_SIZE );
+
+        if ( matched > 0 )
+        {
+            InputStream in = new FileInputStream( file );
+            try
+            {
+                long remaining = matched;
+                while ( remaining > 0 )
+                {
+                    int n = in.read( buffer, 0, (int) Math.min( buffer.length, remaining ) );
+                    if ( n < 0 )
+                    {
+                        throw new IOException( file + " changed while being compared" );
+                    }
+
+                    out.write( buffer, 0, n );
+                    remaining -= n;
+                }
+            }
+            finally
+            {
+                IOUtil.close( in );
+            }
+        }
+    }
+}
@@ -0,0 +1,676 @@
+package org.apache.maven.doxia.siterenderer;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Pattern;
+
+import org.apache.maven.doxia.logging.Log;
+import org.apache.maven.doxia.parser.AbstractXmlParser.CachedFileEntityResolver;
+import org.apache.maven.doxia.parser.ParseException;
+import org.apache.maven.doxia.siterenderer.sink.ContentBuffer;
+import org.codehaus.plexus.util.IOUtil;
+import org.xml.sax.EntityResolver;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXNotRecognizedException;
+import org.xml.sax.SAXNotSupportedException;
+import org.xml.sax.SAXParseException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
+import org.xml.sax.helpers.XMLReaderFactory;
+
+/**
+ * Validates XML sources like <code>org.apache.maven.doxia.util.XmlValidator</code>, but with XML readers
+ * reused by each thread and a grammar pool shared by the JVM: the DTDs and XML schemas, like
+ * <code>xdoc-2.0.xsd</code>, are compiled once instead of once per document.
+ * <p>
+ * A document whose DOCTYPE has both an external identifier and an internal subset is validated without the
+ * pool, since its DTD grammar is specific to the document.
+ * </p>
+ * <p>
+ * A validation gives a {@link ValidationResult}, holding the messages and the digests of the external entities
+ * read, so that it can be kept in a {@link ValidationCache} and reported again without validating. A pooled
+ * grammar is only resolved by the first document using it: the result of a validation using the pool depends on
+ * every entity resolved for the pool so far, not only on the entities it resolved itself.
+ * </p>
+ *
+ * @version $Id$
+ * @since 1.4
+ */
+class XmlSourceValidator
+{
+    private static final String PARSER = "org.apache.xerces.parsers.SAXParser";
+
+    private static final String GRAMMAR_POOL_CLASS = "org.apache.xerces.util.XMLGrammarPoolImpl";
+
+    private static final String GRAMMAR_POOL_PROPERTY = "http://apache.org/xml/properties/internal/grammar-pool";
+
+    private static final String XSI_NAMESPACE = "http://www.w3.org/2001/XMLSchema-instance";
+
+    /** Element declarations missing from a DTD only declaring entities for a document validated by a schema. */
+    private static final Pattern ELEMENT_TYPE_PATTERN =
+        Pattern.compile( "Element type \".*\" must be declared.", Pattern.DOTALL );
+
+    private static final String EOL = System.getProperty( "line.separator" );
+
+    /** The grammars compiled so far, <code>null</code> if the XML parser does not support grammar pools. */
+    private static final Object GRAMMAR_POOL = createGrammarPool();
+
+    /** The entities resolved by the readers using the grammar pool, by public and system identifier. */
+    private static final ConcurrentMap<String, Entity> POOLED_ENTITIES = new ConcurrentHashMap<String, Entity>();
+
+    /** If a grammar of the pool was read without its digest being known. */
+    private static volatile boolean untrackedPooledEntity;
+
+    private final Log log;
+
+    /** For each thread, a reader using the grammar pool and a reader not using it. */
+    private final ThreadLocal<XMLReader[]> readers = new ThreadLocal<XMLReader[]>();
+
+    /**
+     * @param log the log receiving the reported warnings.
+     */
+    XmlSourceValidator( Log log )
+    {
+        this.log = log;
+    }
+
+    /**
+     * Validate a buffered XML source. The messages are not reported: see {@link #report(ValidationResult)}.
+     *
+     * @param content the XML source.
+     * @return the validation result, never null.
+     */
+    ValidationResult validate( ContentBuffer content )
+    {
+        ValidationResult result = new ValidationResult();
+
+        XMLReader xmlReader;
+        Prolog prolog;
+        try
+        {
+            prolog = readProlog( content.newReader() );
+            xmlReader = getXmlReader( !prolog.specificDtd );
+        }
+        catch ( IOException e )
+        {
+            result.cacheable = false;
+            result.setError( e );
+            return result;
+        }
+        catch ( SAXException e )
+        {
+            // no suitable parser
+            result.cacheable = false;
+            result.setError( e );
+            return result;
+        }
+
+        MessagesErrorHandler errorHandler = (MessagesErrorHandler) xmlReader.getErrorHandler();
+        errorHandler.hasDtdAndXsd = prolog.doctype && prolog.xsd;
+        errorHandler.result = result;
+        RecordingEntityResolver entityResolver = (RecordingEntityResolver) xmlReader.getEntityResolver();
+        entityResolver.result = result;
+
+        try
+        {
+            xmlReader.parse( new InputSource( content.newReader() ) );
+        }
+        catch ( IOException e )
+        {
+            // may not happen next time
+            result.cacheable = false;
+            result.setError( e );
+        }
+        catch ( SAXException e )
+        {
+            result.setError( e );
+        }
+
+        if ( entityResolver.pooled )
+        {
+            addPooledEntities( result );
+        }
+
+        return result;
+    }
+
+    /**
+     * Make a result obtained with the grammar pool depend on every grammar the pool may have given.
+     */
+    private static void addPooledEntities( ValidationResult result )
+    {
+        if ( untrackedPooledEntity )
+        {
+            result.cacheable = false;
+            return;
+        }
+
+        List<String> keys = new ArrayList<String>( result.entities.size() );
+        for ( Entity entity : result.entities )
+        {
+            keys.add( getEntityKey( entity.publicId, entity.systemId ) );
+        }
+
+        for ( Map.Entry<String, Entity> entry : POOLED_ENTITIES.entrySet() )
+        {
+            if ( !keys.contains( entry.getKey() ) )
+            {
+                result.entities.add( entry.getValue() );
+            }
+        }
+    }
+
+    private static String getEntityKey( String publicId, String systemId )
+    {
+        return publicId + '\n' + systemId;
+    }
+
+    /**
+     * Log the warnings of a validation, and fail if the source is not valid.
+     *
+     * @param result the validation result.
+     * @throws ParseException if the source is not valid.
+     */
+    void report( ValidationResult result )
+        throws ParseException
+    {
+        for ( String warning : result.warnings )
+        {
+            log.warn( warning );
+        }
+
+        if ( result.error != null )
+        {
+            if ( result.cause != null )
+            {
+                throw new ParseException( result.error, result.cause );
+            }
+
+            throw new ParseException( result.error );
+        }
+    }
+
+    /**
+     * Compute the digest of an external entity, as the validation would read it.
+     *
+     * @param publicId the entity public identifier, may be null.
+     * @param systemId the entity system identifier.
+     * @return the digest of the entity content, or <code>null</code> if it cannot be read.
+     */
+    byte[] digestEntity( String publicId, String systemId )
+    {
+        try
+        {
+            InputSource source = new CachedFileEntityResolver().resolveEntity( publicId, systemId );
+
+            return ( source == null ) ? null : RecordingEntityResolver.read( source ).digest;
+        }
+        catch ( IOException e )
+        {
+            return null;
+        }
+        catch ( SAXException e )
+        {
+            return null;
+        }
+    }
+
+    private XMLReader getXmlReader( boolean pooled )
+        throws SAXException
+    {
+        XMLReader[] xmlReaders = readers.get();
+        if ( xmlReaders == null )
+        {
+            xmlReaders = new XMLReader[2];
+            readers.set( xmlReaders );
+        }
+
+        int index = pooled ? 0 : 1;
+        if ( xmlReaders[index] == null )
+        {
+            XMLReader xmlReader = XMLReaderFactory.createXMLReader( PARSER );
+            xmlReader.setFeature( "http://xml.org/sax/features/validation", true );
+            xmlReader.setFeature( "http://apache.org/xml/features/validation/schema", true );
+            xmlReader.setErrorHandler( new MessagesErrorHandler() );
+
+            RecordingEntityResolver entityResolver = new RecordingEntityResolver();
+            xmlReader.setEntityResolver( entityResolver );
+
+            if ( pooled && GRAMMAR_POOL != null )
+            {
+                try
+                {
+                    xmlReader.setProperty( GRAMMAR_POOL_PROPERTY, GRAMMAR_POOL );
+                    entityResolver.pooled = true;
+                }
+                catch ( SAXNotRecognizedException e )
+                {
+                    // validate without the pool
+                }
+                catch ( SAXNotSupportedException e )
+                {
+                    // validate without the pool
+                }
+            }
+
+            xmlReaders[index] = xmlReader;
+        }
+
+        return xmlReaders[index];
+    }
+
+    private static Object createGrammarPool()
+    {
+        try
+        {
+            // the pool synchronizes its accesses: it can be shared by the readers of every thread
+            return Class.forName( GRAMMAR_POOL_CLASS ).newInstance();
+        }
+        catch ( Exception e )
+        {
+            return null;
+        }
+        catch ( LinkageError e )
+        {
+            return null;
+        }
+    }
+
+    /**
+     * Read the beginning of a document, up to the end of its root element start tag.
+     */
+    static Prolog readProlog( Reader reader )
+        throws IOException
+    {
+        Prolog prolog = new Prolog();
+        StringBuilder declaration = new StringBuilder();
+
+        try
+        {
+            for ( int c = reader.read(); c >= 0; c = reader.read() )
+            {
+                if ( c != '<' )
+                {
+                    continue;
+                }
+
+                c = reader.read();
+                if ( c == '!' )
+                {
+                    declaration.setLength( 0 );
+                    readDeclaration( reader, declaration );
+
+                    if ( declaration.toString().startsWith( "DOCTYPE" ) )
+                    {
+                        prolog.doctype = true;
+
+                        String doctype = declaration.toString();
+                        int subset = doctype.indexOf( '[' );
+                        String externalId = ( subset < 0 ) ? doctype : doctype.substring( 0, subset );
+                        prolog.specificDtd = subset >= 0
+                            && ( externalId.indexOf( "SYSTEM" ) >= 0 || externalId.indexOf( "PUBLIC" ) >= 0 );
+                    }
+                }
+                else if ( Character.isLetter( (char) c ) || c == '_' || c == ':' )
+                {
+                    declaration.setLength( 0 );
+                    for ( c = reader.read(); c >= 0 && c != '>'; c = reader.read() )
+                    {
+                        declaration.append( (char) c );
+                    }
+
+                    prolog.xsd = declaration.indexOf( XSI_NAMESPACE ) >= 0;
+
+                    break;
+                }
+            }
+        }
+        finally
+        {
+            reader.close();
+        }
+
+        return prolog;
+    }
+
+    /**
+     * Read a <code>&lt;!</code> declaration up to its end, skipping comments and the nested declarations of an
+     * internal subset.
+     */
+    private static void readDeclaration( Reader reader, StringBuilder declaration )
+        throws IOException
+    {
+        int depth = 0;
+        char quote = 0;
+
+        for ( int c = reader.read(); c >= 0; c = reader.read() )
+        {
+            declaration.append( (char) c );
+
+            if ( declaration.length() == 2 && declaration.charAt( 0 ) == '-' && c == '-' )
+            {
+                // a comment
+                while ( c >= 0 && !endsWith( declaration, "-->" ) )
+                {
+                    c = reader.read();
+                    declaration.append( (char) c );
+                }
+                return;
+            }
+
+            if ( quote == 0 && c == '-' && endsWith( declaration, "<!--" ) )
+            {
+                // a comment in the internal subset
+                while ( c >= 0 && !endsWith( declaration, "-->" ) )
+                {
+                    c = reader.read();
+                    declaration.append( (char) c );
+                }
+            }
+            else if ( quote != 0 )
+            {
+                if ( c == quote )
+                {
+                    quote = 0;
+                }
+            }
+            else if ( c == '"' || c == '\'' )
+            {
+                quote = (char) c;
+            }
+            else if ( c == '[' )
+            {
+                depth++;
+            }
+            else if ( c == ']' )
+            {
+                depth--;
+            }
+            else if ( c == '>' && depth <= 0 )
+            {
+                return;
+            }
+        }
+    }
+
+    private static boolean endsWith( StringBuilder sb, String suffix )
+    {
+        int start = sb.length() - suffix.length();
+
+        return start >= 0 && sb.indexOf( suffix, start ) == start;
+    }
+
+    /**
+     * What the validation depends on in the beginning of a document.
+     */
+    static final class Prolog
+    {
+        /** The document has a DOCTYPE. */
+        boolean doctype;
+
+        /** The DOCTYPE has both an external identifier and an internal subset. */
+        boolean specificDtd;
+
+        /** The root element refers to the XML schema instance namespace. */
+        boolean xsd;
+    }
+
+    /**
+     * The outcome of a validation.
+     */
+    static final class ValidationResult
+    {
+        /** The warnings, to be logged. */
+        final List<String> warnings = new ArrayList<String>();
+
+        /** The external entities read, with their digest. */
+        final List<Entity> entities = new ArrayList<Entity>();
+
+        /** The error message, <code>null</code> if the source is valid. */
+        String error;
+
+        /** The cause of the error, not kept by the cache. */
+        Exception cause;
+
+        /** If the result only depends on the source and the entities. */
+        boolean cacheable = true;
+
+        void setError( Exception e )
+        {
+            error = "Error validating the model: " + e.getMessage();
+            cause = e;
+        }
+    }
+
+    /**
+     * An external entity, like a DTD or an XML schema.
+     */
+    static final class Entity
+    {
+        final String publicId;
+
+        final String systemId;
+
+        final byte[] digest;
+
+        Entity( String publicId, String systemId, byte[] digest )
+        {
+            this.publicId = publicId;
+            this.systemId = systemId;
+            this.digest = digest;
+        }
+    }
+
+    /**
+     * Resolves entities like <code>XmlValidator</code> does, recording the digest of each entity read.
+     */
+    private static class RecordingEntityResolver
+        implements EntityResolver
+    {
+        private final EntityResolver resolver = new CachedFileEntityResolver();
+
+        /** If the reader uses the grammar pool: the entities it resolves are recorded for the pool too. */
+        boolean pooled;
+
+        ValidationResult result;
+
+        /** {@inheritDoc} */
+        public InputSource resolveEntity( String publicId, String systemId )
+            throws SAXException, IOException
+        {
+            InputSource source;
+            try
+            {
+                source = resolver.resolveEntity( publicId, systemId );
+            }
+            catch ( SAXException e )
+            {
+                // may not happen next time
+                result.cacheable = false;
+                throw e;
+            }
+            catch ( IOException e )
+            {
+                result.cacheable = false;
+                throw e;
+            }
+
+            if ( source == null )
+            {
+                // read by the parser itself
+                result.cacheable = false;
+                untrackedPooledEntity |= pooled;
+
+                return null;
+            }
+
+            ReadEntity entity = read( source );
+            if ( entity.digest == null )
+            {
+                result.cacheable = false;
+                untrackedPooledEntity |= pooled;
+            }
+            else
+            {
+                Entity read = new Entity( publicId, systemId, entity.digest );
+                result.entities.add( read );
+
+                if ( pooled )
+                {
+                    POOLED_ENTITIES.put( getEntityKey( publicId, systemId ), read );
+                }
+            }
+
+            return entity.source;
+        }
+
+        /**
+         * Read the content of an entity, to compute its digest.
+         *
+         * @return the digest and an input source giving the same content.
+         */
+        static ReadEntity read( InputSource source )
+            throws IOException
+        {
+            MessageDigest digest = RenderingManifest.newDigest();
+            InputSource copy = new InputSource( source.getSystemId() );
+            copy.setPublicId( source.getPublicId() );
+            copy.setEncoding( source.getEncoding() );
+
+            if ( source.getByteStream() != null )
+            {
+                byte[] content;
+                try
+                {
+                    content = IOUtil.toByteArray( source.getByteStream() );
+                }
+                finally
+                {
+                    IOUtil.close( source.getByteStream() );
+                }
+
+                digest.update( content );
+                copy.setByteStream( new ByteArrayInputStream( content ) );
+            }
+            else if ( source.getCharacterStream() != null )
+            {
+                String content;
+                try
+                {
+                    content = IOUtil.toString( source.getCharacterStream() );
+                }
+                finally
+                {
+                    IOUtil.close( source.getCharacterStream() );
+                }
+
+                RenderingManifest.update( digest, content );
+                copy.setCharacterStream( new StringReader( content ) );
+            }
+            else
+            {
+                // only a system identifier: read by the parser itself
+                return new ReadEntity( null, source );
+            }
+
+            return new ReadEntity( digest.digest(), copy );
+        }
+    }
+
+    /**
+     * An entity content, with its digest.
+     */
+    private static final class ReadEntity
+    {
+        final byte[] digest;
+
+        final InputSource source;
+
+        ReadEntity( byte[] digest, InputSource source )
+        {
+            this.digest = digest;
+            this.source = source;
+        }
+    }
+
+    /**
+     * Collects warnings and fails on errors, like the <code>XmlValidator</code> error handler.
+     */
+    private static class MessagesErrorHandler
+        extends DefaultHandler
+    {
+        boolean hasDtdAndXsd;
+
+        ValidationResult result;
+
+        /** {@inheritDoc} */
+        @Override
+        public void warning( SAXParseException e )
+            throws SAXException
+        {
+            result.warnings.add( getMessage( "Warning:", e ) );
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public void error( SAXParseException e )
+            throws SAXException
+        {
+            // Xerces complains about the elements of an XML with XSD that also needs a <!DOCTYPE []> to declare
+            // entities like &nbsp;, see http://xml.apache.org/xerces2-j/faq-grammars.html#faq-4
+            if ( !hasDtdAndXsd || !ELEMENT_TYPE_PATTERN.matcher( e.getMessage() ).find() )
+            {
+                throw new SAXException( getMessage( "Error:", e ) );
+            }
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public void fatalError( SAXParseException e )
+            throws SAXException
+        {
+            throw new SAXException( getMessage( "Fatal error:", e ) );
+        }
+
+        private static String getMessage( String type, SAXParseException e )
+        {
+            StringBuilder message = new StringBuilder( type );
+            message.append( EOL );
+            message.append( "  Public ID: " ).append( e.getPublicId() ).append( EOL );
+            message.append( "  System ID: " ).append( e.getSystemId() ).append( EOL );
+            message.append( "  Line number: " ).append( e.getLineNumber() ).append( EOL );
+            message.append( "  Column number: " ).append( e.getColumnNumber() ).append( EOL );
+            message.append( "  Message: " ).append( e.getMessage() ).append( EOL );
+
+            return message.toString();
+        }
+    }
+}
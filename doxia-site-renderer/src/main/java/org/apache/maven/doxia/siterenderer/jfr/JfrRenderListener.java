@@ -0,0 +1,154 @@
+package org.apache.maven.doxia.siterenderer.jfr;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import org.apache.maven.doxia.siterenderer.RenderListener;
+import org.apache.maven.doxia.siterenderer.RenderPhase;
+
+/**
+ * Emits a JDK Flight Recorder event for the rendering of the site, of each document and of each rendering phase,
+ * so that slow documents can be correlated with garbage collections and I/O in a recording. An event type
+ * disabled, or no recording running, makes the callbacks return at once.
+ * <p>
+ * The phases of a document run on the thread of the document, so pending events are kept by thread. The
+ * discovery of the documents and the copy of the resources, which no listener callback starts, are emitted by
+ * the renderer itself with {@link #DOCUMENT_DISCOVERY} and {@link #RESOURCE_COPY}.
+ * </p>
+ *
+ * @version $Id$
+ * @since 1.4
+ * @see JfrEventType
+ */
+public class JfrRenderListener
+    implements RenderListener
+{
+    /** The rendering of a site. */
+    private static final JfrEventType SITE_RENDERING =
+        JfrEventType.create( "org.apache.maven.doxia.SiteRendering", "Site Rendering",
+                             "The rendering of the documents of a site, and the copy of its resources",
+                             new String[] { "documentCount" }, new Class<?>[] { int.class } );
+
+    /** The rendering of a document. */
+    private static final JfrEventType DOCUMENT_RENDERING =
+        JfrEventType.create( "org.apache.maven.doxia.DocumentRendering", "Document Rendering",
+                             "The rendering of a document, from its source to its output file, -1 bytes if it failed",
+                             new String[] { "document", "outputBytes" }, new Class<?>[] { String.class, long.class } );
+
+    /** A phase of the rendering of a document. */
+    private static final JfrEventType RENDER_PHASE =
+        JfrEventType.create( "org.apache.maven.doxia.RenderPhase", "Document Rendering Phase",
+                             "A phase of the rendering of a document, with the size of the content it handled,"
+                                 + " -1 bytes if unknown",
+                             new String[] { "document", "phase", "sizeBytes" },
+                             new Class<?>[] { String.class, String.class, long.class } );
+
+    /** The discovery of the documents of a site, to be emitted by the renderer. */
+    public static final JfrEventType DOCUMENT_DISCOVERY =
+        JfrEventType.create( "org.apache.maven.doxia.DocumentDiscovery", "Site Document Discovery",
+                             "The walk of the source directories of a site, looking for its documents",
+                             new String[] { "directoryCount", "documentCount" },
+                             new Class<?>[] { int.class, int.class } );
+
+    /** The copy of the resources of a site, to be emitted by the renderer. */
+    public static final JfrEventType RESOURCE_COPY =
+        JfrEventType.create( "org.apache.maven.doxia.ResourceCopy", "Site Resource Copy",
+                             "The copy of the resources of the site directories, of the skin and of the default"
+                                 + " template", new String[] { "siteDirectoryCount" }, new Class<?>[] { int.class } );
+
+    private final ThreadLocal<Object> siteEvent = new ThreadLocal<Object>();
+
+    private final ThreadLocal<Object> documentEvent = new ThreadLocal<Object>();
+
+    private final ThreadLocal<Object> phaseEvent = new ThreadLocal<Object>();
+
+    /** {@inheritDoc} */
+    public void renderingStarted( int documentCount )
+    {
+        SITE_RENDERING.set( begin( siteEvent, SITE_RENDERING ), Integer.valueOf( documentCount ) );
+    }
+
+    /** {@inheritDoc} */
+    public void documentStarted( String document )
+    {
+        begin( documentEvent, DOCUMENT_RENDERING );
+    }
+
+    /** {@inheritDoc} */
+    public void phaseStarted( String document, RenderPhase phase )
+    {
+        begin( phaseEvent, RENDER_PHASE );
+    }
+
+    /** {@inheritDoc} */
+    public void phaseEnded( String document, RenderPhase phase, long nanos, long size )
+    {
+        RENDER_PHASE.commit( end( phaseEvent ), document, phase.toString(), Long.valueOf( size ) );
+    }
+
+    /** {@inheritDoc} */
+    public void documentEnded( String document, long nanos, long outputSize )
+    {
+        DOCUMENT_RENDERING.commit( end( documentEvent ), document, Long.valueOf( outputSize ) );
+    }
+
+    /** {@inheritDoc} */
+    public void resourcesCopied( long nanos )
+    {
+        // emitted by the renderer, which knows when the copy starts
+    }
+
+    /** {@inheritDoc} */
+    public void renderingEnded()
+    {
+        SITE_RENDERING.commit( end( siteEvent ) );
+    }
+
+    /**
+     * Keep the started event of the current thread, if its type is enabled.
+     *
+     * @return the started event, or <code>null</code> if none.
+     */
+    private static Object begin( ThreadLocal<Object> pending, JfrEventType type )
+    {
+        Object event = type.begin();
+
+        if ( event == null )
+        {
+            pending.remove();
+        }
+        else
+        {
+            pending.set( event );
+        }
+
+        return event;
+    }
+
+    /**
+     * @return the event started by the current thread, or <code>null</code> if none.
+     */
+    private static Object end( ThreadLocal<Object> pending )
+    {
+        Object event = pending.get();
+        pending.remove();
+
+        return event;
+    }
+}
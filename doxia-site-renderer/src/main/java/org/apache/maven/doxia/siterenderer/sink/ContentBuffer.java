@@ -0,0 +1,579 @@
+package org.apache.maven.doxia.siterenderer.sink;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.codehaus.plexus.util.IOUtil;
+
+/**
+ * A <code>Writer</code> keeping its content in memory as a list of chunks. Unlike a <code>StringWriter</code>,
+ * growing never copies the content written so far, and the content can be written to another writer or read
+ * back without being copied to a single <code>String</code> first.
+ * <p>
+ * With a spill threshold, the content moves to a temporary file once it gets longer than the threshold, so that
+ * huge contents do not take more memory than small ones. The file is deleted by {@link #dispose()}, or when the
+ * JVM exits if a failure skipped the dispose. Since the
+ * <code>Writer</code> methods of this class do not throw <code>IOException</code>, a failure to write the file is
+ * thrown when the content is read.
+ * </p>
+ *
+ * @version $Id$
+ * @since 1.4
+ */
+public class ContentBuffer
+    extends Writer
+{
+    private static final int FIRST_CHUNK_SIZE = 256;
+
+    private static final int MAX_CHUNK_SIZE = 32 * 1024;
+
+    /** The size of the buffer of the temporary file, in bytes: 2 per character. */
+    private static final int SPILL_BUFFER_SIZE = 16 * 1024;
+
+    /** Every chunk is full, except the last one. */
+    private final List<char[]> chunks = new ArrayList<char[]>();
+
+    private char[] current;
+
+    private int position;
+
+    private int length;
+
+    /** The length above which the content moves to a temporary file, 0 to keep it in memory. */
+    private int spillThreshold;
+
+    private File spillFile;
+
+    private OutputStream spillOut;
+
+    /** The bytes not written to the temporary file yet. */
+    private byte[] spillBuffer;
+
+    private int spillPosition;
+
+    /** The characters of a string being written to the temporary file, reused from one write to the next. */
+    private char[] spillChars;
+
+    private IOException spillError;
+
+    /**
+     * Construct a new empty ContentBuffer, keeping its content in memory.
+     */
+    public ContentBuffer()
+    {
+        this( 0 );
+    }
+
+    /**
+     * Construct a new empty ContentBuffer, moving its content to a temporary file above a length.
+     *
+     * @param spillThreshold the number of characters above which the content moves to a temporary file,
+     * 0 to keep the content in memory.
+     */
+    public ContentBuffer( int spillThreshold )
+    {
+        super();
+
+        this.spillThreshold = spillThreshold;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void write( int c )
+    {
+        if ( spillBuffer != null )
+        {
+            spill( (char) c );
+            length++;
+
+            return;
+        }
+
+        if ( current == null || position == current.length )
+        {
+            nextChunk();
+        }
+
+        current[position++] = (char) c;
+        length++;
+
+        checkSpillThreshold();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void write( char[] cbuf, int off, int len )
+    {
+        if ( spillBuffer != null )
+        {
+            spill( cbuf, off, len );
+            length += len;
+
+            return;
+        }
+
+        int offset = off;
+        int remaining = len;
+
+        while ( remaining > 0 )
+        {
+            if ( current == null || position == current.length )
+            {
+                nextChunk();
+            }
+
+            int n = Math.min( remaining, current.length - position );
+            System.arraycopy( cbuf, offset, current, position, n );
+            position += n;
+            offset += n;
+            remaining -= n;
+        }
+
+        length += len;
+
+        checkSpillThreshold();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void write( String str )
+    {
+        write( str, 0, str.length() );
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void write( String str, int off, int len )
+    {
+        if ( spillBuffer != null )
+        {
+            // copied block by block, without a copy of the whole string
+            for ( int i = off, end = off + len; i < end; i += spillChars.length )
+            {
+                int n = Math.min( spillChars.length, end - i );
+                str.getChars( i, i + n, spillChars, 0 );
+                spill( spillChars, 0, n );
+            }
+            length += len;
+
+            return;
+        }
+
+        int offset = off;
+        int remaining = len;
+
+        while ( remaining > 0 )
+        {
+            if ( current == null || position == current.length )
+            {
+                nextChunk();
+            }
+
+            int n = Math.min( remaining, current.length - position );
+            str.getChars( offset, offset + n, current, position );
+            position += n;
+            offset += n;
+            remaining -= n;
+        }
+
+        length += len;
+
+        checkSpillThreshold();
+    }
+
+    /**
+     * Does nothing: the content stays in memory, or in the temporary file.
+     */
+    @Override
+    public void flush()
+    {
+        // nop
+    }
+
+    /**
+     * Does nothing: the content can still be read after closing.
+     */
+    @Override
+    public void close()
+    {
+        // nop
+    }
+
+    /**
+     * Release the content: delete the temporary file if the content was moved to one. The buffer is empty
+     * afterwards.
+     */
+    public void dispose()
+    {
+        chunks.clear();
+        current = null;
+        position = 0;
+        length = 0;
+
+        if ( spillFile != null )
+        {
+            IOUtil.close( spillOut );
+            spillFile.delete();
+
+            spillFile = null;
+            spillOut = null;
+            spillBuffer = null;
+            spillChars = null;
+            spillPosition = 0;
+            spillError = null;
+        }
+    }
+
+    /**
+     * @return the number of characters written so far.
+     */
+    public int length()
+    {
+        return length;
+    }
+
+    /**
+     * @return <code>true</code> if the content was moved to a temporary file.
+     */
+    public boolean isSpilled()
+    {
+        return spillFile != null;
+    }
+
+    /**
+     * Write the content of this buffer to another writer, chunk by chunk.
+     *
+     * @param out the writer to write to, not null.
+     * @throws IOException if any.
+     */
+    public void writeTo( Writer out )
+        throws IOException
+    {
+        if ( spillFile != null )
+        {
+            Reader reader = newReader();
+            try
+            {
+                IOUtil.copy( reader, out, SPILL_BUFFER_SIZE / 2 );
+            }
+            finally
+            {
+                IOUtil.close( reader );
+            }
+
+            return;
+        }
+
+        for ( char[] chunk : chunks )
+        {
+            out.write( chunk, 0, ( chunk == current ) ? position : chunk.length );
+        }
+    }
+
+    /**
+     * Create a reader on the content written so far. Moving the content to the temporary file ends the readers
+     * created before.
+     *
+     * @return a new reader on the content written so far.
+     */
+    public Reader newReader()
+    {
+        return ( spillFile != null ) ? new SpillReader() : new ChunkReader();
+    }
+
+    /**
+     * @return the content of this buffer as a string.
+     * @throws IllegalStateException if the content could not be read back from the temporary file.
+     */
+    @Override
+    public String toString()
+    {
+        StringBuilder sb = new StringBuilder( length );
+
+        if ( spillFile != null )
+        {
+            Reader reader = newReader();
+            try
+            {
+                char[] buffer = new char[SPILL_BUFFER_SIZE / 2];
+                for ( int n = reader.read( buffer ); n >= 0; n = reader.read( buffer ) )
+                {
+                    sb.append( buffer, 0, n );
+                }
+            }
+            catch ( IOException e )
+            {
+                IllegalStateException ise = new IllegalStateException( "Unable to read " + spillFile );
+                ise.initCause( e );
+                throw ise;
+            }
+            finally
+            {
+                IOUtil.close( reader );
+            }
+
+            return sb.toString();
+        }
+
+        for ( char[] chunk : chunks )
+        {
+            sb.append( chunk, 0, ( chunk == current ) ? position : chunk.length );
+        }
+
+        return sb.toString();
+    }
+
+    private void nextChunk()
+    {
+        int size = ( current == null ) ? FIRST_CHUNK_SIZE : Math.min( current.length * 2, MAX_CHUNK_SIZE );
+
+        current = new char[size];
+        position = 0;
+        chunks.add( current );
+    }
+
+    /**
+     * Move the content to a temporary file if it got longer than the threshold.
+     */
+    private void checkSpillThreshold()
+    {
+        if ( spillThreshold <= 0 || length <= spillThreshold )
+        {
+            return;
+        }
+
+        try
+        {
+            spillFile = File.createTempFile( "doxia-content", ".tmp" );
+            spillFile.deleteOnExit();
+            spillOut = new FileOutputStream( spillFile );
+        }
+        catch ( IOException e )
+        {
+            // no temporary file: keep the content in memory
+            if ( spillFile != null )
+            {
+                spillFile.delete();
+                spillFile = null;
+            }
+            spillThreshold = 0;
+
+            return;
+        }
+
+        spillBuffer = new byte[SPILL_BUFFER_SIZE];
+        spillChars = new char[SPILL_BUFFER_SIZE / 2];
+
+        for ( char[] chunk : chunks )
+        {
+            spill( chunk, 0, ( chunk == current ) ? position : chunk.length );
+        }
+
+        chunks.clear();
+        current = null;
+        position = 0;
+    }
+
+    /**
+     * Write a character to the temporary file, as 2 bytes, so that any content is kept as is.
+     */
+    private void spill( char c )
+    {
+        if ( spillPosition == spillBuffer.length )
+        {
+            flushSpillBuffer();
+        }
+
+        spillBuffer[spillPosition++] = (byte) ( c >> 8 );
+        spillBuffer[spillPosition++] = (byte) c;
+    }
+
+    /**
+     * Write characters to the temporary file, as 2 bytes each, filling the buffer block by block.
+     */
+    private void spill( char[] cbuf, int off, int len )
+    {
+        int offset = off;
+        int remaining = len;
+
+        while ( remaining > 0 )
+        {
+            if ( spillPosition == spillBuffer.length )
+            {
+                flushSpillBuffer();
+            }
+
+            int n = Math.min( remaining, ( spillBuffer.length - spillPosition ) / 2 );
+            for ( int i = offset, end = offset + n; i < end; i++ )
+            {
+                char c = cbuf[i];
+                spillBuffer[spillPosition++] = (byte) ( c >> 8 );
+                spillBuffer[spillPosition++] = (byte) c;
+            }
+
+            offset += n;
+            remaining -= n;
+        }
+    }
+
+    private void flushSpillBuffer()
+    {
+        if ( spillError == null )
+        {
+            try
+            {
+                spillOut.write( spillBuffer, 0, spillPosition );
+            }
+            catch ( IOException e )
+            {
+                spillError = e;
+            }
+        }
+
+        spillPosition = 0;
+    }
+
+    /**
+     * Reads the chunks of the buffer, up to the length it had when the reader was created.
+     */
+    private class ChunkReader
+        extends Reader
+    {
+        private int remaining = length;
+
+        private int chunkIndex;
+
+        private int offset;
+
+        /** {@inheritDoc} */
+        @Override
+        public int read( char[] cbuf, int off, int len )
+        {
+            if ( remaining == 0 )
+            {
+                return -1;
+            }
+
+            if ( len == 0 )
+            {
+                return 0;
+            }
+
+            char[] chunk = chunks.get( chunkIndex );
+            int n = Math.min( Math.min( len, remaining ), chunk.length - offset );
+
+            System.arraycopy( chunk, offset, cbuf, off, n );
+            offset += n;
+            remaining -= n;
+
+            if ( offset == chunk.length )
+            {
+                chunkIndex++;
+                offset = 0;
+            }
+
+            return n;
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public void close()
+        {
+            remaining = 0;
+        }
+    }
+
+    /**
+     * Reads the temporary file, up to the length the buffer had when the reader was created. The file is only
+     * opened by the first read.
+     */
+    private class SpillReader
+        extends Reader
+    {
+        private int remaining = length;
+
+        private DataInputStream in;
+
+        private final byte[] bytes = new byte[SPILL_BUFFER_SIZE];
+
+        SpillReader()
+        {
+            flushSpillBuffer();
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public int read( char[] cbuf, int off, int len )
+            throws IOException
+        {
+            if ( spillError != null )
+            {
+                IOException ioe = new IOException( "Unable to write " + spillFile + ": " + spillError.getMessage() );
+                ioe.initCause( spillError );
+                throw ioe;
+            }
+
+            if ( remaining == 0 )
+            {
+                return -1;
+            }
+
+            if ( len == 0 )
+            {
+                return 0;
+            }
+
+            if ( in == null )
+            {
+                in = new DataInputStream( new FileInputStream( spillFile ) );
+            }
+
+            int n = Math.min( Math.min( len, remaining ), bytes.length / 2 );
+
+            in.readFully( bytes, 0, 2 * n );
+            for ( int i = 0; i < n; i++ )
+            {
+                cbuf[off + i] = (char) ( ( ( bytes[2 * i] & 0xFF ) << 8 ) | ( bytes[2 * i + 1] & 0xFF ) );
+            }
+            remaining -= n;
+
+            return n;
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public void close()
+        {
+            remaining = 0;
+
+            IOUtil.close( in );
+        }
+    }
+}
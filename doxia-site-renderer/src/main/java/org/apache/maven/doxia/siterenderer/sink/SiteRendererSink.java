@@ -19,8 +19,6 @@ package org.apache.maven.doxia.siterenderer.sink;
  * under the License.
  */
 
-import java.io.StringWriter;
-import java.io.Writer;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
@@ -46,13 +44,26 @@ public class SiteRendererSink
     extends XhtmlSink
     implements Sink, org.codehaus.doxia.sink.Sink
 {
+    private static final String RELATIVE_PATH = "$relativePath";
+
+    /** The beginnings of the placeholder, indexed by length. */
+    private static final String[] RELATIVE_PATH_PREFIXES = new String[RELATIVE_PATH.length()];
+
+    static
+    {
+        for ( int i = 0; i < RELATIVE_PATH_PREFIXES.length; i++ )
+        {
+            RELATIVE_PATH_PREFIXES[i] = RELATIVE_PATH.substring( 0, i );
+        }
+    }
+
     private String date = "";
 
     private String title = "";
 
     private List<String> authors = new ArrayList<String>();
 
-    private final StringWriter headWriter;
+    private final ContentBuffer headWriter;
 
     private StringBuffer sectionTitleBuffer;
 
@@ -62,10 +73,16 @@ public class SiteRendererSink
 
     private Set<String> anchorsInSectionTitle;
 
-    private final Writer writer;
+    private final ContentBuffer writer;
 
     private RenderingContext renderingContext;
 
+    /** The number of placeholder characters held back at the end of the last write. */
+    private int pendingRelativePath;
+
+    /** The depth of the tables being written: the parent sink buffers their content until they end. */
+    private int tableDepth;
+
     /**
      * Construct a new SiteRendererSink.
      *
@@ -73,21 +90,37 @@ public class SiteRendererSink
      */
     public SiteRendererSink( RenderingContext renderingContext )
     {
-        this( new StringWriter(), renderingContext );
+        this( renderingContext, 0 );
+    }
+
+    /**
+     * Construct a new SiteRendererSink, moving its head and body content to temporary files above a length.
+     * The temporary files are deleted by {@link #dispose()}.
+     *
+     * @param renderingContext the RenderingContext.
+     * @param spillThreshold the number of characters above which the head or body content moves to a temporary
+     * file, 0 to keep them in memory.
+     * @see ContentBuffer#ContentBuffer(int)
+     * @since 1.4
+     */
+    public SiteRendererSink( RenderingContext renderingContext, int spillThreshold )
+    {
+        this( new ContentBuffer( spillThreshold ), new ContentBuffer( spillThreshold ), renderingContext );
     }
 
     /**
      * Construct a new SiteRendererSink.
      *
      * @param writer the writer for the sink.
+     * @param headWriter the writer for the head content.
      * @param renderingContext the RenderingContext.
      */
-    private SiteRendererSink( StringWriter writer, RenderingContext renderingContext )
+    private SiteRendererSink( ContentBuffer writer, ContentBuffer headWriter, RenderingContext renderingContext )
     {
         super( writer );
 
         this.writer = writer;
-        this.headWriter = new StringWriter();
+        this.headWriter = headWriter;
         this.renderingContext = renderingContext;
     }
 
@@ -202,9 +235,25 @@ public class SiteRendererSink
      */
     public String getBody()
     {
+        writePendingRelativePath();
+
         return writer.toString();
     }
 
+    /**
+     * Get the body content without copying it to a <code>String</code>, for instance to stream it
+     * to the output.
+     *
+     * @return the buffer holding the body content.
+     * @since 1.4
+     */
+    public ContentBuffer getBodyContent()
+    {
+        writePendingRelativePath();
+
+        return writer;
+    }
+
     /**
      * <p>getHead.</p>
      *
@@ -217,6 +266,30 @@ public class SiteRendererSink
         return headWriter.toString();
     }
 
+    /**
+     * Get the head content without copying it to a <code>String</code>, for instance to stream it
+     * to the output.
+     *
+     * @return the buffer holding the head content.
+     * @since 1.4
+     */
+    public ContentBuffer getHeadContent()
+    {
+        return headWriter;
+    }
+
+    /**
+     * Release the head and body content, deleting their temporary files if any. Nothing can be read from this
+     * sink afterwards.
+     *
+     * @since 1.4
+     */
+    public void dispose()
+    {
+        headWriter.dispose();
+        writer.dispose();
+    }
+
     /** {@inheritDoc} */
     @Override
     public void head_()
@@ -309,31 +382,158 @@ public class SiteRendererSink
 
     /** {@inheritDoc} */
     @Override
-    protected void write( String text )
+    public void table( SinkEventAttributes attributes )
+    {
+        tableDepth++;
+
+        super.table( attributes );
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void table_()
+    {
+        super.table_();
+
+        tableDepth--;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void flush()
+    {
+        writePendingRelativePath();
+
+        super.flush();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void close()
     {
-        String txt = text;
+        writePendingRelativePath();
+
+        super.close();
+    }
 
+    /**
+     * {@inheritDoc}
+     *
+     * Replace the <code>$relativePath</code> placeholders in the body by the relative path of the document.
+     * Text without any placeholder is written as is, without creating any new object.
+     */
+    @Override
+    protected void write( String text )
+    {
         if ( isHeadFlag() )
         {
-            headWriter.write( unifyEOLs( txt ) );
+            headWriter.write( unifyEOLs( text ) );
 
             return;
         }
 
-        if ( renderingContext != null )
+        if ( renderingContext == null || ( pendingRelativePath == 0 && text.indexOf( '$' ) < 0 ) )
+        {
+            super.write( text );
+
+            return;
+        }
+
+        String relativePath = renderingContext.getRelativePath();
+        if ( relativePath == null )
+        {
+            relativePath = ".";
+        }
+
+        int length = text.length();
+        int start = 0;
+
+        // ranges of text without line separators to unify, outside of tables, go straight to the body buffer
+        boolean direct = tableDepth == 0 && "\n".equals( EOL ) && text.indexOf( '\r' ) < 0;
+
+        if ( pendingRelativePath > 0 )
+        {
+            // the previous write ended with the beginning of a placeholder
+            int held = pendingRelativePath;
+            int needed = RELATIVE_PATH.length() - held;
+            pendingRelativePath = 0;
+
+            if ( text.regionMatches( 0, RELATIVE_PATH, held, Math.min( needed, length ) ) )
+            {
+                if ( length < needed )
+                {
+                    pendingRelativePath = held + length;
+
+                    return;
+                }
+
+                super.write( relativePath );
+                start = needed;
+            }
+            else
+            {
+                super.write( RELATIVE_PATH_PREFIXES[held] );
+            }
+        }
+
+        int pos = start;
+        for ( int i = text.indexOf( '$', pos ); i >= 0; i = text.indexOf( '$', pos ) )
         {
-            String relativePathToBasedir = renderingContext.getRelativePath();
+            if ( text.startsWith( RELATIVE_PATH, i ) )
+            {
+                writeRange( text, start, i, direct );
+                super.write( relativePath );
 
-            if ( relativePathToBasedir == null )
+                start = i + RELATIVE_PATH.length();
+                pos = start;
+            }
+            else if ( length - i < RELATIVE_PATH.length() && RELATIVE_PATH.regionMatches( 0, text, i, length - i ) )
             {
-                txt = StringUtils.replace( txt, "$relativePath", "." );
+                // the placeholder may continue in the next write: hold its beginning back
+                writeRange( text, start, i, direct );
+                pendingRelativePath = length - i;
+
+                return;
             }
             else
             {
-                txt = StringUtils.replace( txt, "$relativePath", relativePathToBasedir );
+                pos = i + 1;
             }
         }
 
-        super.write( txt );
+        writeRange( text, start, length, direct );
+    }
+
+    private void writeRange( String text, int start, int end, boolean direct )
+    {
+        if ( start == 0 && end == text.length() )
+        {
+            super.write( text );
+        }
+        else if ( start < end )
+        {
+            if ( direct )
+            {
+                writer.write( text, start, end - start );
+            }
+            else
+            {
+                super.write( text.substring( start, end ) );
+            }
+        }
+    }
+
+    /**
+     * Write the beginning of a placeholder held back by the last write, when no more text can complete it.
+     */
+    private void writePendingRelativePath()
+    {
+        if ( pendingRelativePath > 0 )
+        {
+            int held = pendingRelativePath;
+            pendingRelativePath = 0;
+
+            super.write( RELATIVE_PATH_PREFIXES[held] );
+        }
     }
 }
@@ -20,13 +20,19 @@ package org.apache.maven.doxia.siterenderer;
  */
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.FileReader;
+import java.io.FilenameFilter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.Reader;
 import java.io.StringWriter;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -34,6 +40,7 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.jar.JarOutputStream;
+import java.util.zip.GZIPInputStream;
 import java.util.zip.ZipEntry;
 
 import org.apache.commons.io.IOUtils;
@@ -43,8 +50,11 @@ import org.apache.maven.doxia.site.decoration.io.xpp3.DecorationXpp3Reader;
 import org.apache.maven.doxia.siterenderer.sink.SiteRendererSink;
 import org.apache.maven.doxia.xsd.AbstractXmlValidator;
 import org.codehaus.plexus.PlexusTestCase;
+import org.codehaus.plexus.logging.Logger;
+import org.codehaus.plexus.logging.console.ConsoleLogger;
 import org.codehaus.plexus.util.FileUtils;
 import org.codehaus.plexus.util.IOUtil;
+import org.codehaus.plexus.util.Os;
 import org.codehaus.plexus.util.ReaderFactory;
 import org.codehaus.plexus.util.StringUtils;
 import org.xml.sax.EntityResolver;
@@ -176,6 +186,732 @@ public class DefaultSiteRendererTest
         validatePages();
     }
     
+    /**
+     * @throws Exception if something goes wrong.
+     */
+    public void testRenderWithManifest()
+        throws Exception
+    {
+        File output = getTestFile( "target/output-manifest" );
+        FileUtils.deleteDirectory( output );
+
+        DecorationModel decoration = new DecorationXpp3Reader()
+            .read( new FileReader( getTestFile( "src/test/resources/site/site.xml" ) ) );
+
+        SiteRenderingContext ctxt = getSiteRenderingContext( decoration, "src/test/resources/site", false );
+        ctxt.setRenderingManifest( true );
+        renderer.render( renderer.locateDocumentFiles( ctxt ).values(), ctxt, output );
+
+        assertTrue( new File( output, RenderingManifest.FILE_NAME ).isFile() );
+
+        // unchanged inputs: the output is not regenerated, even if its timestamp is older than the source
+        File apt = new File( output, "apt.html" );
+        FileUtils.fileWrite( apt.getAbsolutePath(), "unchanged" );
+        apt.setLastModified( 0 );
+        renderer.render( renderer.locateDocumentFiles( ctxt ).values(), ctxt, output );
+        assertEquals( "unchanged", FileUtils.fileRead( apt ) );
+
+        // a changed global input invalidates the output
+        Map<String, String> templateProp = new HashMap<String, String>();
+        templateProp.put( "outputEncoding", "ISO-8859-1" );
+        ctxt.setTemplateProperties( templateProp );
+        renderer.render( renderer.locateDocumentFiles( ctxt ).values(), ctxt, output );
+        assertFalse( "unchanged".equals( FileUtils.fileRead( apt ) ) );
+    }
+
+    /**
+     * @throws Exception if something goes wrong.
+     */
+    public void testManifestVelocityIncludes()
+        throws Exception
+    {
+        File site = getTestFile( "target/manifest-includes-site" );
+        File output = getTestFile( "target/output-manifest-includes" );
+        FileUtils.deleteDirectory( site );
+        FileUtils.deleteDirectory( output );
+
+        File source = new File( site, "apt/index.apt.vm" );
+        source.getParentFile().mkdirs();
+        FileUtils.fileWrite( source.getAbsolutePath(),
+                             " ------\n Index\n ------\n\nSection\n\n#parse( \"fragment.txt\" )\n" );
+        File fragment = new File( site, "apt/fragment.txt" );
+        FileUtils.fileWrite( fragment.getAbsolutePath(), " first fragment\n" );
+
+        SiteRenderingContext ctxt =
+            getSiteRenderingContext( new DecorationModel(), "target/manifest-includes-site", false );
+        ctxt.setRenderingManifest( true );
+        renderer.render( renderer.locateDocumentFiles( ctxt ).values(), ctxt, output );
+
+        File html = new File( output, "index.html" );
+        assertTrue( FileUtils.fileRead( html ).indexOf( "first fragment" ) > 0 );
+
+        // nothing changed: the output is not regenerated
+        FileUtils.fileWrite( html.getAbsolutePath(), "unchanged" );
+        renderer.render( renderer.locateDocumentFiles( ctxt ).values(), ctxt, output );
+        assertEquals( "unchanged", FileUtils.fileRead( html ) );
+
+        // the included file changed, not the source
+        FileUtils.fileWrite( fragment.getAbsolutePath(), " second fragment\n" );
+        renderer.render( renderer.locateDocumentFiles( ctxt ).values(), ctxt, output );
+        assertTrue( FileUtils.fileRead( html ).indexOf( "second fragment" ) > 0 );
+    }
+
+    /**
+     * The manifest forgets a document being rendered until it is written, and the documents no longer rendered.
+     *
+     * @throws Exception if something goes wrong.
+     */
+    public void testManifestPruned()
+        throws Exception
+    {
+        File output = getTestFile( "target/output-manifest-pruned" );
+        FileUtils.deleteDirectory( output );
+        output.mkdirs();
+
+        File source = new File( output, "source.apt" );
+        FileUtils.fileWrite( source.getAbsolutePath(), "source" );
+
+        byte[][] globalInputs = new byte[RenderingManifest.INPUT_COUNT][];
+        for ( int i = 0; i < globalInputs.length; i++ )
+        {
+            globalInputs[i] = new byte[] { (byte) i };
+        }
+        List<String> noIncludes = Collections.emptyList();
+
+        RenderingManifest manifest = RenderingManifest.load( output, globalInputs );
+        manifest.update( "kept.html", manifest.inputs( "kept.html", source ), source, noIncludes );
+        manifest.update( "deleted.html", manifest.inputs( "deleted.html", source ), source, noIncludes );
+        manifest.update( "failed.html", manifest.inputs( "failed.html", source ), source, noIncludes );
+        manifest.save();
+
+        // deleted.html is no longer rendered, failed.html fails to render
+        manifest = RenderingManifest.load( output, globalInputs );
+        assertNull( manifest.getChanges( "kept.html", manifest.inputs( "kept.html", source ) ) );
+        assertNull( manifest.getChanges( "failed.html", manifest.inputs( "failed.html", source ) ) );
+        manifest.remove( "failed.html" );
+        manifest.prune();
+        manifest.save();
+
+        manifest = RenderingManifest.load( output, globalInputs );
+        assertNull( manifest.getChanges( "kept.html", manifest.inputs( "kept.html", source ) ) );
+        assertEquals( "not rendered before",
+                      manifest.getChanges( "deleted.html", manifest.inputs( "deleted.html", source ) ) );
+        assertEquals( "not rendered before",
+                      manifest.getChanges( "failed.html", manifest.inputs( "failed.html", source ) ) );
+    }
+
+    /**
+     * @throws Exception if something goes wrong.
+     */
+    public void testManifestTemplateProperties()
+        throws Exception
+    {
+        File site = getTestFile( "target/manifest-properties-site" );
+        File output = getTestFile( "target/output-manifest-properties" );
+        FileUtils.deleteDirectory( site );
+        FileUtils.deleteDirectory( output );
+
+        File source = new File( site, "apt/index.apt" );
+        source.getParentFile().mkdirs();
+        FileUtils.fileWrite( source.getAbsolutePath(), " ------\n Index\n ------\n\nSection\n\n text\n" );
+
+        SiteRenderingContext ctxt =
+            getSiteRenderingContext( new DecorationModel(), "target/manifest-properties-site", false );
+        ctxt.setRenderingManifest( true );
+        Map<String, Object> templateProp = new HashMap<String, Object>();
+        templateProp.put( "outputEncoding", "UTF-8" );
+        templateProp.put( "count", Integer.valueOf( 1 ) );
+        templateProp.put( "flag", Boolean.TRUE );
+        ctxt.setTemplateProperties( templateProp );
+        renderer.render( renderer.locateDocumentFiles( ctxt ).values(), ctxt, output );
+
+        // strings, numbers and booleans are compared by value
+        File html = new File( output, "index.html" );
+        FileUtils.fileWrite( html.getAbsolutePath(), "unchanged" );
+        ctxt.setTemplateProperties( new HashMap<String, Object>( templateProp ) );
+        renderer.render( renderer.locateDocumentFiles( ctxt ).values(), ctxt, output );
+        assertEquals( "unchanged", FileUtils.fileRead( html ) );
+
+        // any other object cannot be compared: the document is always rendered
+        templateProp.put( "object", new Object() );
+        ctxt.setTemplateProperties( templateProp );
+        renderer.render( renderer.locateDocumentFiles( ctxt ).values(), ctxt, output );
+        assertFalse( "unchanged".equals( FileUtils.fileRead( html ) ) );
+
+        FileUtils.fileWrite( html.getAbsolutePath(), "unchanged" );
+        renderer.render( renderer.locateDocumentFiles( ctxt ).values(), ctxt, output );
+        assertFalse( "unchanged".equals( FileUtils.fileRead( html ) ) );
+    }
+
+    /**
+     * Render a generated site, of <code>doxia.scale.documents</code> documents: 200 by default.
+     *
+     * @throws Exception if something goes wrong.
+     */
+    public void testGeneratedSite()
+        throws Exception
+    {
+        File site = getTestFile( "target/generated-site" );
+        File output = getTestFile( "target/output-generated" );
+        FileUtils.deleteDirectory( site );
+        FileUtils.deleteDirectory( output );
+
+        SiteGenerator generator = new SiteGenerator();
+        generator.setDocuments( Integer.getInteger( "doxia.scale.documents", 200 ).intValue() );
+        generator.setDepth( 4 );
+        List<String> sources = generator.generate( site );
+
+        DecorationModel decoration = new DecorationXpp3Reader().read( new FileReader( new File( site, "site.xml" ) ) );
+
+        SiteRenderingContext ctxt = getSiteRenderingContext( decoration, "target/generated-site", false );
+        ctxt.setThreadCount( Math.max( 4, Runtime.getRuntime().availableProcessors() ) );
+        renderer.render( renderer.locateDocumentFiles( ctxt ).values(), ctxt, output );
+
+        // rendered again by a single thread: the documents rendered in parallel must be the same
+        File sequentialOutput = getTestFile( "target/output-generated-sequential" );
+        FileUtils.deleteDirectory( sequentialOutput );
+        ctxt = getSiteRenderingContext( decoration, "target/generated-site", false );
+        ctxt.setThreadCount( 1 );
+        renderer.render( renderer.locateDocumentFiles( ctxt ).values(), ctxt, sequentialOutput );
+
+        for ( String source : sources )
+        {
+            // apt/a/b.apt.vm -> a/b.html
+            String name = source.substring( source.indexOf( '/' ) + 1 );
+            name = name.substring( 0, name.indexOf( '.' ) ) + ".html";
+
+            assertTrue( name, new File( output, name ).length() > 0 );
+            assertTrue( name, Arrays.equals( readBytes( new File( sequentialOutput, name ) ),
+                                             readBytes( new File( output, name ) ) ) );
+        }
+    }
+
+    /**
+     * Documents rendered to the same output clash, documents rendered to outputs differing only by case clash on
+     * Windows only.
+     *
+     * @throws Exception if something goes wrong.
+     */
+    public void testLocateDocumentFilesClashes()
+        throws Exception
+    {
+        File site = getTestFile( "target/clashing-site" );
+        FileUtils.deleteDirectory( site );
+
+        File apt = new File( site, "apt/Index.apt" );
+        apt.getParentFile().mkdirs();
+        FileUtils.fileWrite( apt.getAbsolutePath(), " ------\n Index\n ------\n\nSection\n" );
+
+        File xdoc = new File( site, "xdoc/index.xml" );
+        xdoc.getParentFile().mkdirs();
+        FileUtils.fileWrite( xdoc.getAbsolutePath(), "<document><body><section name=\"Index\"/></body></document>" );
+
+        SiteRenderingContext ctxt = getSiteRenderingContext( new DecorationModel(), "target/clashing-site", false );
+
+        if ( Os.isFamily( Os.FAMILY_WINDOWS ) )
+        {
+            try
+            {
+                renderer.locateDocumentFiles( ctxt );
+                fail( "Index.apt and index.xml should clash" );
+            }
+            catch ( RendererException e )
+            {
+                assertTrue( e.getMessage(), e.getMessage().indexOf( "clashes with existing" ) > 0 );
+            }
+        }
+        else
+        {
+            Map<String, DocumentRenderer> files = renderer.locateDocumentFiles( ctxt );
+            assertTrue( files.containsKey( "Index.html" ) );
+            assertTrue( files.containsKey( "index.html" ) );
+        }
+
+        // same output name whatever the platform
+        assertTrue( apt.renameTo( new File( site, "apt/index.apt" ) ) );
+
+        try
+        {
+            renderer.locateDocumentFiles( ctxt );
+            fail( "index.apt and index.xml should clash" );
+        }
+        catch ( RendererException e )
+        {
+            assertTrue( e.getMessage(), e.getMessage().indexOf( "clashes with existing" ) > 0 );
+        }
+    }
+
+    /**
+     * @throws Exception if something goes wrong.
+     */
+    public void testWriteIfChanged()
+        throws Exception
+    {
+        File site = getTestFile( "target/write-if-changed-site" );
+        File output = getTestFile( "target/output-write-if-changed" );
+        FileUtils.deleteDirectory( site );
+        FileUtils.deleteDirectory( output );
+
+        File source = new File( site, "apt/index.apt" );
+        source.getParentFile().mkdirs();
+        FileUtils.fileWrite( source.getAbsolutePath(), " ------\n Index\n ------\n\nSection\n\n first\n" );
+
+        SiteRenderingContext ctxt =
+            getSiteRenderingContext( new DecorationModel(), "target/write-if-changed-site", false );
+        ctxt.setWriteIfChanged( true );
+        renderer.render( renderer.locateDocumentFiles( ctxt ).values(), ctxt, output );
+
+        File html = new File( output, "index.html" );
+        assertTrue( FileUtils.fileRead( html ).indexOf( "first" ) > 0 );
+
+        // rendered again to the same content: the file is left untouched
+        html.setLastModified( source.lastModified() - 60000 );
+        long lastModified = html.lastModified();
+        renderer.render( renderer.locateDocumentFiles( ctxt ).values(), ctxt, output );
+        assertEquals( lastModified, html.lastModified() );
+
+        // rendered to a new content: the file is replaced
+        FileUtils.fileWrite( source.getAbsolutePath(), " ------\n Index\n ------\n\nSection\n\n second\n" );
+        renderer.render( renderer.locateDocumentFiles( ctxt ).values(), ctxt, output );
+        assertTrue( FileUtils.fileRead( html ).indexOf( "second" ) > 0 );
+        assertTrue( html.lastModified() > lastModified );
+    }
+
+    /**
+     * A page longer than the buffers, streamed through the template and compared to its output file while
+     * rendered, changing after a long unchanged part.
+     *
+     * @throws Exception if something goes wrong.
+     */
+    public void testWriteIfChangedStreamingBody()
+        throws Exception
+    {
+        File site = getTestFile( "target/write-if-changed-streaming-site" );
+        File output = getTestFile( "target/output-write-if-changed-streaming" );
+        FileUtils.deleteDirectory( site );
+        FileUtils.deleteDirectory( output );
+
+        String paragraphs = StringUtils.repeat( " unchanged paragraph\n\n", 2000 );
+
+        File source = new File( site, "apt/index.apt" );
+        source.getParentFile().mkdirs();
+        FileUtils.fileWrite( source.getAbsolutePath(), " ------\n Index\n ------\n\nSection\n\n" + paragraphs
+            + " first\n" );
+
+        SiteRenderingContext ctxt =
+            getSiteRenderingContext( new DecorationModel(), "target/write-if-changed-streaming-site", false );
+        ctxt.setWriteIfChanged( true );
+        ctxt.setStreamingBody( true );
+        ctxt.setSpillThreshold( 1024 );
+        renderer.render( renderer.locateDocumentFiles( ctxt ).values(), ctxt, output );
+
+        File html = new File( output, "index.html" );
+        String first = FileUtils.fileRead( html );
+        assertTrue( first.indexOf( "first" ) > 0 );
+        assertTrue( first.indexOf( "</html>" ) > 0 );
+
+        // unchanged: left untouched
+        html.setLastModified( source.lastModified() - 60000 );
+        long lastModified = html.lastModified();
+        renderer.render( renderer.locateDocumentFiles( ctxt ).values(), ctxt, output );
+        assertEquals( lastModified, html.lastModified() );
+        assertEquals( first, FileUtils.fileRead( html ) );
+
+        // changed after the unchanged paragraphs: the whole page is written
+        FileUtils.fileWrite( source.getAbsolutePath(), " ------\n Index\n ------\n\nSection\n\n" + paragraphs
+            + " second\n" );
+        renderer.render( renderer.locateDocumentFiles( ctxt ).values(), ctxt, output );
+        String second = FileUtils.fileRead( html );
+        assertTrue( html.lastModified() > lastModified );
+        assertEquals( first.replace( "first", "second" ), second );
+
+        // no temporary file left
+        assertEquals( 1, output.listFiles( new FilenameFilter()
+        {
+            public boolean accept( File dir, String name )
+            {
+                return name.startsWith( "index.html" );
+            }
+        } ).length );
+    }
+
+    /**
+     * @throws Exception if something goes wrong.
+     */
+    public void testGzipSidecars()
+        throws Exception
+    {
+        File site = getTestFile( "target/gzip-site" );
+        File output = getTestFile( "target/output-gzip" );
+        FileUtils.deleteDirectory( site );
+        FileUtils.deleteDirectory( output );
+
+        File source = new File( site, "apt/index.apt" );
+        source.getParentFile().mkdirs();
+        FileUtils.fileWrite( source.getAbsolutePath(), " ------\n Index\n ------\n\nSection\n\n compressed\n" );
+
+        SiteRenderingContext ctxt = getSiteRenderingContext( new DecorationModel(), "target/gzip-site", false );
+        ctxt.setGzipSidecars( true );
+        renderer.render( renderer.locateDocumentFiles( ctxt ).values(), ctxt, output );
+
+        File html = new File( output, "index.html" );
+        File sidecar = new File( output, "index.html.gz" );
+        assertTrue( sidecar.isFile() );
+        assertEquals( html.lastModified(), sidecar.lastModified() );
+        InputStream in = new GZIPInputStream( new FileInputStream( sidecar ) );
+        try
+        {
+            assertEquals( FileUtils.fileRead( html, "UTF-8" ), IOUtil.toString( in, "UTF-8" ) );
+        }
+        finally
+        {
+            IOUtil.close( in );
+        }
+
+        assertTrue( new File( output, "css/site.css.gz" ).isFile() );
+
+        // an unchanged page keeps its sidecar
+        ctxt.setWriteIfChanged( true );
+        sidecar.setLastModified( html.lastModified() - 60000 );
+        html.setLastModified( html.lastModified() - 60000 );
+        long lastModified = sidecar.lastModified();
+        renderer.render( renderer.locateDocumentFiles( ctxt ).values(), ctxt, output );
+        assertEquals( lastModified, sidecar.lastModified() );
+    }
+
+    /**
+     * @throws Exception if something goes wrong.
+     */
+    public void testRenderListener()
+        throws Exception
+    {
+        File site = getTestFile( "target/listener-site" );
+        File output = getTestFile( "target/output-listener" );
+        FileUtils.deleteDirectory( site );
+        FileUtils.deleteDirectory( output );
+
+        for ( String name : new String[] { "index", "other" } )
+        {
+            File source = new File( site, "apt/" + name + ".apt" );
+            source.getParentFile().mkdirs();
+            FileUtils.fileWrite( source.getAbsolutePath(), " ------\n Title\n ------\n\nSection\n\n text\n" );
+        }
+
+        final List<String> events = Collections.synchronizedList( new ArrayList<String>() );
+        SiteRenderingContext ctxt = getSiteRenderingContext( new DecorationModel(), "target/listener-site", false );
+        ctxt.addRenderListener( new RenderListener()
+        {
+            public void renderingStarted( int documentCount )
+            {
+                events.add( "start " + documentCount );
+            }
+
+            public void documentStarted( String document )
+            {
+                events.add( "document " + document );
+            }
+
+            public void phaseStarted( String document, RenderPhase phase )
+            {
+                events.add( phase + " " + document );
+            }
+
+            public void phaseEnded( String document, RenderPhase phase, long nanos, long size )
+            {
+                assertTrue( nanos >= 0 );
+                assertTrue( size >= -1 );
+            }
+
+            public void documentEnded( String document, long nanos, long outputSize )
+            {
+                assertTrue( nanos >= 0 );
+                assertTrue( outputSize > 0 );
+            }
+
+            public void resourcesCopied( long nanos )
+            {
+                events.add( "resources" );
+            }
+
+            public void renderingEnded()
+            {
+                events.add( "end" );
+            }
+        } );
+        RenderingTimeReport report = new RenderingTimeReport( new ConsoleLogger( Logger.LEVEL_INFO, "test" ), 1 );
+        ctxt.addRenderListener( report );
+
+        renderer.render( renderer.locateDocumentFiles( ctxt ).values(), ctxt, output );
+
+        assertEquals( "start 2", events.get( 0 ) );
+        assertTrue( events.contains( "document index.html" ) );
+        assertTrue( events.contains( "parsing index.html" ) );
+        assertTrue( events.contains( "template other.html" ) );
+        assertFalse( events.contains( "validation index.html" ) );
+        assertEquals( "resources", events.get( events.size() - 2 ) );
+        assertEquals( "end", events.get( events.size() - 1 ) );
+
+        assertEquals( 1, report.getSlowestDocuments().size() );
+        assertNotNull( report.getHistogram( RenderPhase.PARSING ) );
+        assertNull( report.getHistogram( RenderPhase.VELOCITY ) );
+
+        // the report logged by the renderer listens to the rendering only
+        ctxt.setTimingReport( true );
+        renderer.render( renderer.locateDocumentFiles( ctxt ).values(), ctxt, output );
+        assertEquals( 2, ctxt.getRenderListeners().size() );
+    }
+
+    /**
+     * @throws Exception if something goes wrong.
+     */
+    public void testVelocitySource()
+        throws Exception
+    {
+        File site = getTestFile( "target/velocity-site" );
+        File output = getTestFile( "target/output-velocity" );
+        FileUtils.deleteDirectory( site );
+        FileUtils.deleteDirectory( output );
+
+        File source = new File( site, "apt/merged.apt.vm" );
+        source.getParentFile().mkdirs();
+        FileUtils.fileWrite( source.getAbsolutePath(),
+                             "#set( $word = \"merged\" )\n ------\n Velocity\n ------\n\nSection\n\n $word text\n" );
+
+        SiteRenderingContext ctxt = getSiteRenderingContext( new DecorationModel(), "target/velocity-site", false );
+        renderer.render( renderer.locateDocumentFiles( ctxt ).values(), ctxt, output );
+
+        assertTrue( FileUtils.fileRead( new File( output, "merged.html" ) ).indexOf( "merged text" ) > 0 );
+    }
+
+    /**
+     * @throws Exception if something goes wrong.
+     */
+    public void testPreviewServer()
+        throws Exception
+    {
+        DecorationModel decoration = new DecorationXpp3Reader()
+            .read( new FileReader( getTestFile( "src/test/resources/site/site.xml" ) ) );
+
+        SiteRenderingContext ctxt = getSiteRenderingContext( decoration, "src/test/resources/site", false );
+        SitePreviewServer server = new SitePreviewServer( renderer, ctxt, 0 );
+        server.start();
+        try
+        {
+            String root = "http://localhost:" + server.getPort() + "/";
+
+            HttpURLConnection connection = (HttpURLConnection) new URL( root + "apt.html" ).openConnection();
+            assertEquals( 200, connection.getResponseCode() );
+            assertTrue( connection.getContentType().startsWith( "text/html" ) );
+            assertTrue( IOUtil.toString( connection.getInputStream(), "UTF-8" ).indexOf( "<html" ) >= 0 );
+            assertEquals( 1, server.getRenderedCount() );
+
+            // the page is cached while its source does not change
+            connection = (HttpURLConnection) new URL( root + "apt.html" ).openConnection();
+            assertEquals( 200, connection.getResponseCode() );
+            assertEquals( 1, server.getRenderedCount() );
+
+            connection = (HttpURLConnection) new URL( root + "css/site.css" ).openConnection();
+            assertEquals( 200, connection.getResponseCode() );
+            assertEquals( "text/css", connection.getContentType() );
+
+            connection = (HttpURLConnection) new URL( root + "missing.html" ).openConnection();
+            assertEquals( 404, connection.getResponseCode() );
+
+            connection = (HttpURLConnection) new URL( root + "../pom.xml" ).openConnection();
+            assertEquals( 404, connection.getResponseCode() );
+        }
+        finally
+        {
+            server.stop();
+        }
+    }
+
+    /**
+     * The preview serves the resources the rendering copies, and nothing outside of the site resources.
+     *
+     * @throws Exception if something goes wrong.
+     */
+    public void testPreviewServerResources()
+        throws Exception
+    {
+        File site = getTestFile( "target/preview-resources-site" );
+        FileUtils.deleteDirectory( site );
+
+        File print = new File( site, "resources/css/print.css" );
+        print.getParentFile().mkdirs();
+        FileUtils.fileWrite( print.getAbsolutePath(), "site print" );
+
+        File skinFile = getTestFile( "target/preview-resources-skin.jar" );
+        JarOutputStream jar = new JarOutputStream( new FileOutputStream( skinFile ) );
+        try
+        {
+            for ( String name : new String[] { "css/print.css", "css/maven-base.css", "images/skin.png" } )
+            {
+                jar.putNextEntry( new ZipEntry( name ) );
+                jar.write( ( "skin " + name ).getBytes( "UTF-8" ) );
+                jar.closeEntry();
+            }
+        }
+        finally
+        {
+            IOUtil.close( jar );
+        }
+
+        SiteRenderingContext ctxt =
+            getSiteRenderingContext( new DecorationModel(), "target/preview-resources-site", false );
+        ctxt.setSkinJarFile( skinFile );
+
+        SitePreviewServer server = new SitePreviewServer( renderer, ctxt, 0 );
+        server.start();
+        try
+        {
+            // copied in this order: skin, default template, site resources
+            assertEquals( "site print", new String( server.getPage( "/css/print.css" ).content, "UTF-8" ) );
+            assertFalse( new String( server.getPage( "/css/maven-base.css" ).content, "UTF-8" ).startsWith( "skin" ) );
+            assertEquals( "skin images/skin.png",
+                          new String( server.getPage( "/images/skin.png" ).content, "UTF-8" ) );
+
+            assertNull( server.getPage( "/css/../../../pom.xml" ) );
+            assertNull( server.getPage( "/css\\..\\..\\..\\pom.xml" ) );
+            assertNull( server.getPage( "/" + site.getAbsolutePath() + "/resources/css/print.css" ) );
+        }
+        finally
+        {
+            server.stop();
+        }
+    }
+
+    /**
+     * A cached page is rendered again when a file its source included, or the decoration model, changes.
+     *
+     * @throws Exception if something goes wrong.
+     */
+    public void testPreviewServerInputs()
+        throws Exception
+    {
+        File site = getTestFile( "target/preview-inputs-site" );
+        FileUtils.deleteDirectory( site );
+
+        File source = new File( site, "apt/index.apt.vm" );
+        source.getParentFile().mkdirs();
+        FileUtils.fileWrite( source.getAbsolutePath(),
+                             " ------\n Index\n ------\n\nSection\n\n#parse( \"fragment.txt\" )\n" );
+        File fragment = new File( site, "apt/fragment.txt" );
+        FileUtils.fileWrite( fragment.getAbsolutePath(), " first fragment\n" );
+
+        DecorationModel decoration = new DecorationModel();
+        SiteRenderingContext ctxt = getSiteRenderingContext( decoration, "target/preview-inputs-site", false );
+
+        SitePreviewServer server = new SitePreviewServer( renderer, ctxt, 0 );
+        server.start();
+        try
+        {
+            String page = new String( server.getPage( "/index.html" ).content, "UTF-8" );
+            assertTrue( page.indexOf( "first fragment" ) > 0 );
+            assertEquals( 1, server.getRenderedCount() );
+
+            server.getPage( "/index.html" );
+            assertEquals( 1, server.getRenderedCount() );
+
+            // the included file changed, not the source
+            FileUtils.fileWrite( fragment.getAbsolutePath(), " second fragment\n" );
+            page = new String( server.getPage( "/index.html" ).content, "UTF-8" );
+            assertTrue( page.indexOf( "second fragment" ) > 0 );
+            assertEquals( 2, server.getRenderedCount() );
+
+            // the decoration model changed: noticed once the shared inputs are digested again
+            decoration.setName( "Renamed" );
+            Thread.sleep( SitePreviewServer.RELOCATE_INTERVAL );
+            server.getPage( "/index.html" );
+            assertEquals( 3, server.getRenderedCount() );
+        }
+        finally
+        {
+            server.stop();
+        }
+    }
+
+    /**
+     * @throws Exception if something goes wrong.
+     */
+    public void testWatcher()
+        throws Exception
+    {
+        File site = getTestFile( "target/watched-site" );
+        File output = getTestFile( "target/output-watched" );
+        FileUtils.deleteDirectory( site );
+        FileUtils.deleteDirectory( output );
+
+        File index = new File( site, "apt/index.apt" );
+        index.getParentFile().mkdirs();
+        FileUtils.fileWrite( index.getAbsolutePath(), " ------\n Watched\n ------\n\nSection\n\n first version\n" );
+
+        SiteRenderingContext ctxt = getSiteRenderingContext( new DecorationModel(), "target/watched-site", false );
+        SiteRenderingWatcher watcher = new SiteRenderingWatcher( (DefaultSiteRenderer) renderer, ctxt, output );
+        watcher.start();
+
+        File html = new File( output, "index.html" );
+        assertTrue( FileUtils.fileRead( html ).indexOf( "first version" ) > 0 );
+        assertEquals( 0, watcher.check() );
+
+        // an edited document is rendered again
+        FileUtils.fileWrite( index.getAbsolutePath(), " ------\n Watched\n ------\n\nSection\n\n second version\n" );
+        index.setLastModified( index.lastModified() + 2000 );
+        assertEquals( 1, watcher.check() );
+        assertTrue( FileUtils.fileRead( html ).indexOf( "second version" ) > 0 );
+
+        // a new document is found and rendered
+        File other = new File( site, "apt/other.apt" );
+        FileUtils.fileWrite( other.getAbsolutePath(), " ------\n Other\n ------\n\nSection\n\n other\n" );
+        other.getParentFile().setLastModified( other.getParentFile().lastModified() + 2000 );
+        assertEquals( 1, watcher.check() );
+        assertTrue( new File( output, "other.html" ).exists() );
+
+        // the output of a deleted document is deleted
+        assertTrue( other.delete() );
+        other.getParentFile().setLastModified( other.getParentFile().lastModified() + 2000 );
+        assertEquals( 0, watcher.check() );
+        assertFalse( new File( output, "other.html" ).exists() );
+        assertTrue( html.exists() );
+    }
+
+    /**
+     * A document is rendered again when a file it includes changed.
+     *
+     * @throws Exception if something goes wrong.
+     */
+    public void testWatcherIncludes()
+        throws Exception
+    {
+        File site = getTestFile( "target/watched-includes-site" );
+        File output = getTestFile( "target/output-watched-includes" );
+        FileUtils.deleteDirectory( site );
+        FileUtils.deleteDirectory( output );
+
+        File source = new File( site, "apt/index.apt.vm" );
+        source.getParentFile().mkdirs();
+        FileUtils.fileWrite( source.getAbsolutePath(),
+                             " ------\n Index\n ------\n\nSection\n\n#parse( \"fragment.txt\" )\n" );
+        File fragment = new File( site, "apt/fragment.txt" );
+        FileUtils.fileWrite( fragment.getAbsolutePath(), " first fragment\n" );
+
+        SiteRenderingContext ctxt =
+            getSiteRenderingContext( new DecorationModel(), "target/watched-includes-site", false );
+        SiteRenderingWatcher watcher = new SiteRenderingWatcher( (DefaultSiteRenderer) renderer, ctxt, output );
+        watcher.start();
+
+        File html = new File( output, "index.html" );
+        assertTrue( FileUtils.fileRead( html ).indexOf( "first fragment" ) > 0 );
+        assertEquals( 0, watcher.check() );
+
+        // the included file changed, not the source
+        FileUtils.fileWrite( fragment.getAbsolutePath(), " second fragment\n" );
+        fragment.setLastModified( fragment.lastModified() + 2000 );
+        assertEquals( 1, watcher.check() );
+        assertTrue( FileUtils.fileRead( html ).indexOf( "second fragment" ) > 0 );
+        assertEquals( 0, watcher.check() );
+    }
+
     public void testVelocityToolManager()
         throws Exception
     {
@@ -191,6 +927,116 @@ public class DefaultSiteRendererTest
         String expectedResult = IOUtils.toString( getClass().getResourceAsStream( "velocity-toolmanager.expected.txt" ) );
         assertEquals( expectedResult, renderResult );
     }
+
+    public void testTemplateCache()
+        throws Exception
+    {
+        SiteRenderingContext siteRenderingContext = new SiteRenderingContext();
+        siteRenderingContext.setTemplateName( "org/apache/maven/doxia/siterenderer/velocity-toolmanager.vm" );
+        RenderingContext context = new RenderingContext( new File( "" ), "document.html" );
+
+        StringWriter first = new StringWriter();
+        renderer.generateDocument( first, new SiteRendererSink( context ), siteRenderingContext );
+        StringWriter second = new StringWriter();
+        renderer.generateDocument( second, new SiteRendererSink( context ), siteRenderingContext );
+
+        assertEquals( first.toString(), second.toString() );
+        assertEquals( 1, siteRenderingContext.getTemplateCacheMisses() );
+        assertEquals( 1, siteRenderingContext.getTemplateCacheHits() );
+    }
+
+    public void testDocumentValues()
+        throws Exception
+    {
+        SiteRenderingContext siteRenderingContext = new SiteRenderingContext();
+        siteRenderingContext.setTemplateName( "org/apache/maven/doxia/siterenderer/document-values.vm" );
+        siteRenderingContext.setLocale( Locale.FRENCH );
+        Map<String, String> templateProp = new HashMap<String, String>();
+        templateProp.put( "siteValue", "site" );
+        siteRenderingContext.setTemplateProperties( templateProp );
+
+        // documents sharing the site values each see their own values
+        assertEquals( "first.html First site fr",
+                      generateTitledDocument( "first.html", "First", siteRenderingContext ) );
+        assertEquals( "dir/second.html Second site fr",
+                      generateTitledDocument( "dir/second.html", "Second", siteRenderingContext ) );
+
+        // new site values are seen by the next document
+        templateProp = new HashMap<String, String>();
+        templateProp.put( "siteValue", "changed" );
+        siteRenderingContext.setTemplateProperties( templateProp );
+        siteRenderingContext.setLocale( Locale.GERMAN );
+        assertEquals( "third.html Third changed de",
+                      generateTitledDocument( "third.html", "Third", siteRenderingContext ) );
+
+        // like any template property, one named after a document value takes precedence
+        templateProp.put( "shortTitle", "property" );
+        siteRenderingContext.setTemplateProperties( new HashMap<String, String>( templateProp ) );
+        assertEquals( "fourth.html property changed de",
+                      generateTitledDocument( "fourth.html", "Fourth", siteRenderingContext ) );
+    }
+
+    private String generateTitledDocument( String outputName, String title,
+                                           SiteRenderingContext siteRenderingContext )
+        throws Exception
+    {
+        SiteRendererSink sink = new SiteRendererSink( new RenderingContext( new File( "" ), outputName ) );
+        sink.title();
+        sink.text( title );
+        sink.title_();
+        sink.flush();
+
+        StringWriter writer = new StringWriter();
+        renderer.generateDocument( writer, sink, siteRenderingContext );
+        return writer.toString();
+    }
+
+    public void testStreamingBody()
+        throws Exception
+    {
+        SiteRenderingContext siteRenderingContext = new SiteRenderingContext();
+        siteRenderingContext.setTemplateName( "org/apache/maven/doxia/siterenderer/body-content.vm" );
+        RenderingContext context = new RenderingContext( new File( "" ), "document.html" );
+
+        SiteRendererSink sink = new SiteRendererSink( context );
+        sink.paragraph();
+        sink.text( StringUtils.repeat( "streamed body ", 10000 ) );
+        sink.paragraph_();
+        sink.flush();
+
+        StringWriter expected = new StringWriter();
+        renderer.generateDocument( expected, sink, siteRenderingContext );
+
+        siteRenderingContext.setStreamingBody( true );
+        StringWriter streamed = new StringWriter();
+        renderer.generateDocument( streamed, sink, siteRenderingContext );
+
+        assertTrue( expected.toString().indexOf( "streamed body streamed body" ) > 0 );
+        assertEquals( expected.toString(), streamed.toString() );
+    }
+
+    public void testSpilledBody()
+        throws Exception
+    {
+        SiteRenderingContext siteRenderingContext = new SiteRenderingContext();
+        siteRenderingContext.setTemplateName( "org/apache/maven/doxia/siterenderer/body-content.vm" );
+        siteRenderingContext.setStreamingBody( true );
+        RenderingContext context = new RenderingContext( new File( "" ), "document.html" );
+
+        SiteRendererSink sink = new SiteRendererSink( context, 1024 );
+        sink.paragraph();
+        sink.text( StringUtils.repeat( "spilled body ", 10000 ) );
+        sink.paragraph_();
+        sink.flush();
+
+        assertTrue( sink.getBodyContent().isSpilled() );
+
+        StringWriter out = new StringWriter();
+        renderer.generateDocument( out, sink, siteRenderingContext );
+        sink.dispose();
+
+        assertTrue( out.toString().indexOf( StringUtils.repeat( "spilled body ", 10000 ) ) > 0 );
+    }
     
     public void testVelocityToolManagerForTemplate() throws Exception 
     {
@@ -225,6 +1071,20 @@ public class DefaultSiteRendererTest
         assertEquals( expectedResult, renderResult );
     }
     
+    private static byte[] readBytes( File file )
+        throws IOException
+    {
+        InputStream in = new FileInputStream( file );
+        try
+        {
+            return IOUtil.toByteArray( in );
+        }
+        finally
+        {
+            IOUtil.close( in );
+        }
+    }
+
     private SiteRenderingContext getSiteRenderingContext( DecorationModel decoration, String siteDir, boolean validate )
     {
         SiteRenderingContext ctxt = new SiteRenderingContext();
@@ -0,0 +1,92 @@
+package org.apache.maven.doxia.siterenderer;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+
+import org.codehaus.plexus.PlexusTestCase;
+import org.codehaus.plexus.util.FileUtils;
+import org.codehaus.plexus.util.IOUtil;
+
+/**
+ * @version $Id$
+ */
+public class SidecarCompressorTest
+    extends PlexusTestCase
+{
+    /**
+     * A file rewritten with the same size and last modification date as its sidecar is compressed again.
+     *
+     * @throws Exception if something goes wrong.
+     */
+    public void testStaleWithSameDate()
+        throws Exception
+    {
+        File dir = getTestFile( "target/sidecar-compressor" );
+        FileUtils.deleteDirectory( dir );
+        dir.mkdirs();
+
+        File file = new File( dir, "page.html" );
+        FileUtils.fileWrite( file.getAbsolutePath(), "first" );
+        long lastModified = file.lastModified();
+
+        assertTrue( SidecarCompressor.isStale( file ) );
+        assertEquals( 1, compressIfStale( file ) );
+        assertFalse( SidecarCompressor.isStale( file ) );
+
+        // unchanged: the sidecar is kept
+        assertEquals( 0, compressIfStale( file ) );
+
+        // rewritten in the same timestamp interval, to the same size
+        FileUtils.fileWrite( file.getAbsolutePath(), "other" );
+        file.setLastModified( lastModified );
+        assertTrue( SidecarCompressor.isStale( file ) );
+        assertEquals( 1, compressIfStale( file ) );
+
+        InputStream in = new GZIPInputStream( new FileInputStream( new File( dir, "page.html.gz" ) ) );
+        try
+        {
+            assertEquals( "other", IOUtil.toString( in, "UTF-8" ) );
+        }
+        finally
+        {
+            IOUtil.close( in );
+        }
+    }
+
+    private static int compressIfStale( File file )
+        throws Exception
+    {
+        SidecarCompressor compressor = new SidecarCompressor( 1 );
+        try
+        {
+            compressor.compressIfStale( file );
+
+            return compressor.finish();
+        }
+        finally
+        {
+            compressor.close();
+        }
+    }
+}
@@ -0,0 +1,600 @@
+package org.apache.maven.doxia.siterenderer;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.codehaus.plexus.util.IOUtil;
+
+/**
+ * Generates a site of apt, xdoc, fml and Velocity apt documents with a matching <code>site.xml</code>, to test
+ * or benchmark the renderers at scale. The generated site only depends on the settings, including the seed.
+ * <p>
+ * Documents are spread over a directory tree, and their sizes follow a log-normal distribution around a median:
+ * a few documents are much bigger than the others. The <code>site.xml</code> has a menu for each top level
+ * directory, with an item for every document.
+ * </p>
+ * <p>
+ * From the command line, with the test classpath:
+ * <code>SiteGenerator &lt;site directory&gt; [documents=10000] [seed=1] [depth=5] ...</code>,
+ * a setting for each setter.
+ * </p>
+ *
+ * @version $Id$
+ * @since 1.4
+ */
+public class SiteGenerator
+{
+    private static final String[] WORDS = { "site", "document", "render", "template", "skin", "menu", "module",
+        "report", "parser", "sink", "velocity", "resource", "output", "source", "project", "release", "plugin",
+        "build", "artifact", "version", "lorem", "ipsum", "dolor", "amet", "consectetur", "adipiscing", "elit",
+        "sed", "tempor", "incididunt", "labore", "magna", "aliqua", "enim", "minim", "veniam", "quis", "nostrud",
+        "exercitation", "ullamco" };
+
+    private long seed = 1;
+
+    private int documents = 100;
+
+    private int aptWeight = 4;
+
+    private int xdocWeight = 3;
+
+    private int fmlWeight = 2;
+
+    private int velocityWeight = 1;
+
+    private int depth = 3;
+
+    private int width = 5;
+
+    private int sections = 3;
+
+    private int faqEntries = 10;
+
+    private double spread = 1.0;
+
+    private int maxSize = 1000;
+
+    private int resources = 10;
+
+    private Random random;
+
+    /**
+     * @param seed the seed of the generated content, 1 by default.
+     */
+    public void setSeed( long seed )
+    {
+        this.seed = seed;
+    }
+
+    /**
+     * @param documents the number of documents, 100 by default.
+     */
+    public void setDocuments( int documents )
+    {
+        this.documents = documents;
+    }
+
+    /**
+     * @param aptWeight the relative weight of apt documents, 4 by default.
+     */
+    public void setAptWeight( int aptWeight )
+    {
+        this.aptWeight = aptWeight;
+    }
+
+    /**
+     * @param xdocWeight the relative weight of xdoc documents, 3 by default.
+     */
+    public void setXdocWeight( int xdocWeight )
+    {
+        this.xdocWeight = xdocWeight;
+    }
+
+    /**
+     * @param fmlWeight the relative weight of FAQ documents, 2 by default.
+     */
+    public void setFmlWeight( int fmlWeight )
+    {
+        this.fmlWeight = fmlWeight;
+    }
+
+    /**
+     * @param velocityWeight the relative weight of Velocity apt documents, 1 by default.
+     */
+    public void setVelocityWeight( int velocityWeight )
+    {
+        this.velocityWeight = velocityWeight;
+    }
+
+    /**
+     * @param depth the maximum depth of a document in the directory tree of its format, 3 by default.
+     */
+    public void setDepth( int depth )
+    {
+        this.depth = depth;
+    }
+
+    /**
+     * @param width the number of subdirectories of a directory, 5 by default.
+     */
+    public void setWidth( int width )
+    {
+        this.width = width;
+    }
+
+    /**
+     * @param sections the median number of sections of a document, 3 by default.
+     */
+    public void setSections( int sections )
+    {
+        this.sections = sections;
+    }
+
+    /**
+     * @param faqEntries the median number of questions of a FAQ document, 10 by default.
+     */
+    public void setFaqEntries( int faqEntries )
+    {
+        this.faqEntries = faqEntries;
+    }
+
+    /**
+     * @param spread the standard deviation of the logarithm of the document sizes, 1 by default: 0 gives
+     * documents of the median size only.
+     */
+    public void setSpread( double spread )
+    {
+        this.spread = spread;
+    }
+
+    /**
+     * @param maxSize the maximum number of sections or questions of a document, 1000 by default.
+     */
+    public void setMaxSize( int maxSize )
+    {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * @param resources the number of resource files per 100 documents, 10 by default.
+     */
+    public void setResources( int resources )
+    {
+        this.resources = resources;
+    }
+
+    /**
+     * Write the site.
+     *
+     * @param siteDirectory the site directory, created if missing.
+     * @return the paths of the generated documents, relative to the site directory, like <code>apt/a/b.apt</code>.
+     * @throws IOException if a file cannot be written.
+     */
+    public List<String> generate( File siteDirectory )
+        throws IOException
+    {
+        random = new Random( seed );
+
+        List<String> sources = new ArrayList<String>();
+        Directory menus = new Directory();
+
+        int totalWeight = aptWeight + xdocWeight + fmlWeight + velocityWeight;
+        for ( int i = 0; i < documents; i++ )
+        {
+            StringBuilder path = new StringBuilder();
+            for ( int level = random.nextInt( depth + 1 ); level > 0; level-- )
+            {
+                path.append( "dir-" ).append( random.nextInt( width ) ).append( '/' );
+            }
+            path.append( "page-" ).append( i );
+            String name = path.toString();
+
+            int kind = random.nextInt( totalWeight );
+            String source;
+            String title = capitalize( words( 4 ) );
+            if ( ( kind -= aptWeight ) < 0 )
+            {
+                source = "apt/" + name + ".apt";
+                write( new File( siteDirectory, source ), apt( title, false ) );
+            }
+            else if ( ( kind -= xdocWeight ) < 0 )
+            {
+                source = "xdoc/" + name + ".xml";
+                write( new File( siteDirectory, source ), xdoc( title ) );
+            }
+            else if ( ( kind -= fmlWeight ) < 0 )
+            {
+                source = "fml/" + name + ".fml";
+                write( new File( siteDirectory, source ), fml( title ) );
+            }
+            else
+            {
+                source = "apt/" + name + ".apt.vm";
+                write( new File( siteDirectory, source ), apt( title, true ) );
+            }
+
+            sources.add( source );
+            menus.add( name, title );
+        }
+
+        for ( int i = 0; i < documents * resources / 100; i++ )
+        {
+            writeResource( new File( siteDirectory, "resources/images/image-" + i + ".png" ) );
+        }
+
+        write( new File( siteDirectory, "site.xml" ), decoration( menus ) );
+
+        return sources;
+    }
+
+    /**
+     * The documents of a directory and its subdirectories, sorted by name.
+     */
+    private static class Directory
+    {
+        private final Map<String, String> documents = new TreeMap<String, String>();
+
+        private final Map<String, Directory> directories = new TreeMap<String, Directory>();
+
+        void add( String path, String title )
+        {
+            Directory directory = this;
+
+            int start = 0;
+            for ( int slash = path.indexOf( '/' ); slash >= 0; slash = path.indexOf( '/', start ) )
+            {
+                String name = path.substring( start, slash );
+                Directory child = directory.directories.get( name );
+                if ( child == null )
+                {
+                    child = new Directory();
+                    directory.directories.put( name, child );
+                }
+                directory = child;
+                start = slash + 1;
+            }
+
+            directory.documents.put( path, title );
+        }
+
+        /** @return the path of a document of this directory or of a subdirectory. */
+        String getFirstDocument()
+        {
+            if ( !documents.isEmpty() )
+            {
+                return documents.keySet().iterator().next();
+            }
+            return directories.values().iterator().next().getFirstDocument();
+        }
+    }
+
+    private String decoration( Directory root )
+    {
+        StringBuilder xml = new StringBuilder( "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" );
+        xml.append( "<project xmlns=\"http://maven.apache.org/DECORATION/1.0.0\" name=\"Generated site\">\n" );
+        xml.append( "  <body>\n" );
+
+        if ( !root.documents.isEmpty() )
+        {
+            xml.append( "    <menu name=\"Pages\">\n" );
+            appendItems( xml, root.documents, "      " );
+            xml.append( "    </menu>\n" );
+        }
+
+        for ( Map.Entry<String, Directory> entry : root.directories.entrySet() )
+        {
+            xml.append( "    <menu name=\"" ).append( entry.getKey() ).append( "\">\n" );
+            appendItems( xml, entry.getKey(), entry.getValue(), "      " );
+            xml.append( "    </menu>\n" );
+        }
+
+        return xml.append( "  </body>\n</project>\n" ).toString();
+    }
+
+    private static void appendItems( StringBuilder xml, String path, Directory directory, String indent )
+    {
+        appendItems( xml, directory.documents, indent );
+
+        for ( Map.Entry<String, Directory> entry : directory.directories.entrySet() )
+        {
+            xml.append( indent ).append( "<item name=\"" ).append( path ).append( '/' ).append( entry.getKey() );
+            xml.append( "\" href=\"" ).append( entry.getValue().getFirstDocument() ).append( ".html\"" );
+            xml.append( " collapse=\"true\">\n" );
+            appendItems( xml, path + '/' + entry.getKey(), entry.getValue(), indent + "  " );
+            xml.append( indent ).append( "</item>\n" );
+        }
+    }
+
+    private static void appendItems( StringBuilder xml, Map<String, String> documents, String indent )
+    {
+        for ( Map.Entry<String, String> document : documents.entrySet() )
+        {
+            xml.append( indent ).append( "<item name=\"" ).append( document.getValue() ).append( "\" href=\"" );
+            xml.append( document.getKey() ).append( ".html\"/>\n" );
+        }
+    }
+
+    private String apt( String title, boolean velocity )
+    {
+        StringBuilder apt = new StringBuilder();
+
+        if ( velocity )
+        {
+            apt.append( "#set( $project = \"" ).append( words( 2 ) ).append( "\" )\n" );
+        }
+
+        apt.append( " ------\n " ).append( title ).append( "\n ------\n\n" );
+
+        for ( int section = 0, count = size( sections ); section < count; section++ )
+        {
+            apt.append( capitalize( words( 3 ) ) ).append( "\n\n" );
+
+            for ( int paragraph = 0, paragraphs = 1 + random.nextInt( 4 ); paragraph < paragraphs; paragraph++ )
+            {
+                apt.append( "  " ).append( velocity ? "${project}: " : "" ).append( sentences() ).append( "\n\n" );
+            }
+
+            apt.append( "* " ).append( capitalize( words( 2 ) ) ).append( "\n\n" );
+
+            for ( int item = 0, items = 2 + random.nextInt( 5 ); item < items; item++ )
+            {
+                apt.append( "  * " ).append( words( 6 ) ).append( "\n\n" );
+            }
+            apt.append( "  []\n\n" );
+
+            apt.append( "+----+\n" ).append( words( 5 ) ).append( '\n' ).append( words( 5 ) ).append( "\n+----+\n\n" );
+        }
+
+        return apt.toString();
+    }
+
+    private String xdoc( String title )
+    {
+        StringBuilder xdoc = new StringBuilder( "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" );
+        xdoc.append( "<document xmlns=\"http://maven.apache.org/XDOC/2.0\">\n" );
+        xdoc.append( "  <properties>\n    <title>" ).append( title ).append( "</title>\n  </properties>\n" );
+        xdoc.append( "  <body>\n" );
+
+        for ( int section = 0, count = size( sections ); section < count; section++ )
+        {
+            xdoc.append( "    <section name=\"" ).append( capitalize( words( 3 ) ) ).append( "\">\n" );
+            xdoc.append( "      <p>" ).append( sentences() ).append( "</p>\n" );
+            xdoc.append( "      <subsection name=\"" ).append( capitalize( words( 2 ) ) ).append( "\">\n" );
+            xdoc.append( "        <p>" ).append( sentences() ).append( "</p>\n" );
+            xdoc.append( "        <source>" ).append( words( 8 ) ).append( "</source>\n" );
+            xdoc.append( "        <table>\n" );
+            for ( int row = 0, rows = 2 + random.nextInt( 6 ); row < rows; row++ )
+            {
+                xdoc.append( "          <tr><td>" ).append( words( 1 ) ).append( "</td><td>" ).append( words( 5 ) );
+                xdoc.append( "</td></tr>\n" );
+            }
+            xdoc.append( "        </table>\n" );
+            xdoc.append( "      </subsection>\n" );
+            xdoc.append( "    </section>\n" );
+        }
+
+        return xdoc.append( "  </body>\n</document>\n" ).toString();
+    }
+
+    private String fml( String title )
+    {
+        StringBuilder fml = new StringBuilder( "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" );
+        fml.append( "<faqs xmlns=\"http://maven.apache.org/FML/1.0.1\" title=\"" ).append( title ).append( "\">\n" );
+
+        int questions = size( faqEntries );
+        for ( int part = 0; questions > 0; part++ )
+        {
+            fml.append( "  <part id=\"part-" ).append( part ).append( "\">\n" );
+            fml.append( "    <title>" ).append( capitalize( words( 2 ) ) ).append( "</title>\n" );
+
+            for ( int faq = 0, faqs = Math.min( questions, 2 + random.nextInt( 10 ) ); faq < faqs; faq++ )
+            {
+                fml.append( "    <faq id=\"faq-" ).append( part ).append( '-' ).append( faq ).append( "\">\n" );
+                fml.append( "      <question>" ).append( capitalize( words( 6 ) ) ).append( "?</question>\n" );
+                fml.append( "      <answer><p>" ).append( sentences() ).append( "</p></answer>\n" );
+                fml.append( "    </faq>\n" );
+                questions--;
+            }
+
+            fml.append( "  </part>\n" );
+        }
+
+        return fml.append( "</faqs>\n" ).toString();
+    }
+
+    /**
+     * @return a size of the log-normal distribution around the median.
+     */
+    private int size( int median )
+    {
+        long size = Math.round( median * Math.exp( spread * random.nextGaussian() ) );
+
+        return (int) Math.max( 1, Math.min( maxSize, size ) );
+    }
+
+    private String sentences()
+    {
+        StringBuilder sentences = new StringBuilder();
+        for ( int i = 0, count = 2 + random.nextInt( 6 ); i < count; i++ )
+        {
+            if ( i > 0 )
+            {
+                sentences.append( ' ' );
+            }
+            sentences.append( capitalize( words( 6 + random.nextInt( 14 ) ) ) ).append( '.' );
+        }
+        return sentences.toString();
+    }
+
+    private String words( int count )
+    {
+        StringBuilder words = new StringBuilder();
+        for ( int i = 0; i < count; i++ )
+        {
+            if ( i > 0 )
+            {
+                words.append( ' ' );
+            }
+            words.append( WORDS[random.nextInt( WORDS.length )] );
+        }
+        return words.toString();
+    }
+
+    private static String capitalize( String text )
+    {
+        return Character.toUpperCase( text.charAt( 0 ) ) + text.substring( 1 );
+    }
+
+    private void writeResource( File file )
+        throws IOException
+    {
+        file.getParentFile().mkdirs();
+
+        byte[] content = new byte[1024 + random.nextInt( 16 * 1024 )];
+        random.nextBytes( content );
+
+        OutputStream out = new FileOutputStream( file );
+        try
+        {
+            out.write( content );
+        }
+        finally
+        {
+            IOUtil.close( out );
+        }
+    }
+
+    private static void write( File file, String content )
+        throws IOException
+    {
+        file.getParentFile().mkdirs();
+
+        FileUtils.fileWrite( file.getPath(), "UTF-8", content );
+    }
+
+    /**
+     * Generate a site from the command line.
+     *
+     * @param args the site directory, then settings like <code>documents=10000</code>.
+     * @throws Exception if something goes wrong.
+     */
+    public static void main( String[] args )
+        throws Exception
+    {
+        if ( args.length == 0 )
+        {
+            System.err.println( "Usage: SiteGenerator <site directory> [documents=100] [seed=1] [aptWeight=4]"
+                + " [xdocWeight=3] [fmlWeight=2] [velocityWeight=1] [depth=3] [width=5] [sections=3]"
+                + " [faqEntries=10] [spread=1.0] [maxSize=1000] [resources=10]" );
+            System.exit( 1 );
+        }
+
+        SiteGenerator generator = new SiteGenerator();
+        for ( int i = 1; i < args.length; i++ )
+        {
+            int equals = args[i].indexOf( '=' );
+            if ( equals < 0 )
+            {
+                throw new IllegalArgumentException( "Not a setting: " + args[i] );
+            }
+            generator.set( args[i].substring( 0, equals ), args[i].substring( equals + 1 ) );
+        }
+
+        long start = System.currentTimeMillis();
+        List<String> sources = generator.generate( new File( args[0] ) );
+        System.out.println( "Generated " + sources.size() + " documents in " + args[0] + " in "
+            + ( System.currentTimeMillis() - start ) + " ms" );
+    }
+
+    private void set( String name, String value )
+    {
+        if ( "seed".equals( name ) )
+        {
+            setSeed( Long.parseLong( value ) );
+        }
+        else if ( "spread".equals( name ) )
+        {
+            setSpread( Double.parseDouble( value ) );
+        }
+        else
+        {
+            int number = Integer.parseInt( value );
+
+            if ( "documents".equals( name ) )
+            {
+                setDocuments( number );
+            }
+            else if ( "aptWeight".equals( name ) )
+            {
+                setAptWeight( number );
+            }
+            else if ( "xdocWeight".equals( name ) )
+            {
+                setXdocWeight( number );
+            }
+            else if ( "fmlWeight".equals( name ) )
+            {
+                setFmlWeight( number );
+            }
+            else if ( "velocityWeight".equals( name ) )
+            {
+                setVelocityWeight( number );
+            }
+            else if ( "depth".equals( name ) )
+            {
+                setDepth( number );
+            }
+            else if ( "width".equals( name ) )
+            {
+                setWidth( number );
+            }
+            else if ( "sections".equals( name ) )
+            {
+                setSections( number );
+            }
+            else if ( "faqEntries".equals( name ) )
+            {
+                setFaqEntries( number );
+            }
+            else if ( "maxSize".equals( name ) )
+            {
+                setMaxSize( number );
+            }
+            else if ( "resources".equals( name ) )
+            {
+                setResources( number );
+            }
+            else
+            {
+                throw new IllegalArgumentException( "Unknown setting: " + name );
+            }
+        }
+    }
+}
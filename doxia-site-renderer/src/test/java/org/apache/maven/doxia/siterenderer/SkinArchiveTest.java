@@ -0,0 +1,90 @@
+package org.apache.maven.doxia.siterenderer;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.codehaus.plexus.PlexusTestCase;
+import org.codehaus.plexus.util.IOUtil;
+
+/**
+ * @version $Id$
+ */
+public class SkinArchiveTest
+    extends PlexusTestCase
+{
+    /**
+     * An unchanged skin jar has to be read once, a changed one has to be read again.
+     *
+     * @throws Exception if something goes wrong.
+     */
+    public void testChangedSkinReloaded()
+        throws Exception
+    {
+        File skinFile = getTestFile( "target/skin-archive/skin.jar" );
+        skinFile.getParentFile().mkdirs();
+
+        writeSkin( skinFile, "css/site.css" );
+        skinFile.setLastModified( 1000000000000L );
+
+        SkinArchive skin = SkinArchive.get( skinFile );
+        assertFalse( skin.hasTemplate() );
+        assertNotNull( skin.getEntry( "css/site.css" ) );
+        assertSame( skin, SkinArchive.get( skinFile ) );
+
+        ClassLoader classLoader = skin.getClassLoader();
+        assertSame( classLoader, skin.getClassLoader() );
+        skin.acquire();
+
+        writeSkin( skinFile, DefaultSiteRenderer.SKIN_TEMPLATE_LOCATION );
+        skinFile.setLastModified( 1000000002000L );
+
+        SkinArchive reloaded = SkinArchive.get( skinFile );
+        assertNotSame( skin, reloaded );
+        assertTrue( reloaded.hasTemplate() );
+        assertNull( reloaded.getEntry( "css/site.css" ) );
+        assertNotSame( classLoader, reloaded.getClassLoader() );
+        assertSame( reloaded, SkinArchive.get( skinFile ) );
+
+        // contexts created from the previous index keep its class loader until the renderer releases it
+        assertSame( classLoader, skin.getClassLoader() );
+        skin.release();
+        assertNotSame( classLoader, skin.getClassLoader() );
+    }
+
+    private static void writeSkin( File skinFile, String entryName )
+        throws Exception
+    {
+        ZipOutputStream out = new ZipOutputStream( new FileOutputStream( skinFile ) );
+        try
+        {
+            out.putNextEntry( new ZipEntry( entryName ) );
+            out.write( "content".getBytes( "UTF-8" ) );
+            out.closeEntry();
+        }
+        finally
+        {
+            IOUtil.close( out );
+        }
+    }
+}
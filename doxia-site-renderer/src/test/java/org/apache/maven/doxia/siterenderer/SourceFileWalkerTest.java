@@ -0,0 +1,161 @@
+package org.apache.maven.doxia.siterenderer;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.File;
+import java.util.List;
+
+import org.codehaus.plexus.PlexusTestCase;
+import org.codehaus.plexus.util.FileUtils;
+
+/**
+ * @version $Id$
+ */
+public class SourceFileWalkerTest
+    extends PlexusTestCase
+{
+    /**
+     * The walk has to find the same files, in the same order, as the DirectoryScanner it replaces.
+     *
+     * @throws Exception if something goes wrong.
+     */
+    @SuppressWarnings( "unchecked" )
+    public void testSameFilesAsDirectoryScanner()
+        throws Exception
+    {
+        File basedir = getTestFile( "src/test/resources/site" );
+        SourceFileWalker walker = new SourceFileWalker();
+
+        List<String> walked = walker.walk( basedir );
+        assertFalse( walked.isEmpty() );
+        assertEquals( FileUtils.getFileNames( basedir, "**/*.*", null, false ), walked );
+
+        String excludes = "**/*.apt,xdoc/";
+        assertEquals( FileUtils.getFileNames( basedir, "**/*.*", excludes, false ),
+                      SourceFileWalker.exclude( walked, excludes ) );
+    }
+
+    /**
+     * A cached walk has to give the same result, and reuse the listing of unchanged directories.
+     *
+     * @throws Exception if something goes wrong.
+     */
+    public void testCachedWalk()
+        throws Exception
+    {
+        File basedir = getTestFile( "src/test/resources/site" );
+        File cacheDirectory = getTestFile( "target/source-walker-cache" );
+        FileUtils.deleteDirectory( cacheDirectory );
+
+        List<String> expected = new SourceFileWalker().walk( basedir );
+
+        CachingSourceFileWalker walker = new CachingSourceFileWalker( cacheDirectory );
+        assertEquals( expected, walker.walk( basedir ) );
+        assertEquals( 0, walker.getReusedCount() );
+        walker.save();
+
+        walker = new CachingSourceFileWalker( cacheDirectory );
+        assertEquals( expected, walker.walk( basedir ) );
+        assertTrue( walker.getReusedCount() > 0 );
+    }
+
+    /**
+     * A directory whose last modification date did not change is not listed again: a file added behind the
+     * walker's back, restoring the directory date, is not seen.
+     *
+     * @throws Exception if something goes wrong.
+     */
+    public void testUnchangedDirectoryNotListed()
+        throws Exception
+    {
+        File basedir = createSourceTree( "target/source-walker-unchanged" );
+        File cacheDirectory = getTestFile( "target/source-walker-unchanged-cache" );
+        FileUtils.deleteDirectory( cacheDirectory );
+
+        long past = System.currentTimeMillis() - 10 * CachingSourceFileWalker.RACY_INTERVAL;
+        setDirectoriesLastModified( basedir, past );
+
+        CachingSourceFileWalker walker = new CachingSourceFileWalker( cacheDirectory );
+        List<String> walked = walker.walk( basedir );
+        assertEquals( 2, walker.getListedCount() );
+        walker.save();
+
+        File added = new File( basedir, "apt/added.apt" );
+        FileUtils.fileWrite( added.getPath(), "added" );
+        setDirectoriesLastModified( basedir, past );
+
+        walker = new CachingSourceFileWalker( cacheDirectory );
+        assertEquals( walked, walker.walk( basedir ) );
+        assertEquals( 0, walker.getListedCount() );
+        assertEquals( 2, walker.getReusedCount() );
+    }
+
+    /**
+     * A directory listed less than {@link CachingSourceFileWalker#RACY_INTERVAL} after it changed is listed
+     * again, even if its last modification date did not change since.
+     *
+     * @throws Exception if something goes wrong.
+     */
+    public void testRacyDirectoryListedAgain()
+        throws Exception
+    {
+        File basedir = createSourceTree( "target/source-walker-racy" );
+        File cacheDirectory = getTestFile( "target/source-walker-racy-cache" );
+        FileUtils.deleteDirectory( cacheDirectory );
+
+        // changed just now, in the same timestamp interval as the listing
+        long now = System.currentTimeMillis();
+        setDirectoriesLastModified( basedir, now );
+
+        CachingSourceFileWalker walker = new CachingSourceFileWalker( cacheDirectory );
+        List<String> walked = walker.walk( basedir );
+        assertFalse( walked.contains( "apt" + File.separator + "added.apt" ) );
+        walker.save();
+
+        File added = new File( basedir, "apt/added.apt" );
+        FileUtils.fileWrite( added.getPath(), "added" );
+        setDirectoriesLastModified( basedir, now );
+
+        walker = new CachingSourceFileWalker( cacheDirectory );
+        walked = walker.walk( basedir );
+        assertEquals( 0, walker.getReusedCount() );
+        assertEquals( 2, walker.getListedCount() );
+        assertTrue( walked.contains( "apt" + File.separator + "added.apt" ) );
+    }
+
+    private File createSourceTree( String path )
+        throws Exception
+    {
+        File basedir = getTestFile( path );
+        FileUtils.deleteDirectory( basedir );
+
+        File apt = new File( basedir, "apt" );
+        apt.mkdirs();
+        FileUtils.fileWrite( new File( apt, "index.apt" ).getPath(), "index" );
+
+        return basedir;
+    }
+
+    private static void setDirectoriesLastModified( File basedir, long lastModified )
+    {
+        new File( basedir, "apt" ).setLastModified( lastModified );
+        basedir.setLastModified( lastModified );
+    }
+}
@@ -0,0 +1,136 @@
+package org.apache.maven.doxia.siterenderer;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.File;
+
+import org.codehaus.plexus.PlexusTestCase;
+import org.codehaus.plexus.util.FileUtils;
+
+/**
+ * @version $Id$
+ */
+public class WriteIfChangedOutputStreamTest
+    extends PlexusTestCase
+{
+    private File dir;
+
+    /** {@inheritDoc} */
+    @Override
+    protected void setUp()
+        throws Exception
+    {
+        super.setUp();
+
+        dir = getTestFile( "target/write-if-changed-stream" );
+        FileUtils.deleteDirectory( dir );
+        dir.mkdirs();
+    }
+
+    /**
+     * @throws Exception if something goes wrong.
+     */
+    public void testUnchanged()
+        throws Exception
+    {
+        File file = new File( dir, "page.html" );
+        FileUtils.fileWrite( file.getAbsolutePath(), "UTF-8", "same content" );
+        file.setLastModified( file.lastModified() - 60000 );
+        long lastModified = file.lastModified();
+
+        assertFalse( write( file, "same ", "content" ) );
+        assertEquals( lastModified, file.lastModified() );
+        assertEquals( 1, dir.list().length );
+    }
+
+    /**
+     * @throws Exception if something goes wrong.
+     */
+    public void testChanged()
+        throws Exception
+    {
+        File file = new File( dir, "page.html" );
+
+        // created
+        assertTrue( write( file, "first ", "content" ) );
+        assertEquals( "first content", FileUtils.fileRead( file, "UTF-8" ) );
+
+        // differing after the first write: the compared part is kept
+        assertTrue( write( file, "first ", "contents" ) );
+        assertEquals( "first contents", FileUtils.fileRead( file, "UTF-8" ) );
+
+        // longer file
+        assertTrue( write( file, "first" ) );
+        assertEquals( "first", FileUtils.fileRead( file, "UTF-8" ) );
+
+        // different in the middle of a write
+        assertTrue( write( file, "fixed" ) );
+        assertEquals( "fixed", FileUtils.fileRead( file, "UTF-8" ) );
+
+        // no temporary file left
+        assertEquals( 1, dir.list().length );
+    }
+
+    /**
+     * Discarded without a commit, after a failure: the file is left untouched.
+     *
+     * @throws Exception if something goes wrong.
+     */
+    public void testNotCommitted()
+        throws Exception
+    {
+        File file = new File( dir, "page.html" );
+        FileUtils.fileWrite( file.getAbsolutePath(), "UTF-8", "content" );
+
+        WriteIfChangedOutputStream out = new WriteIfChangedOutputStream( file );
+        out.write( "other".getBytes( "UTF-8" ) );
+        out.discard();
+
+        assertEquals( "content", FileUtils.fileRead( file, "UTF-8" ) );
+        assertEquals( 1, dir.list().length );
+    }
+
+    private static boolean write( File file, String... parts )
+        throws Exception
+    {
+        WriteIfChangedOutputStream out = new WriteIfChangedOutputStream( file );
+        try
+        {
+            long count = 0;
+            for ( String part : parts )
+            {
+                byte[] bytes = part.getBytes( "UTF-8" );
+                out.write( bytes );
+                count += bytes.length;
+            }
+
+            assertEquals( count, out.getCount() );
+
+            // closed by the renderer before the commit
+            out.close();
+
+            return out.commit();
+        }
+        finally
+        {
+            out.discard();
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package org.apache.maven.doxia.siterenderer;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.File;
+import java.io.StringReader;
+
+import junit.framework.TestCase;
+
+import org.apache.maven.doxia.logging.SystemStreamLog;
+import org.apache.maven.doxia.parser.ParseException;
+import org.apache.maven.doxia.siterenderer.sink.ContentBuffer;
+import org.codehaus.plexus.util.FileUtils;
+
+/**
+ * @version $Id$
+ */
+public class XmlSourceValidatorTest
+    extends TestCase
+{
+    private static final String DTD = "<!DOCTYPE a [ <!ELEMENT a (b*)> <!ELEMENT b EMPTY> ]>";
+
+    /**
+     * The validator is reused for several documents.
+     *
+     * @throws Exception if something goes wrong.
+     */
+    public void testValidate()
+        throws Exception
+    {
+        XmlSourceValidator validator = new XmlSourceValidator( new SystemStreamLog() );
+
+        validator.report( validator.validate( buffer( DTD + "<a><b/></a>" ) ) );
+
+        try
+        {
+            validator.report( validator.validate( buffer( DTD + "<a><c/></a>" ) ) );
+            fail( "c is not declared" );
+        }
+        catch ( ParseException e )
+        {
+            assertTrue( e.getMessage().indexOf( "Error:" ) >= 0 );
+        }
+
+        try
+        {
+            validator.report( validator.validate( buffer( DTD + "<a><b></a>" ) ) );
+            fail( "not well formed" );
+        }
+        catch ( ParseException e )
+        {
+            assertTrue( e.getMessage().indexOf( "Fatal error:" ) >= 0 );
+        }
+
+        validator.report( validator.validate( buffer( DTD + "<a><b/><b/></a>" ) ) );
+    }
+
+    /**
+     * Validation results survive in the cache directory.
+     *
+     * @throws Exception if something goes wrong.
+     */
+    public void testValidationCache()
+        throws Exception
+    {
+        File cacheDirectory = new File( "target/validation-cache" );
+        FileUtils.deleteDirectory( cacheDirectory );
+
+        XmlSourceValidator validator = new XmlSourceValidator( new SystemStreamLog() );
+        ContentBuffer valid = buffer( DTD + "<a><b/></a>" );
+        ContentBuffer invalid = buffer( DTD + "<a><c/></a>" );
+
+        ValidationCache cache = ValidationCache.load( cacheDirectory, validator );
+        assertNull( cache.get( ValidationCache.digest( valid ) ) );
+        cache.put( ValidationCache.digest( valid ), validator.validate( valid ) );
+        cache.put( ValidationCache.digest( invalid ), validator.validate( invalid ) );
+        cache.save();
+
+        cache = ValidationCache.load( cacheDirectory, validator );
+
+        // the key does not depend on how the content was written
+        ContentBuffer copy = new ContentBuffer();
+        String content = DTD + "<a><b/></a>";
+        for ( int i = 0; i < content.length(); i++ )
+        {
+            copy.write( content.charAt( i ) );
+        }
+        XmlSourceValidator.ValidationResult result = cache.get( ValidationCache.digest( copy ) );
+        assertNotNull( result );
+        validator.report( result );
+
+        result = cache.get( ValidationCache.digest( invalid ) );
+        assertNotNull( result );
+        try
+        {
+            validator.report( result );
+            fail( "c is not declared" );
+        }
+        catch ( ParseException e )
+        {
+            assertTrue( e.getMessage().indexOf( "Error:" ) >= 0 );
+        }
+
+        assertEquals( 2, cache.getHits() );
+    }
+
+    /**
+     * A validator message longer than 64 KB does not prevent the cache from being saved.
+     *
+     * @throws Exception if something goes wrong.
+     */
+    public void testValidationCacheLongMessage()
+        throws Exception
+    {
+        File cacheDirectory = new File( "target/validation-cache-long" );
+        FileUtils.deleteDirectory( cacheDirectory );
+
+        StringBuilder message = new StringBuilder( 70000 );
+        while ( message.length() < 70000 )
+        {
+            message.append( "\u00e9l\u00e9ment non d\u00e9clar\u00e9. " );
+        }
+
+        XmlSourceValidator validator = new XmlSourceValidator( new SystemStreamLog() );
+        XmlSourceValidator.ValidationResult result = new XmlSourceValidator.ValidationResult();
+        result.warnings.add( message.toString() );
+        result.error = message.toString();
+
+        ValidationCache cache = ValidationCache.load( cacheDirectory, validator );
+        cache.put( "long", result );
+        cache.save();
+
+        result = ValidationCache.load( cacheDirectory, validator ).get( "long" );
+        assertNotNull( result );
+        assertEquals( message.toString(), result.error );
+        assertEquals( 1, result.warnings.size() );
+        assertEquals( message.toString(), result.warnings.get( 0 ) );
+    }
+
+    /**
+     * A document validated with a grammar taken from the pool depends on the pooled DTD, even though it did not
+     * resolve it.
+     *
+     * @throws Exception if something goes wrong.
+     */
+    public void testPooledGrammarDependency()
+        throws Exception
+    {
+        // the entity resolver reads an entity already in the temporary directory from there
+        String name = "doxia-pooled-" + System.currentTimeMillis() + ".dtd";
+        File dtd = new File( System.getProperty( "java.io.tmpdir" ), name );
+        FileUtils.fileWrite( dtd.getAbsolutePath(), "<!ELEMENT a (b*)> <!ELEMENT b EMPTY>" );
+        dtd.deleteOnExit();
+
+        String systemId = "http://maven.apache.org/doxia/test/" + name;
+        String doctype = "<!DOCTYPE a SYSTEM \"" + systemId + "\">";
+
+        XmlSourceValidator validator = new XmlSourceValidator( new SystemStreamLog() );
+
+        XmlSourceValidator.ValidationResult first = validator.validate( buffer( doctype + "<a><b/></a>" ) );
+        validator.report( first );
+        assertTrue( hasEntity( first, systemId ) );
+
+        XmlSourceValidator.ValidationResult second = validator.validate( buffer( doctype + "<a><b/><b/></a>" ) );
+        validator.report( second );
+        assertTrue( second.cacheable );
+        assertTrue( hasEntity( second, systemId ) );
+    }
+
+    /**
+     * @throws Exception if something goes wrong.
+     */
+    public void testReadProlog()
+        throws Exception
+    {
+        XmlSourceValidator.Prolog prolog = XmlSourceValidator.readProlog( new StringReader(
+            "<?xml version=\"1.0\"?><!-- a <comment> --><!DOCTYPE document [ <!-- it's --> <!ENTITY a \"]>\"> ]>"
+                + "<document xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\"><section/></document>" ) );
+        assertTrue( prolog.doctype );
+        assertFalse( prolog.specificDtd );
+        assertTrue( prolog.xsd );
+
+        prolog = XmlSourceValidator.readProlog( new StringReader(
+            "<!DOCTYPE a SYSTEM \"a.dtd\" [ <!ENTITY b \"c\"> ]>"
+                + "<a><b xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\"/></a>" ) );
+        assertTrue( prolog.doctype );
+        assertTrue( prolog.specificDtd );
+        assertFalse( prolog.xsd );
+    }
+
+    private static boolean hasEntity( XmlSourceValidator.ValidationResult result, String systemId )
+    {
+        for ( XmlSourceValidator.Entity entity : result.entities )
+        {
+            if ( systemId.equals( entity.systemId ) )
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private static ContentBuffer buffer( String content )
+    {
+        ContentBuffer buffer = new ContentBuffer();
+        buffer.write( content );
+        return buffer;
+    }
+}
@@ -0,0 +1,119 @@
+package org.apache.maven.doxia.siterenderer.jfr;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.File;
+import java.util.List;
+
+import org.codehaus.plexus.PlexusTestCase;
+
+/**
+ * The events are recorded through the Flight Recorder API, itself called by reflection: the tests also run with
+ * Java versions without Flight Recorder.
+ *
+ * @version $Id$
+ */
+public class JfrEventTypeTest
+    extends PlexusTestCase
+{
+    /**
+     * Without a running recording, events are not started.
+     */
+    public void testDisabled()
+    {
+        JfrEventType type =
+            JfrEventType.create( "org.apache.maven.doxia.test.Disabled", "Disabled", "Not recorded",
+                                 new String[] { "document" }, new Class<?>[] { String.class } );
+
+        assertFalse( type.isEnabled() );
+        assertNull( type.begin() );
+
+        // nothing to commit
+        type.commit( null, "index.html" );
+    }
+
+    /**
+     * A recording enabling the event type gets the events, with their fields and their duration.
+     *
+     * @throws Exception if something goes wrong.
+     */
+    public void testRecorded()
+        throws Exception
+    {
+        if ( !JfrEventType.isAvailable() )
+        {
+            return;
+        }
+
+        String name = "org.apache.maven.doxia.test.Recorded";
+        JfrEventType type =
+            JfrEventType.create( name, "Recorded", "Recorded by the test", new String[] { "document", "outputBytes" },
+                                 new Class<?>[] { String.class, long.class } );
+
+        Class<?> recordingClass = Class.forName( "jdk.jfr.Recording" );
+        Object recording = recordingClass.newInstance();
+        recordingClass.getMethod( "enable", String.class ).invoke( recording, name );
+        recordingClass.getMethod( "start" ).invoke( recording );
+
+        File dump = getTestFile( "target/jfr-event-type.jfr" );
+        try
+        {
+            assertTrue( type.isEnabled() );
+
+            Object event = type.begin();
+            assertNotNull( event );
+            Thread.sleep( 20 );
+            type.commit( event, "index.html", Long.valueOf( 42 ) );
+        }
+        finally
+        {
+            recordingClass.getMethod( "stop" ).invoke( recording );
+            recordingClass.getMethod( "dump", Class.forName( "java.nio.file.Path" ) )
+                .invoke( recording, File.class.getMethod( "toPath" ).invoke( dump ) );
+            recordingClass.getMethod( "close" ).invoke( recording );
+        }
+
+        Class<?> recordedEventClass = Class.forName( "jdk.jfr.consumer.RecordedEvent" );
+        List<?> events = (List<?>) Class.forName( "jdk.jfr.consumer.RecordingFile" )
+            .getMethod( "readAllEvents", Class.forName( "java.nio.file.Path" ) )
+            .invoke( null, File.class.getMethod( "toPath" ).invoke( dump ) );
+
+        int recorded = 0;
+        for ( Object event : events )
+        {
+            Object eventType = recordedEventClass.getMethod( "getEventType" ).invoke( event );
+            if ( name.equals( eventType.getClass().getMethod( "getName" ).invoke( eventType ) ) )
+            {
+                recorded++;
+
+                assertEquals( "index.html", recordedEventClass.getMethod( "getString", String.class )
+                    .invoke( event, "document" ) );
+                assertEquals( Long.valueOf( 42 ), recordedEventClass.getMethod( "getLong", String.class )
+                    .invoke( event, "outputBytes" ) );
+
+                // begun before the commit: the event has a duration
+                Object duration = recordedEventClass.getMethod( "getDuration" ).invoke( event );
+                long millis = ( (Long) duration.getClass().getMethod( "toMillis" ).invoke( duration ) ).longValue();
+                assertTrue( millis >= 10 );
+            }
+        }
+        assertEquals( 1, recorded );
+    }
+}
@@ -0,0 +1,126 @@
+package org.apache.maven.doxia.siterenderer.sink;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.StringWriter;
+
+import junit.framework.TestCase;
+
+import org.codehaus.plexus.util.IOUtil;
+
+/**
+ * @version $Id$
+ */
+public class ContentBufferTest
+    extends TestCase
+{
+    public void testEmpty()
+        throws Exception
+    {
+        ContentBuffer buffer = new ContentBuffer();
+
+        assertEquals( 0, buffer.length() );
+        assertEquals( "", buffer.toString() );
+        assertEquals( "", IOUtil.toString( buffer.newReader() ) );
+    }
+
+    public void testContentAcrossChunks()
+        throws Exception
+    {
+        ContentBuffer buffer = new ContentBuffer();
+        StringBuilder expected = new StringBuilder();
+
+        for ( int i = 0; i < 20000; i++ )
+        {
+            String line = "line " + i + "\n";
+            expected.append( line ).append( 'x' ).append( line, 1, 3 );
+
+            buffer.write( line );
+            buffer.write( 'x' );
+            buffer.write( line.toCharArray(), 1, 2 );
+        }
+
+        assertEquals( expected.length(), buffer.length() );
+        assertEquals( expected.toString(), buffer.toString() );
+        assertEquals( expected.toString(), IOUtil.toString( buffer.newReader() ) );
+
+        StringWriter out = new StringWriter();
+        buffer.writeTo( out );
+        assertEquals( expected.toString(), out.toString() );
+    }
+
+    public void testSpill()
+        throws Exception
+    {
+        ContentBuffer buffer = new ContentBuffer( 1000 );
+        StringBuilder expected = new StringBuilder();
+
+        for ( int i = 0; i < 5000; i++ )
+        {
+            // characters outside of Latin-1 survive the temporary file
+            String line = "line \u20ac" + i + "\n";
+            expected.append( line );
+
+            buffer.write( line );
+        }
+
+        assertTrue( buffer.isSpilled() );
+        assertEquals( expected.length(), buffer.length() );
+        assertEquals( expected.toString(), buffer.toString() );
+        assertEquals( expected.toString(), IOUtil.toString( buffer.newReader() ) );
+
+        StringWriter out = new StringWriter();
+        buffer.writeTo( out );
+        assertEquals( expected.toString(), out.toString() );
+
+        buffer.dispose();
+        assertFalse( buffer.isSpilled() );
+        assertEquals( 0, buffer.length() );
+    }
+
+    public void testSpillLargeWrites()
+        throws Exception
+    {
+        ContentBuffer buffer = new ContentBuffer( 100 );
+        StringBuilder expected = new StringBuilder();
+
+        // longer than the buffer of the temporary file, with a surrogate pair across the writes
+        StringBuilder block = new StringBuilder();
+        for ( int i = 0; i < 20000; i++ )
+        {
+            block.append( (char) ( 'a' + i % 26 ) );
+        }
+        block.append( '\ud834' );
+        String text = block.toString();
+
+        buffer.write( text );
+        expected.append( text );
+        buffer.write( '\udd1e' );
+        expected.append( '\udd1e' );
+        buffer.write( text.toCharArray(), 1, text.length() - 1 );
+        expected.append( text, 1, text.length() );
+
+        assertTrue( buffer.isSpilled() );
+        assertEquals( expected.length(), buffer.length() );
+        assertEquals( expected.toString(), buffer.toString() );
+
+        buffer.dispose();
+    }
+}
@@ -0,0 +1,99 @@
+package org.apache.maven.doxia.siterenderer.sink;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.File;
+
+import junit.framework.TestCase;
+
+import org.apache.maven.doxia.sink.render.RenderingContext;
+
+/**
+ * @version $Id$
+ */
+public class SiteRendererSinkTest
+    extends TestCase
+{
+    private final RenderingContext context = new RenderingContext( new File( "src/site" ), "a/b/index.html" );
+
+    private String render( String... texts )
+    {
+        SiteRendererSink sink = new SiteRendererSink( context );
+
+        for ( String text : texts )
+        {
+            sink.rawText( text );
+        }
+
+        sink.close();
+
+        return sink.getBody();
+    }
+
+    public void testRelativePath()
+    {
+        String relativePath = context.getRelativePath();
+
+        assertEquals( "no placeholder", render( "no placeholder" ) );
+        assertEquals( "<a href=\"" + relativePath + "/x.html\">$</a>",
+                      render( "<a href=\"$relativePath/x.html\">$</a>" ) );
+        assertEquals( relativePath + "/x.html " + relativePath + "/y.html",
+                      render( "$relativePath/x.html $relativePath/y.html" ) );
+    }
+
+    public void testRelativePathAcrossWrites()
+    {
+        String relativePath = context.getRelativePath();
+
+        assertEquals( relativePath + "/x.html", render( "$rel", "ativePath/x.html" ) );
+        assertEquals( relativePath + "/x.html", render( "$", "relative", "Path", "/x.html" ) );
+        assertEquals( "$rel$reference", render( "$rel", "$reference" ) );
+        assertEquals( "cost: 5$", render( "cost: 5$" ) );
+        assertEquals( "$relative", render( "$rel", "ative" ) );
+    }
+
+    public void testRelativePathInTable()
+    {
+        String relativePath = context.getRelativePath();
+
+        SiteRendererSink sink = new SiteRendererSink( context );
+        sink.rawText( "before $relativePath/x.html " );
+        sink.table();
+        sink.tableRows( null, false );
+        sink.tableRow();
+        sink.tableCell();
+        sink.rawText( "in $relativePath/y.html cell" );
+        sink.tableCell_();
+        sink.tableRow_();
+        sink.tableRows_();
+        sink.table_();
+        sink.rawText( " after $relativePath/z.html" );
+        sink.close();
+
+        // the table content is buffered by the sink: the substituted text is kept in order
+        String body = sink.getBody();
+        int before = body.indexOf( "before " + relativePath + "/x.html" );
+        int cell = body.indexOf( "in " + relativePath + "/y.html cell" );
+        int after = body.indexOf( "after " + relativePath + "/z.html" );
+        assertTrue( body, before >= 0 );
+        assertTrue( body, cell > before );
+        assertTrue( body, after > cell );
+    }
+}
@@ -0,0 +1,52 @@
+package org.apache.maven.doxia.siterenderer.benchmarks;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Run the benchmarks with the JMH command line options, always with the GC profiler: besides the pages per
+ * second, <code>gc.alloc.rate.norm</code> gives the bytes allocated per page.
+ *
+ * @version $Id$
+ * @since 1.4
+ */
+public final class BenchmarkMain
+{
+    private BenchmarkMain()
+    {
+        // no instance
+    }
+
+    /**
+     * @param args the JMH command line options, for instance <code>RenderDocument -p pages=5000</code>.
+     * @throws Exception if something goes wrong.
+     */
+    public static void main( String[] args )
+        throws Exception
+    {
+        CommandLineOptions options = new CommandLineOptions( args );
+
+        new Runner( new OptionsBuilder().parent( options ).addProfiler( GCProfiler.class ).build() ).run();
+    }
+}
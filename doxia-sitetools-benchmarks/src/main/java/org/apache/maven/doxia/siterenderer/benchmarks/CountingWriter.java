@@ -0,0 +1,77 @@
+package org.apache.maven.doxia.siterenderer.benchmarks;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.Writer;
+
+/**
+ * A writer counting the characters written, and discarding them.
+ *
+ * @version $Id$
+ * @since 1.4
+ */
+class CountingWriter
+    extends Writer
+{
+    private long count;
+
+    /**
+     * @return the number of characters written.
+     */
+    long getCount()
+    {
+        return count;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void write( char[] cbuf, int off, int len )
+    {
+        count += len;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void write( String str, int off, int len )
+    {
+        count += len;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void write( int c )
+    {
+        count++;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void flush()
+    {
+        // nop
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void close()
+    {
+        // nop
+    }
+}
@@ -0,0 +1,115 @@
+package org.apache.maven.doxia.siterenderer.benchmarks;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.File;
+import java.io.Reader;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.maven.doxia.Doxia;
+import org.apache.maven.doxia.sink.render.RenderingContext;
+import org.apache.maven.doxia.siterenderer.sink.SiteRendererSink;
+import org.codehaus.plexus.util.IOUtil;
+import org.codehaus.plexus.util.ReaderFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The merge of the default template around a parsed apt page: one operation is one page.
+ *
+ * @version $Id$
+ * @since 1.4
+ */
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.SECONDS )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+public class GenerateDocumentBenchmark
+{
+    /**
+     * A page parsed once.
+     */
+    @State( Scope.Benchmark )
+    public static class ParsedDocument
+    {
+        private SiteRendererSink sink;
+
+        /**
+         * @param site the site.
+         * @throws Exception if something goes wrong.
+         */
+        @Setup( Level.Trial )
+        public void setUp( SiteState site )
+            throws Exception
+        {
+            File basedir = new File( site.siteDirectory, "apt" );
+            String document = null;
+            for ( String source : site.sources )
+            {
+                if ( source.startsWith( "apt/" ) && source.endsWith( ".apt" ) )
+                {
+                    document = source.substring( "apt/".length() );
+                    break;
+                }
+            }
+
+            sink = new SiteRendererSink( new RenderingContext( basedir, document ) );
+
+            Doxia doxia = (Doxia) site.container.lookup( Doxia.ROLE );
+            Reader reader = ReaderFactory.newReader( new File( basedir, document ), "UTF-8" );
+            try
+            {
+                doxia.parse( reader, "apt", sink );
+            }
+            finally
+            {
+                IOUtil.close( reader );
+                sink.close();
+            }
+        }
+    }
+
+    /**
+     * @param site the site.
+     * @param document the parsed page.
+     * @return the output length.
+     * @throws Exception if something goes wrong.
+     */
+    @Benchmark
+    public long generateDocument( SiteState site, ParsedDocument document )
+        throws Exception
+    {
+        CountingWriter writer = new CountingWriter();
+
+        site.renderer.generateDocument( writer, document.sink, site.context );
+
+        return writer.getCount();
+    }
+}
@@ -0,0 +1,118 @@
+package org.apache.maven.doxia.siterenderer.benchmarks;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.maven.doxia.sink.render.RenderingContext;
+import org.apache.maven.doxia.siterenderer.DocumentRenderer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The rendering of a page, from its source to the decorated output, by source type: one operation is one page,
+ * the pages of the type being rendered in turn.
+ *
+ * @version $Id$
+ * @since 1.4
+ */
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.SECONDS )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+public class RenderDocumentBenchmark
+{
+    /**
+     * The pages of a source type.
+     */
+    @State( Scope.Thread )
+    public static class Documents
+    {
+        /** The source type: a parser id, or <code>vm</code> for Velocity apt pages. */
+        @Param( { "apt", "xdoc", "fml", "vm" } )
+        public String type;
+
+        private final List<DocumentRenderer> documents = new ArrayList<DocumentRenderer>();
+
+        private int next;
+
+        /**
+         * @param site the site.
+         * @throws Exception if something goes wrong.
+         */
+        @Setup( Level.Trial )
+        public void setUp( SiteState site )
+            throws Exception
+        {
+            for ( DocumentRenderer document : site.renderer.locateDocumentFiles( site.context ).values() )
+            {
+                RenderingContext renderingContext = document.getRenderingContext();
+                boolean velocity = renderingContext.getAttribute( "velocity" ) != null;
+
+                if ( "vm".equals( type ) ? velocity : ( !velocity && type.equals( renderingContext.getParserId() ) ) )
+                {
+                    documents.add( document );
+                }
+            }
+
+            if ( documents.isEmpty() )
+            {
+                throw new IllegalStateException( "No " + type + " page in " + site.siteDirectory );
+            }
+        }
+
+        DocumentRenderer next()
+        {
+            DocumentRenderer document = documents.get( next );
+            next = ( next + 1 ) % documents.size();
+            return document;
+        }
+    }
+
+    /**
+     * @param site the site.
+     * @param documents the pages of the source type.
+     * @return the output length.
+     * @throws Exception if something goes wrong.
+     */
+    @Benchmark
+    public long renderDocument( SiteState site, Documents documents )
+        throws Exception
+    {
+        CountingWriter writer = new CountingWriter();
+
+        documents.next().renderDocument( writer, site.renderer, site.context );
+
+        return writer.getCount();
+    }
+}
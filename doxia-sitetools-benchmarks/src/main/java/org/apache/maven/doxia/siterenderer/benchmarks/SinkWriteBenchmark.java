@@ -0,0 +1,126 @@
+package org.apache.maven.doxia.siterenderer.benchmarks;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.maven.doxia.sink.render.RenderingContext;
+import org.apache.maven.doxia.siterenderer.sink.SiteRendererSink;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The writes of the site sink, where <code>$relativePath</code> placeholders are substituted: one operation is
+ * one page body of 1000 blocks, written to a new sink.
+ *
+ * @version $Id$
+ * @since 1.4
+ */
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.SECONDS )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+public class SinkWriteBenchmark
+{
+    private static final int BLOCKS = 1000;
+
+    private static final String PLAIN = "<p>A paragraph of text, without any placeholder to substitute.</p>\n";
+
+    private static final String LINKS =
+        "<p><a href=\"$relativePath/page.html\">A page</a> and its <img src=\"$relativePath/images/logo.png\""
+            + " alt=\"logo\" /></p>\n";
+
+    /**
+     * The blocks of a page body.
+     */
+    @State( Scope.Thread )
+    public static class Blocks
+    {
+        /**
+         * The content: <code>plain</code> text, <code>links</code> with placeholders, or <code>split</code> links
+         * with placeholders cut across two writes.
+         */
+        @Param( { "plain", "links", "split" } )
+        public String content;
+
+        private final List<String> blocks = new ArrayList<String>();
+
+        /**
+         * Prepare the blocks.
+         */
+        @Setup( Level.Trial )
+        public void setUp()
+        {
+            for ( int i = 0; i < BLOCKS; i++ )
+            {
+                if ( "plain".equals( content ) )
+                {
+                    blocks.add( PLAIN );
+                }
+                else if ( "links".equals( content ) )
+                {
+                    blocks.add( LINKS );
+                }
+                else
+                {
+                    int middle = LINKS.indexOf( "$relativePath" ) + 5;
+                    blocks.add( LINKS.substring( 0, middle ) );
+                    blocks.add( LINKS.substring( middle ) );
+                }
+            }
+        }
+    }
+
+    /**
+     * @param blocks the blocks of the page body.
+     * @return the body length.
+     */
+    @Benchmark
+    public int write( Blocks blocks )
+    {
+        SiteRendererSink sink = new SiteRendererSink( new RenderingContext( new File( "" ), "dir/page.html" ) );
+
+        for ( String block : blocks.blocks )
+        {
+            sink.rawText( block );
+        }
+        sink.flush();
+
+        int length = sink.getBodyContent().length();
+
+        sink.close();
+
+        return length;
+    }
+}
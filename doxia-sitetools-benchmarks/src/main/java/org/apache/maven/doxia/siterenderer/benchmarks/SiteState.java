@@ -0,0 +1,118 @@
+package org.apache.maven.doxia.siterenderer.benchmarks;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.apache.maven.doxia.site.decoration.DecorationModel;
+import org.apache.maven.doxia.siterenderer.Renderer;
+import org.apache.maven.doxia.siterenderer.SiteGenerator;
+import org.apache.maven.doxia.siterenderer.SiteRenderingContext;
+import org.codehaus.plexus.DefaultPlexusContainer;
+import org.codehaus.plexus.PlexusContainer;
+import org.codehaus.plexus.util.FileUtils;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * A generated site and the renderer, shared by every benchmark thread. The site is written under
+ * <code>target/benchmarks</code>, or the directory given by the <code>benchmarks.directory</code> system property.
+ *
+ * @version $Id$
+ * @since 1.4
+ */
+@State( Scope.Benchmark )
+public class SiteState
+{
+    /** The seed of the generated site. */
+    private static final long SEED = 20120101L;
+
+    private static final String DEFAULT_TEMPLATE = "org/apache/maven/doxia/siterenderer/resources/default-site.vm";
+
+    /** The number of pages of the site. */
+    @Param( { "500" } )
+    public int pages;
+
+    PlexusContainer container;
+
+    Renderer renderer;
+
+    SiteRenderingContext context;
+
+    File siteDirectory;
+
+    File outputDirectory;
+
+    /** The generated sources, relative to the site directory. */
+    List<String> sources;
+
+    /**
+     * Generate the site and start the renderer.
+     *
+     * @throws Exception if something goes wrong.
+     */
+    @Setup( Level.Trial )
+    public void setUp()
+        throws Exception
+    {
+        File directory = new File( System.getProperty( "benchmarks.directory", "target/benchmarks" ) );
+        siteDirectory = new File( directory, "site-" + pages );
+        outputDirectory = new File( directory, "output-" + pages );
+
+        FileUtils.deleteDirectory( siteDirectory );
+        FileUtils.deleteDirectory( outputDirectory );
+
+        SiteGenerator generator = new SiteGenerator();
+        generator.setSeed( SEED );
+        generator.setDocuments( pages );
+        sources = generator.generate( siteDirectory );
+
+        container = new DefaultPlexusContainer();
+        renderer = (Renderer) container.lookup( Renderer.ROLE );
+
+        context = new SiteRenderingContext();
+        context.setTemplateName( DEFAULT_TEMPLATE );
+        context.setTemplateClassLoader( Renderer.class.getClassLoader() );
+        context.setUsingDefaultTemplate( true );
+        Map<String, String> templateProperties = new HashMap<String, String>();
+        templateProperties.put( "outputEncoding", "UTF-8" );
+        context.setTemplateProperties( templateProperties );
+        context.setLocale( Locale.ENGLISH );
+        context.setDecoration( new DecorationModel() );
+        context.addSiteDirectory( siteDirectory );
+    }
+
+    /**
+     * Stop the renderer.
+     */
+    @TearDown( Level.Trial )
+    public void tearDown()
+    {
+        container.dispose();
+    }
+}